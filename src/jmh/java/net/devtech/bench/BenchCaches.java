@@ -0,0 +1,86 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.PrioritisedFile2DChunkCache;
+import net.devtech.chunk2d.PrioritisedRegionFile2DChunkCache;
+import net.devtech.chunk2d.TierPolicy;
+import net.devtech.data.Codec;
+import net.devtech.data.Codecs;
+import net.devtech.data.StorageBackend;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// shared setup for the benchmarks
+public final class BenchCaches {
+	public static final int REGION_SIZE = 32;
+
+	public enum Layout {
+		FILE, REGION
+	}
+
+	public enum Policy {
+		SCAN, SEGMENTED_LRU, TINY_LFU;
+
+		public TierPolicy create(int capacity) {
+			switch (this) {
+				case SEGMENTED_LRU:
+					return TierPolicy.segmentedLru();
+				case TINY_LFU:
+					return TierPolicy.tinyLfu(capacity);
+				default:
+					return null;
+			}
+		}
+	}
+
+	public enum CodecType {
+		NONE, DEFLATE, GZIP;
+
+		public Codec codec() {
+			switch (this) {
+				case NONE:
+					return Codecs.NONE;
+				case DEFLATE:
+					return Codecs.DEFLATE;
+				default:
+					return Codecs.GZIP;
+			}
+		}
+	}
+
+	private BenchCaches() {}
+
+	public static PrioritisedFile2DChunkCache<BenchChunk> create(Layout layout, File folder, int frequentSize, int inMemorySize, StorageBackend backend, Codec codec) {
+		if (layout == Layout.REGION)
+			return new PrioritisedRegionFile2DChunkCache<>(folder, BenchChunk::generate, BenchChunk.DESERIALIZER, BenchChunk.SERIALIZER, frequentSize, inMemorySize, REGION_SIZE, backend, codec);
+		return new PrioritisedFile2DChunkCache<>(folder, BenchChunk::generate, BenchChunk.DESERIALIZER, BenchChunk.SERIALIZER, frequentSize, inMemorySize, backend, codec);
+	}
+
+	/**
+	 * creates a cache that still probes the storage on a miss but never writes, so evictions only cost the tier bookkeeping
+	 */
+	public static PrioritisedFile2DChunkCache<BenchChunk> createReadOnly(Layout layout, File folder, int frequentSize, int inMemorySize) {
+		if (layout == Layout.REGION)
+			return new PrioritisedRegionFile2DChunkCache<BenchChunk>(folder, BenchChunk::generate, BenchChunk.DESERIALIZER, BenchChunk.SERIALIZER, frequentSize, inMemorySize, REGION_SIZE, StorageBackend.STREAM, Codecs.NONE) {
+				@Override
+				protected void serialize(int x, int y, BenchChunk c, boolean force) {}
+			};
+		return new PrioritisedFile2DChunkCache<BenchChunk>(folder, BenchChunk::generate, BenchChunk.DESERIALIZER, BenchChunk.SERIALIZER, frequentSize, inMemorySize, StorageBackend.STREAM, Codecs.NONE) {
+			@Override
+			protected void serialize(int x, int y, BenchChunk c, boolean force) {}
+		};
+	}
+
+	public static File tempFolder() throws IOException {
+		return Files.createTempDirectory("chunkcache-bench").toFile();
+	}
+
+	public static void delete(File folder) throws IOException {
+		try (Stream<Path> paths = Files.walk(folder.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.Located2D;
+import net.devtech.data.BufferDeserializer2D;
+import net.devtech.data.BufferSerializer;
+import net.devtech.data.Deserializer;
+import net.devtech.data.Serializer;
+import java.awt.Point;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+// a chunk with a payload that compresses roughly like terrain, runs of equal values with some noise
+public class BenchChunk implements Located2D {
+	public static final int PAYLOAD = 256;
+	public static final Serializer<BenchChunk, OutputStream> SERIALIZER = ((BufferSerializer<BenchChunk>) (chunk, buffer) -> {
+		for (int i : chunk.payload)
+			buffer.putInt(i);
+	}).asSerializer();
+	public static final Deserializer<BenchChunk, InputStream, Point> DESERIALIZER = ((BufferDeserializer2D<BenchChunk>) (buffer, x, y) -> {
+		BenchChunk chunk = new BenchChunk(x, y, null);
+		for (int i = 0; i < PAYLOAD; i++)
+			chunk.payload[i] = buffer.getInt();
+		return chunk;
+	}).asDeserializer();
+
+	private final int x;
+	private final int y;
+	public final int[] payload = new int[PAYLOAD];
+
+	public BenchChunk(int x, int y, Random random) {
+		this.x = x;
+		this.y = y;
+		if (random != null)
+			for (int i = 0; i < PAYLOAD; i++)
+				payload[i] = random.nextInt(8) == 0 ? random.nextInt() : i / 16;
+	}
+
+	public static BenchChunk generate(int x, int y) {
+		return new BenchChunk(x, y, new Random(Located2D.key(x, y)));
+	}
+
+	@Override
+	public int getX() {
+		return x;
+	}
+
+	@Override
+	public int getY() {
+		return y;
+	}
+}
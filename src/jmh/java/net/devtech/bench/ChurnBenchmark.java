@@ -0,0 +1,59 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.Located2D;
+import net.devtech.chunk2d.PrioritisedFile2DChunkCache;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// an eviction heavy workload where the working set is much larger than the cache, the misses counter gives the hit rate
+// of every tier policy next to its cost
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChurnBenchmark {
+	private static final int ACCESSES = 1 << 16;
+
+	@Param({"UNIFORM", "MOVING_PLAYER", "CLUSTERED_PLAYERS"})
+	public Workload workload;
+	@Param({"SCAN", "SEGMENTED_LRU", "TINY_LFU"})
+	public BenchCaches.Policy policy;
+
+	private File folder;
+	private PrioritisedFile2DChunkCache<BenchChunk> cache;
+	private long[] keys;
+	private int index;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+		public long misses;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchCaches.tempFolder();
+		cache = BenchCaches.createReadOnly(BenchCaches.Layout.FILE, folder, 64, 256);
+		cache.setTierPolicy(policy.create(64));
+		keys = workload.keys(ACCESSES, 0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchCaches.delete(folder);
+	}
+
+	@Benchmark
+	public BenchChunk getAndSet(Counters counters) {
+		long key = keys[index++ & ACCESSES - 1];
+		int x = Located2D.keyX(key), y = Located2D.keyY(key);
+		if (cache.getPriority(x, y) == PrioritisedFile2DChunkCache.Priority.UNLOADED) counters.misses++;
+		BenchChunk chunk = cache.get(x, y);
+		cache.set(x, y, chunk);
+		return chunk;
+	}
+}
@@ -0,0 +1,43 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.PrioritisedFile2DChunkCache;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// a get for a chunk that was never saved, the storage is probed and the chunk is generated, saving is disabled so only the
+// miss path is measured
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MissBenchmark {
+	@Param({"FILE", "REGION"})
+	public BenchCaches.Layout layout;
+
+	private File folder;
+	private PrioritisedFile2DChunkCache<BenchChunk> cache;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchCaches.tempFolder();
+		cache = BenchCaches.createReadOnly(layout, folder, 128, 1024);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchCaches.delete(folder);
+	}
+
+	@Benchmark
+	public BenchChunk missAndGenerate() {
+		int x = next++;
+		BenchChunk chunk = cache.get(x, x >> 10);
+		cache.unload(x, x >> 10);
+		return chunk;
+	}
+}
@@ -0,0 +1,53 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.PrioritisedFile2DChunkCache;
+import net.devtech.data.StorageBackend;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// saving every chunk of a cache where every chunk has changed
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveAllBenchmark {
+	private static final int SIDE = 64;
+
+	@Param({"FILE", "REGION"})
+	public BenchCaches.Layout layout;
+	@Param({"NONE", "DEFLATE", "GZIP"})
+	public BenchCaches.CodecType codec;
+
+	private File folder;
+	private PrioritisedFile2DChunkCache<BenchChunk> cache;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchCaches.tempFolder();
+		cache = BenchCaches.create(layout, folder, SIDE * SIDE, SIDE * SIDE, StorageBackend.STREAM, codec.codec());
+		for (int x = 0; x < SIDE; x++)
+			for (int y = 0; y < SIDE; y++)
+				cache.get(x, y);
+	}
+
+	@Setup(Level.Invocation)
+	public void touch() {
+		for (int x = 0; x < SIDE; x++)
+			for (int y = 0; y < SIDE; y++)
+				cache.markDirty(x, y);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchCaches.delete(folder);
+	}
+
+	@Benchmark
+	public void saveAll() throws IOException {
+		cache.saveAll(false);
+	}
+}
@@ -0,0 +1,67 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.Located2D;
+import net.devtech.chunk2d.PrioritisedFile2DChunkCache;
+import net.devtech.data.Codecs;
+import net.devtech.data.StorageBackend;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// single chunk reads and writes against chunk files and region files with every storage backend
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+	private static final int SIDE = 32;
+
+	@Param({"FILE", "REGION"})
+	public BenchCaches.Layout layout;
+	@Param({"STREAM", "CHANNEL", "MAPPED"})
+	public StorageBackend backend;
+
+	private File folder;
+	private PrioritisedFile2DChunkCache<BenchChunk> cache;
+	private long[] keys;
+	private int index;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchCaches.tempFolder();
+		// nothing is kept in memory once it is unloaded, so every read goes to the storage
+		cache = BenchCaches.create(layout, folder, SIDE * SIDE, 1, backend, Codecs.DEFLATE);
+		keys = new long[SIDE * SIDE];
+		for (int x = 0; x < SIDE; x++)
+			for (int y = 0; y < SIDE; y++) {
+				keys[x * SIDE + y] = Located2D.key(x, y);
+				cache.get(x, y);
+			}
+		cache.saveAll(true);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchCaches.delete(folder);
+	}
+
+	@Benchmark
+	public BenchChunk read() {
+		long key = keys[index++ & keys.length - 1];
+		int x = Located2D.keyX(key), y = Located2D.keyY(key);
+		BenchChunk chunk = cache.get(x, y);
+		cache.unload(x, y);
+		return chunk;
+	}
+
+	@Benchmark
+	public BenchChunk write() throws IOException {
+		long key = keys[index++ & keys.length - 1];
+		int x = Located2D.keyX(key), y = Located2D.keyY(key);
+		cache.markDirty(x, y);
+		return cache.save(x, y, false);
+	}
+}
@@ -0,0 +1,49 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.Located2D;
+import net.devtech.chunk2d.PrioritisedFile2DChunkCache;
+import net.devtech.data.Codecs;
+import net.devtech.data.StorageBackend;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// latency of a get that hits each of the in memory tiers
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TierHitBenchmark {
+	private static final int CHUNKS = 512;
+
+	@Param({"FREQUENT", "LOADED", "UNLOADED_CACHED"})
+	public PrioritisedFile2DChunkCache.Priority tier;
+
+	private File folder;
+	private PrioritisedFile2DChunkCache<BenchChunk> cache;
+	private long[] keys;
+	private int index;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchCaches.tempFolder();
+		cache = BenchCaches.create(BenchCaches.Layout.FILE, folder, CHUNKS, CHUNKS, StorageBackend.STREAM, Codecs.NONE);
+		keys = Workload.UNIFORM.keys(CHUNKS, 0);
+		for (long key : keys)
+			cache.setPriority(Located2D.keyX(key), Located2D.keyY(key), tier);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchCaches.delete(folder);
+	}
+
+	@Benchmark
+	public BenchChunk get() {
+		long key = keys[index++ & CHUNKS - 1];
+		return cache.get(Located2D.keyX(key), Located2D.keyY(key));
+	}
+}
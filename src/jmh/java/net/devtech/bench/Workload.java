@@ -0,0 +1,69 @@
+package net.devtech.bench;
+
+import net.devtech.chunk2d.Located2D;
+import java.util.Random;
+
+// access patterns, every workload produces a sequence of packed chunk keys
+public enum Workload {
+	/**
+	 * chunks picked uniformly from a square of 256x256 chunks
+	 */
+	UNIFORM {
+		@Override
+		public long[] keys(int count, long seed) {
+			Random random = new Random(seed);
+			long[] keys = new long[count];
+			for (int i = 0; i < count; i++)
+				keys[i] = Located2D.key(random.nextInt(256) - 128, random.nextInt(256) - 128);
+			return keys;
+		}
+	},
+	/**
+	 * a single player walking in a random direction that accesses every chunk in its view radius each step
+	 */
+	MOVING_PLAYER {
+		@Override
+		public long[] keys(int count, long seed) {
+			Random random = new Random(seed);
+			long[] keys = new long[count];
+			int px = 0, py = 0, dx = 1, dy = 0, i = 0;
+			while (i < count) {
+				for (int ox = -VIEW_RADIUS; ox <= VIEW_RADIUS && i < count; ox++)
+					for (int oy = -VIEW_RADIUS; oy <= VIEW_RADIUS && i < count; oy++)
+						keys[i++] = Located2D.key(px + ox, py + oy);
+				if (random.nextInt(8) == 0) {
+					dx = random.nextInt(3) - 1;
+					dy = random.nextInt(3) - 1;
+				}
+				px += dx;
+				py += dy;
+			}
+			return keys;
+		}
+	},
+	/**
+	 * many players standing in a few clusters, every access is a random chunk in the view of a random player
+	 */
+	CLUSTERED_PLAYERS {
+		@Override
+		public long[] keys(int count, long seed) {
+			Random random = new Random(seed);
+			int[][] players = new int[32][2];
+			for (int p = 0; p < players.length; p++) {
+				int cluster = p % 4;
+				players[p][0] = cluster * 200 + random.nextInt(24);
+				players[p][1] = cluster * -150 + random.nextInt(24);
+			}
+			long[] keys = new long[count];
+			for (int i = 0; i < count; i++) {
+				int[] player = players[random.nextInt(players.length)];
+				keys[i] = Located2D.key(player[0] + random.nextInt(VIEW_RADIUS * 2 + 1) - VIEW_RADIUS, player[1] + random.nextInt(VIEW_RADIUS * 2 + 1) - VIEW_RADIUS);
+			}
+			return keys;
+		}
+	};
+
+	public static final int VIEW_RADIUS = 8;
+
+	public abstract long[] keys(int count, long seed);
+}
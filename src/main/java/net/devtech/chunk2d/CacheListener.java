@@ -0,0 +1,25 @@
+package net.devtech.chunk2d;
+
+/**
+ * callbacks for chunks moving between a {@link PrioritisedFile2DChunkCache} and its storage, every method is called on the
+ * thread that owns the cache and must not call back into it
+ * @param <C> the chunk class type
+ */
+public interface CacheListener<C> {
+	/**
+	 * called when a chunk that was not in memory is installed into the cache
+	 * @param generated true if the chunk was generated instead of read from storage
+	 */
+	default void onLoad(int x, int y, C chunk, boolean generated) {}
+
+	/**
+	 * called when a chunk is dropped from memory because the unloaded cache is full, the chunk has been saved if it was dirty
+	 */
+	default void onEvict(int x, int y, C chunk) {}
+
+	/**
+	 * called after a dirty chunk was written or queued for writing
+	 * @param chunk the chunk, or null if it was written when it left the compressed tier and is no longer in memory
+	 */
+	default void onSave(int x, int y, C chunk) {}
+}
@@ -0,0 +1,182 @@
+package net.devtech.chunk2d;
+
+import net.devtech.util.LatencyHistogram;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * thread safe counters of a {@link PrioritisedFile2DChunkCache}, the counters are striped so recording never contends and
+ * several caches may share one instance. A cache without stats records nothing and pays a single null check per operation,
+ * exporters poll {@link #snapshot()}
+ */
+public class CacheStats {
+	// hits per in memory tier, indexed by priority ordinal
+	protected final LongAdder[] hits = new LongAdder[PrioritisedFile2DChunkCache.Priority.UNLOADED.ordinal()];
+	// gets that were not in any tier
+	protected final LongAdder misses = new LongAdder();
+	// chunks read from storage
+	protected final LongAdder diskLoads = new LongAdder();
+	// chunks created by the chunk function
+	protected final LongAdder generated = new LongAdder();
+	// chunks moved from the loaded tier to the frequent tier
+	protected final LongAdder promotions = new LongAdder();
+	// chunks moved from the frequent tier to the loaded tier
+	protected final LongAdder demotions = new LongAdder();
+	// chunks dropped from memory by the unloaded cache
+	protected final LongAdder evictions = new LongAdder();
+	// dirty chunks written or queued
+	protected final LongAdder saves = new LongAdder();
+	// compressed bytes read from storage
+	protected final LongAdder bytesRead = new LongAdder();
+	// compressed bytes produced for storage
+	protected final LongAdder bytesWritten = new LongAdder();
+	// serialized bytes before compression
+	protected final LongAdder bytesSerialized = new LongAdder();
+	// time to read and decompress a stored chunk
+	protected final LatencyHistogram loadLatency = new LatencyHistogram();
+	// time to generate a chunk
+	protected final LatencyHistogram generateLatency = new LatencyHistogram();
+	// time to save a chunk, including the write unless write-behind is enabled
+	protected final LatencyHistogram saveLatency = new LatencyHistogram();
+	{
+		for (int i = 0; i < hits.length; i++)
+			hits[i] = new LongAdder();
+	}
+
+	public void recordHit(PrioritisedFile2DChunkCache.Priority tier) {
+		hits[tier.ordinal()].increment();
+	}
+
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	public void recordDiskLoad(long nanos, int bytes) {
+		diskLoads.increment();
+		bytesRead.add(bytes);
+		loadLatency.record(nanos);
+	}
+
+	public void recordGenerated(long nanos) {
+		generated.increment();
+		generateLatency.record(nanos);
+	}
+
+	public void recordPromotion() {
+		promotions.increment();
+	}
+
+	public void recordDemotion() {
+		demotions.increment();
+	}
+
+	public void recordEviction() {
+		evictions.increment();
+	}
+
+	public void recordSave(long nanos) {
+		saves.increment();
+		saveLatency.record(nanos);
+	}
+
+	public void recordCompression(long serialized, long compressed) {
+		bytesSerialized.add(serialized);
+		bytesWritten.add(compressed);
+	}
+
+	/**
+	 * @return a copy of every counter, counters updated while the snapshot is taken may or may not be included
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * clears every counter
+	 */
+	public void reset() {
+		for (LongAdder hit : hits)
+			hit.reset();
+		for (LongAdder adder : new LongAdder[] {misses, diskLoads, generated, promotions, demotions, evictions, saves, bytesRead, bytesWritten, bytesSerialized})
+			adder.reset();
+		loadLatency.reset();
+		generateLatency.reset();
+		saveLatency.reset();
+	}
+
+	/**
+	 * an immutable copy of the counters, latencies are bucket counts, see {@link LatencyHistogram#percentile(long[], double)}
+	 */
+	public static class Snapshot {
+		public final long[] hits;
+		public final long misses;
+		public final long diskLoads;
+		public final long generated;
+		public final long promotions;
+		public final long demotions;
+		public final long evictions;
+		public final long saves;
+		public final long bytesRead;
+		public final long bytesWritten;
+		public final long bytesSerialized;
+		public final long[] loadLatency;
+		public final long[] generateLatency;
+		public final long[] saveLatency;
+
+		protected Snapshot(CacheStats stats) {
+			this.hits = new long[stats.hits.length];
+			for (int i = 0; i < hits.length; i++)
+				hits[i] = stats.hits[i].sum();
+			this.misses = stats.misses.sum();
+			this.diskLoads = stats.diskLoads.sum();
+			this.generated = stats.generated.sum();
+			this.promotions = stats.promotions.sum();
+			this.demotions = stats.demotions.sum();
+			this.evictions = stats.evictions.sum();
+			this.saves = stats.saves.sum();
+			this.bytesRead = stats.bytesRead.sum();
+			this.bytesWritten = stats.bytesWritten.sum();
+			this.bytesSerialized = stats.bytesSerialized.sum();
+			this.loadLatency = stats.loadLatency.counts();
+			this.generateLatency = stats.generateLatency.counts();
+			this.saveLatency = stats.saveLatency.counts();
+		}
+
+		/**
+		 * @return the number of gets that were answered by the tier
+		 */
+		public long hits(PrioritisedFile2DChunkCache.Priority tier) {
+			return tier.ordinal() < hits.length ? hits[tier.ordinal()] : misses;
+		}
+
+		/**
+		 * @return the number of gets
+		 */
+		public long requests() {
+			long requests = misses;
+			for (long hit : hits)
+				requests += hit;
+			return requests;
+		}
+
+		/**
+		 * @return the fraction of gets that were answered by the tier, for {@link PrioritisedFile2DChunkCache.Priority#UNLOADED}
+		 * this is the miss ratio
+		 */
+		public double hitRatio(PrioritisedFile2DChunkCache.Priority tier) {
+			long requests = requests();
+			return requests == 0 ? 0 : (double) hits(tier) / requests;
+		}
+
+		/**
+		 * @return serialized bytes per stored byte, 0 if nothing was written
+		 */
+		public double compressionRatio() {
+			return bytesWritten == 0 ? 0 : (double) bytesSerialized / bytesWritten;
+		}
+
+		@Override
+		public String toString() {
+			return "CacheStats{" + "requests=" + requests() + ", frequentHitRatio=" + hitRatio(PrioritisedFile2DChunkCache.Priority.FREQUENT) + ", loadedHitRatio=" + hitRatio(PrioritisedFile2DChunkCache.Priority.LOADED) + ", unloadedCachedHitRatio=" + hitRatio(PrioritisedFile2DChunkCache.Priority.UNLOADED_CACHED) + ", compressedHitRatio=" + hitRatio(PrioritisedFile2DChunkCache.Priority.UNLOADED_COMPRESSED) + ", misses=" + misses + ", diskLoads=" + diskLoads + ", generated=" + generated + ", promotions=" + promotions + ", demotions=" + demotions + ", evictions=" + evictions + ", saves=" + saves + ", bytesRead=" + bytesRead + ", bytesWritten=" + bytesWritten + ", compressionRatio=" + compressionRatio() + ", p99LoadNanos=" + LatencyHistogram.percentile(loadLatency, .99) + ", p99SaveNanos=" + LatencyHistogram.percentile(saveLatency, .99) + '}';
+		}
+	}
+}
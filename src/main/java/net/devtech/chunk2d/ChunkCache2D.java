@@ -1,5 +1,7 @@
 package net.devtech.chunk2d;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * a cache that is guaranteed to cache explicitly loaded chunks on a 2d plane
  * @param <C> the chunk class type
@@ -29,6 +31,16 @@ public interface ChunkCache2D<C> extends Iterable<C> {
 	 */
 	C get(int x, int y);
 
+	/**
+	 * get the chunk at the given coordinate without blocking the calling thread on disk reads or generation, requests for a
+	 * chunk that is already being loaded share the same future
+	 * @param x the x coor
+	 * @param y the y coor
+	 * @return a future that completes with the chunk, the default implementation loads the chunk synchronously
+	 */
+	default CompletableFuture<C> getAsync(int x, int y) {
+		return CompletableFuture.completedFuture(get(x, y));
+	}
 
 	/**
 	 * gets the number of chunks currently cached
@@ -1,5 +1,14 @@
 package net.devtech.chunk2d;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface ChunkFunction2D<C> {
 	C newChunk(int x, int y);
+
+	/**
+	 * creates the chunk without blocking the calling thread on work that runs elsewhere, the default creates it right away
+	 */
+	default CompletableFuture<C> newChunkAsync(int x, int y) {
+		return CompletableFuture.completedFuture(newChunk(x, y));
+	}
 }
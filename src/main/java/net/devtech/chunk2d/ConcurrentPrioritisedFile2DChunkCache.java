@@ -0,0 +1,594 @@
+package net.devtech.chunk2d;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+import net.devtech.data.Deserializer;
+import net.devtech.data.Journal;
+import net.devtech.data.PersistentCache;
+import net.devtech.data.Serializer;
+import net.devtech.data.StorageStats;
+import net.devtech.util.Region2D;
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * a thread safe prioritised cache, the plane is split into regions and every region belongs to one of several independent
+ * stripes, each stripe is a normal {@link PrioritisedFile2DChunkCache} guarded by its own lock.
+ * calls for chunks in regions of different stripes never contend, and because a chunk only ever lives in one stripe its
+ * tier moves and access counts are always made under the same lock
+ * @param <C> the chunk class type
+ */
+public class ConcurrentPrioritisedFile2DChunkCache<C extends Located2D> implements Prioritized2DChunkCache<C, PrioritisedFile2DChunkCache.Priority>, PersistentCache<C>, Closeable {
+	// the stripes, the length is a power of 2
+	protected final PrioritisedFile2DChunkCache<C>[] stripes;
+	// the lock of every stripe
+	protected final ReentrantLock[] locks;
+	// the size of the regions that are assigned to stripes, must be the region size of region file stripes
+	protected final int regionSize;
+	// counters shared by every stripe, null if stats are disabled
+	protected volatile CacheStats stats;
+	// the stripe the next maintenance starts with, so a small budget does not always go to the same stripes
+	protected int nextMaintained;
+
+	/**
+	 * @param stripes the number of stripes, rounded up to a power of 2
+	 * @param regionSize the side length of the square regions that are mapped to stripes, if the stripes are region file caches
+	 *                      this must be their region size so a region file is only ever written by a single stripe
+	 * @param stripeFactory creates the stripe with the given index
+	 */
+	public ConcurrentPrioritisedFile2DChunkCache(int stripes, int regionSize, IntFunction<? extends PrioritisedFile2DChunkCache<C>> stripeFactory) {
+		int count = stripeCount(stripes);
+		@SuppressWarnings("unchecked")
+		PrioritisedFile2DChunkCache<C>[] array = (PrioritisedFile2DChunkCache<C>[]) new PrioritisedFile2DChunkCache<?>[count];
+		this.stripes = array;
+		this.locks = new ReentrantLock[count];
+		this.regionSize = regionSize;
+		for (int i = 0; i < count; i++) {
+			this.stripes[i] = stripeFactory.apply(i);
+			this.locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * creates a chunk file cache split into stripes, the cache limits are divided between the stripes
+	 */
+	public ConcurrentPrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, int stripes) {
+		this(stripes, 32, i -> new PrioritisedFile2DChunkCache<>(folder, chunkSupplier, deserializer, serializer, Math.max(1, frequentSize / stripeCount(stripes)), Math.max(1, inMemorySize / stripeCount(stripes))));
+	}
+
+	// the number of stripes that are created for the requested number
+	private static int stripeCount(int stripes) {
+		return HashCommon.nextPowerOfTwo(Math.max(1, stripes));
+	}
+
+	/**
+	 * @return the index of the stripe that owns the chunk
+	 */
+	protected int stripe(int x, int y) {
+		return stripe(Region2D.regionKey(x, y, regionSize));
+	}
+
+	/**
+	 * @return the index of the stripe that owns the region
+	 */
+	protected int stripe(long region) {
+		return (int) HashCommon.mix(region) & (stripes.length - 1);
+	}
+
+	@Override
+	public C getNoPriority(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].getNoPriority(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public PrioritisedFile2DChunkCache.Priority getPriority(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].getPriority(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public void setPriority(int x, int y, PrioritisedFile2DChunkCache.Priority priority) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			stripes[stripe].setPriority(x, y, priority);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public C unload(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].unload(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public void set(int x, int y, C object) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			stripes[stripe].set(x, y, object);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public C get(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].get(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public CompletableFuture<C> getAsync(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].getAsync(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				size += stripes[i].size();
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * iterates over a copy of every stripe, every stripe is copied under its own lock
+	 */
+	@Override
+	public Iterator<C> iterator() {
+		List<C> chunks = new ArrayList<>();
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				for (C c : stripes[i])
+					chunks.add(c);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return chunks.iterator();
+	}
+
+	/**
+	 * see {@link PrioritisedFile2DChunkCache#forEachInRect(int, int, int, int, Set, Consumer)}, the stripes are visited one
+	 * after another and the consumer is called while the lock of the chunk's stripe is held
+	 */
+	public void forEachInRect(int minX, int minY, int maxX, int maxY, Set<PrioritisedFile2DChunkCache.Priority> tiers, Consumer<? super C> consumer) {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].forEachInRect(minX, minY, maxX, maxY, tiers, consumer);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * see {@link PrioritisedFile2DChunkCache#forEachInRadius(int, int, int, Set, Consumer)}
+	 */
+	public void forEachInRadius(int centerX, int centerY, int radius, Set<PrioritisedFile2DChunkCache.Priority> tiers, Consumer<? super C> consumer) {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].forEachInRadius(centerX, centerY, radius, tiers, consumer);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	@Override
+	public C save(int x, int y, boolean remove) throws IOException {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].save(x, y, remove);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	@Override
+	public void saveAll(boolean remove) throws IOException {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].saveAll(remove);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * saves every stripe in parallel on the pool, one stripe after another, see
+	 * {@link PrioritisedFile2DChunkCache#saveAll(boolean, ForkJoinPool)}
+	 * @return the merged summary of every stripe
+	 */
+	public SaveSummary saveAll(boolean remove, ForkJoinPool pool) throws IOException {
+		SaveSummary summary = new SaveSummary();
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				summary.merge(stripes[i].saveAll(remove, pool));
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return summary;
+	}
+
+	/**
+	 * takes a point in time snapshot of every stripe, the stripes must share their folder. Every stripe is locked while the
+	 * changed chunks are captured, see {@link PrioritisedFile2DChunkCache#snapshot(File, boolean)}
+	 * @return the snapshot, its future completes once it is written
+	 */
+	public Snapshot snapshot(File target, boolean archive) throws IOException {
+		for (ReentrantLock lock : locks)
+			lock.lock();
+		try {
+			for (PrioritisedFile2DChunkCache<C> stripe : stripes) {
+				Snapshot last = stripe.snapshot;
+				if (last != null && !last.isDone()) throw new IllegalStateException("a snapshot is still being written");
+			}
+			Snapshot snapshot = new Snapshot(stripes[0], stripes[0].folder, target, archive);
+			for (PrioritisedFile2DChunkCache<C> stripe : stripes) {
+				stripe.installLoads();
+				stripe.capture(snapshot);
+			}
+			Set<String> files = new HashSet<>();
+			for (PrioritisedFile2DChunkCache<C> stripe : stripes)
+				files.addAll(stripe.storageFiles());
+			snapshot.addFiles(files);
+			for (PrioritisedFile2DChunkCache<C> stripe : stripes)
+				stripe.activate(snapshot);
+			snapshot.start();
+			return snapshot;
+		} finally {
+			for (ReentrantLock lock : locks)
+				lock.unlock();
+		}
+	}
+
+	@Override
+	public void markDirty(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			stripes[stripe].markDirty(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	/**
+	 * keeps the chunks around the center in the tier of the level, every stripe references the chunks it owns. See
+	 * {@link PrioritisedFile2DChunkCache#addTicket(int, int, int, PrioritisedFile2DChunkCache.Priority)}
+	 */
+	public PrioritisedFile2DChunkCache.Ticket addTicket(int centerX, int centerY, int radius, PrioritisedFile2DChunkCache.Priority level) {
+		PrioritisedFile2DChunkCache.Ticket ticket = new PrioritisedFile2DChunkCache.Ticket(centerX, centerY, radius, level);
+		changeTickets(ticket.square(), LongLists.EMPTY_LIST, level);
+		return ticket;
+	}
+
+	/**
+	 * see {@link PrioritisedFile2DChunkCache#removeTicket(PrioritisedFile2DChunkCache.Ticket)}
+	 */
+	public void removeTicket(PrioritisedFile2DChunkCache.Ticket ticket) {
+		if (ticket.removed) return;
+		ticket.removed = true;
+		changeTickets(LongLists.EMPTY_LIST, ticket.square(), ticket.level);
+	}
+
+	/**
+	 * see {@link PrioritisedFile2DChunkCache#moveTicket(PrioritisedFile2DChunkCache.Ticket, int, int)}
+	 */
+	public void moveTicket(PrioritisedFile2DChunkCache.Ticket ticket, int centerX, int centerY) {
+		LongList entering = ticket.entering(centerX, centerY), leaving = ticket.leaving(centerX, centerY);
+		ticket.x = centerX;
+		ticket.y = centerY;
+		changeTickets(entering, leaving, ticket.level);
+	}
+
+	public PrioritisedFile2DChunkCache.Priority getTicketLevel(int x, int y) {
+		int stripe = stripe(x, y);
+		locks[stripe].lock();
+		try {
+			return stripes[stripe].getTicketLevel(x, y);
+		} finally {
+			locks[stripe].unlock();
+		}
+	}
+
+	// hands the chunks that enter and leave to the stripes that own them, one stripe at a time
+	protected void changeTickets(LongList entering, LongList leaving, PrioritisedFile2DChunkCache.Priority level) {
+		LongList[] enter = split(entering), leave = split(leaving);
+		for (int i = 0; i < stripes.length; i++) {
+			if (enter[i].isEmpty() && leave[i].isEmpty()) continue;
+			locks[i].lock();
+			try {
+				stripes[i].changeTickets(enter[i], leave[i], level);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	// the keys split by the stripe that owns them
+	protected LongList[] split(LongList keys) {
+		LongList[] split = new LongList[stripes.length];
+		for (int i = 0; i < split.length; i++)
+			split[i] = new LongArrayList();
+		for (int i = 0; i < keys.size(); i++) {
+			long key = keys.getLong(i);
+			split[stripe(Located2D.keyX(key), Located2D.keyY(key))].add(key);
+		}
+		return split;
+	}
+
+	/**
+	 * @return the number of saves every stripe skipped because the chunk had not changed
+	 */
+	public long getSkippedSaves() {
+		long skipped = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				skipped += stripes[i].getSkippedSaves();
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return skipped;
+	}
+
+	/**
+	 * sends the writes of every stripe through one shared journal, so saves on different stripes that commit at the same
+	 * time share an fsync. See {@link PrioritisedFile2DChunkCache#enableJournal(File, long)}
+	 */
+	public Journal enableJournal(File folder, long checkpointInterval) throws IOException {
+		Journal journal = new Journal(folder, checkpointInterval, entries -> {
+			@SuppressWarnings("unchecked")
+			Long2ObjectMap<byte[]>[] split = (Long2ObjectMap<byte[]>[]) new Long2ObjectMap<?>[stripes.length];
+			for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(entries)) {
+				long key = entry.getLongKey();
+				int stripe = stripe(Located2D.keyX(key), Located2D.keyY(key));
+				if (split[stripe] == null) split[stripe] = new Long2ObjectOpenHashMap<>();
+				split[stripe].put(key, entry.getValue());
+			}
+			// a checkpoint changes the files and state the stripe uses under its lock, no stripe checkpoints the journal while it
+			// holds its lock so this can not deadlock
+			for (int i = 0; i < split.length; i++) {
+				if (split[i] == null) continue;
+				locks[i].lock();
+				try {
+					stripes[i].checkpoint(split[i]);
+				} finally {
+					locks[i].unlock();
+				}
+			}
+		});
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].setJournal(journal);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return journal;
+	}
+
+	/**
+	 * compacts the region files of the region file stripes, every stripe only compacts the regions it owns so a region is
+	 * never compacted by a stripe that does not see its writes. See {@link PrioritisedRegionFile2DChunkCache#compact(double, long)},
+	 * the stripe locks are not taken
+	 * @return the bytes that were given back
+	 */
+	public long compact(double minDeadRatio, long budget) throws IOException {
+		long reclaimed = 0;
+		boolean first = true;
+		for (int i = 0; i < stripes.length && (first || budget > 0); i++) {
+			if (!(stripes[i] instanceof PrioritisedRegionFile2DChunkCache)) continue;
+			PrioritisedRegionFile2DChunkCache<C> stripe = (PrioritisedRegionFile2DChunkCache<C>) stripes[i];
+			LongList regions = stripe.regions();
+			for (int j = 0; j < regions.size() && (first || budget > 0); j++) {
+				long region = regions.getLong(j);
+				if (stripe(region) != i) continue;
+				StorageStats stats = stripe.getStorageStats(region);
+				if (stats == null || stats.getDeadBytes() == 0 || stats.getDeadRatio() < minDeadRatio) continue;
+				first = false;
+				budget -= stats.getLiveBytes();
+				if (stripe.compact(region)) reclaimed += stats.getDeadBytes();
+			}
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * puts every stripe into maintenance mode, see {@link PrioritisedFile2DChunkCache#enableMaintenance(float)}
+	 */
+	public void enableMaintenance(float hardCap) {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].enableMaintenance(hardCap);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * takes every stripe out of maintenance mode and trims its tiers back to their limits
+	 */
+	public void disableMaintenance() {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].disableMaintenance();
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * maintains the stripes one after another with what is left of the budget, every stripe gets at least one slice, see
+	 * {@link PrioritisedFile2DChunkCache#maintain(long)}
+	 * @return true if every stripe finished its work
+	 */
+	public boolean maintain(long nanosBudget) {
+		long deadline = System.nanoTime() + nanosBudget;
+		boolean done = true;
+		int first = nextMaintained++;
+		for (int j = 0; j < stripes.length; j++) {
+			int i = first + j & stripes.length - 1;
+			locks[i].lock();
+			try {
+				done &= stripes[i].maintain(Math.max(0, deadline - System.nanoTime()));
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * @return the total weight of the tier over every stripe, see {@link PrioritisedFile2DChunkCache#getWeight(PrioritisedFile2DChunkCache.Priority)}
+	 */
+	public long getWeight(PrioritisedFile2DChunkCache.Priority tier) {
+		long weight = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				weight += stripes[i].getWeight(tier);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * makes every stripe record into the same stats, see {@link PrioritisedFile2DChunkCache#setStats(CacheStats)}
+	 */
+	public void setStats(CacheStats stats) {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].setStats(stats);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		this.stats = stats;
+	}
+
+	/**
+	 * @return the counters every stripe records into, or null if stats are disabled
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * sets the listener of every stripe, it is called under the lock of the stripe the chunk belongs to so it may be called
+	 * from several threads at once
+	 */
+	public void setListener(CacheListener<? super C> listener) {
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].setListener(listener);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (PrioritisedFile2DChunkCache<C> stripe : stripes)
+			stripe.flush();
+	}
+
+	/**
+	 * closes every stripe, see {@link PrioritisedFile2DChunkCache#close()}
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (int i = 0; i < stripes.length; i++) {
+			locks[i].lock();
+			try {
+				stripes[i].close();
+			} catch (IOException e) {
+				// the other stripes are still closed
+				if (failure == null) failure = e;
+				else failure.addSuppressed(e);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentPrioritisedFile2DChunkCache{" + "stripes=" + stripes.length + ", regionSize=" + regionSize + '}';
+	}
+}
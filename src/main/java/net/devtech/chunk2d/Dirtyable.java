@@ -0,0 +1,18 @@
+package net.devtech.chunk2d;
+
+/**
+ * an optional mixin for chunks that know when they have been changed, a cache only saves a dirty chunk and marks it clean
+ * after saving it
+ */
+public interface Dirtyable {
+	/**
+	 * @return true if the chunk changed since it was last saved or loaded
+	 */
+	boolean isDirty();
+
+	/**
+	 * sets whether the chunk changed since it was last saved
+	 * @param dirty the new state
+	 */
+	void setDirty(boolean dirty);
+}
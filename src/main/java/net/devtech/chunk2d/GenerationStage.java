@@ -0,0 +1,33 @@
+package net.devtech.chunk2d;
+
+/**
+ * one step of a staged chunk generation, see {@link StagedChunkFunction2D}
+ * @param <C> the chunk class type
+ */
+public interface GenerationStage<C> {
+	/**
+	 * the chunks of a stage's neighborhood, a square around the chunk the stage runs on
+	 */
+	interface Neighbors<C> {
+		/**
+		 * @return the chunk at the position, or null if it was generated before the pipeline saw it
+		 * @throws IllegalArgumentException if the position is outside of the stage's radius
+		 */
+		C get(int x, int y);
+	}
+
+	/**
+	 * @return how far the stage reaches, it runs once every chunk within this chebyshev distance went through the previous
+	 * stage and may read and write those chunks
+	 */
+	int getRadius();
+
+	/**
+	 * runs the stage on the chunk, no other stage touches the chunk or its neighbors while this runs
+	 * @param chunk the chunk, it went through every earlier stage
+	 * @param x the x position of the chunk
+	 * @param y the y position of the chunk
+	 * @param neighbors the chunks within the radius, they went through at least the previous stage
+	 */
+	void generate(C chunk, int x, int y, Neighbors<C> neighbors);
+}
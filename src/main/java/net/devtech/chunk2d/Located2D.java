@@ -18,25 +18,64 @@ public interface Located2D {
 	 */
 	int getY();
 
+	/**
+	 * returns the location of the object packed into a long, see {@link #key(int, int)}
+	 * @return the packed coordinates
+	 */
+	default long getKey() {
+		return key(getX(), getY());
+	}
+
 	/**
 	 * returns an awt point object of the chunk
 	 * @return a new instance of the coordinates
+	 * @deprecated allocates, use {@link #getX()}, {@link #getY()} or {@link #getKey()}
 	 */
+	@Deprecated
 	default Point getLocation() {
 		return new Point(getX(), getY());
 	}
 
-	static Located2D of(Point point) {
+	/**
+	 * packs the coordinates into a long, x in the high 32 bits and y in the low 32 bits
+	 */
+	static long key(int x, int y) {
+		return (long) x << 32 | y & 0xffffffffL;
+	}
+
+	/**
+	 * @return the x coordinate of a packed key
+	 */
+	static int keyX(long key) {
+		return (int) (key >> 32);
+	}
+
+	/**
+	 * @return the y coordinate of a packed key
+	 */
+	static int keyY(long key) {
+		return (int) key;
+	}
+
+	static Located2D of(int x, int y) {
 		return new Located2D() {
 			@Override
 			public int getX() {
-				return point.x;
+				return x;
 			}
 
 			@Override
 			public int getY() {
-				return point.y;
+				return y;
 			}
 		};
 	}
+
+	/**
+	 * @deprecated use {@link #of(int, int)}
+	 */
+	@Deprecated
+	static Located2D of(Point point) {
+		return of(point.x, point.y);
+	}
 }
@@ -2,69 +2,736 @@ package net.devtech.chunk2d;
 
 import it.unimi.dsi.fastutil.longs.*;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.devtech.data.BufferDeserializer;
+import net.devtech.data.BufferDeserializer2D;
+import net.devtech.data.ByteBufferInputStream;
+import net.devtech.data.ByteBufferOutputStream;
+import net.devtech.data.Codec;
+import net.devtech.data.Codecs;
+import net.devtech.data.CountingOutputStream;
 import net.devtech.data.Deserializer;
+import net.devtech.data.Deserializer2D;
+import net.devtech.data.Journal;
+import net.devtech.data.OffHeapArena;
 import net.devtech.data.PersistentCache;
 import net.devtech.data.Serializer;
+import net.devtech.data.StorageBackend;
+import net.devtech.data.ThreadBuffers;
+import net.devtech.data.WriteBehindQueue;
+import net.devtech.util.ExistenceIndex;
+import net.devtech.util.Region2D;
+import net.devtech.util.SpatialIndex2D;
 import net.devtech.util.Tracker;
 import java.awt.Point;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Iterator;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 // TODO region based file storage and per-region data :)
-public class PrioritisedFile2DChunkCache<C extends Located2D> implements Prioritized2DChunkCache<C, PrioritisedFile2DChunkCache.Priority>, PersistentCache<C> {
+public class PrioritisedFile2DChunkCache<C extends Located2D> implements Prioritized2DChunkCache<C, PrioritisedFile2DChunkCache.Priority>, PersistentCache<C>, Closeable {
 	// key to file provider
 	protected final Long2ObjectFunction<File> getFile;
+	// the folder the chunks are stored in
+	protected final File folder;
+	// the chunks that are in storage, misses for other chunks are generated without touching the disk
+	protected ExistenceIndex existence;
+	// chunk files found by the last scan of the folder grouped by index region, guarded by existence
+	private Long2ObjectMap<long[]> scanned;
+	// the modification time of the folder when it was scanned, moved along with the files this cache creates
+	private long scannedModified;
+	// when the folder is scanned again although its modification time did not change, 0 if the last scan was not racy
+	private long rescanAt;
 	// serializer
 	protected final Serializer<C, ?> serializer;
 	// deserializer
 	protected final Deserializer<C, ?, Point> deserializer;
 	// supplier
 	protected final ChunkFunction2D<C> chunkSupplier;
-	// frequent cache
-	protected final Long2ObjectMap<Tracker<C>> frequentCache;
-	// loaded cache
-	protected final Long2ObjectMap<Tracker<C>> loaded = new Long2ObjectOpenHashMap<>();
+	// how chunk bytes are moved to and from the disk
+	protected final StorageBackend backend;
+	// the codec new chunks are compressed with
+	protected final Codec codec;
+	// frequent cache, in recency order when a tier policy is used
+	protected final Long2ObjectLinkedOpenHashMap<Tracker<C>> frequentCache;
+	// loaded cache, maintenance rotates it to resume promotion scans
+	protected final Long2ObjectLinkedOpenHashMap<Tracker<C>> loaded = new Long2ObjectLinkedOpenHashMap<>();
 	// unloaded cache
 	protected final Long2ObjectLinkedOpenHashMap<C> unloadedCache;
-	// unloaded cache limit
+	// unloaded cache limit, a weight if a weigher is used
 	protected final int inMemorySize;
-	// frequent cache limit
+	// frequent cache limit, a weight if a weigher is used
 	protected final int frequentSize;
+	// weighs chunks when they enter a tier
+	protected final Weigher<? super C> weigher;
+	// the weight of every chunk in an in memory tier, computed when it entered the tier
+	protected final Long2IntMap weights = new Long2IntOpenHashMap();
+	// total weight of every tier
+	protected long frequentWeight, loadedWeight, unloadedWeight;
 	// current accesses
 	protected int accessCounter;
+	// the number of chunks a slice of maintain looks at
+	protected static final int MAINTENANCE_SLICE = 64;
+	// buffers of demoteUntilWithin when a single demotion is not enough, reused so trimming heavy chunks does not allocate
+	private long[] demoteKeys = LongArrays.EMPTY_ARRAY, demoteOrder = LongArrays.EMPTY_ARRAY;
+	// the coarsest modification time resolution of common file systems in milliseconds
+	protected static final long MODIFIED_RESOLUTION = 2000;
+	// the multiple of their limits the tiers may grow to between calls to maintain, 0 if tiers are trimmed on every call
+	protected float maintenanceCap;
+	// true if an update was left to maintain
+	protected boolean pendingUpdate;
+	// frequent chunks whose access counts still have to be reset by maintain
+	protected int aging;
+	// frequent chunks the scan of maintain still has to look at, and the least accessed one it found so far
+	protected int scanning;
+	protected long scanLowest;
+	protected int scanLowestVal;
+	// loaded chunks maintain still has to offer a promotion, they are promoted if they were accessed more than promoteAbove
+	protected int promoting;
+	protected int promoteAbove;
+	// true if the last scan of maintain only found chunks that tickets keep in the frequent tier
+	protected boolean frequentPinned;
+	// queued saves, null if chunks are written on the calling thread
+	protected WriteBehindQueue writeBehind;
+	// executor asynchronous loads and generation run on
+	protected Executor loadExecutor = ForkJoinPool.commonPool();
+	// asynchronous loads that have not been installed yet, only touched by the thread that owns the cache
+	protected final Long2ObjectMap<Load<C>> loading = new Long2ObjectOpenHashMap<>();
+	// finished asynchronous loads waiting to be installed
+	protected final Queue<Load<C>> finishedLoads = new ConcurrentLinkedQueue<>();
+	// constant time frequent tier policy, null if the frequent and loaded tiers are scanned on every update
+	protected TierPolicy policy;
+	// chunks that changed since they were last saved or loaded
+	protected final LongSet dirty = new LongOpenHashSet();
+	// saves that were skipped because the chunk was clean
+	protected long skippedSaves;
+	// counters, null if stats are disabled
+	protected CacheStats stats;
+	// load, evict and save callbacks, null if nothing listens
+	protected CacheListener<? super C> listener;
+	// number of tickets of every level that cover a chunk, indexed by the ordinal of the level
+	protected final Long2ObjectMap<int[]> ticketCounts = new Long2ObjectOpenHashMap<>();
+	// positions of every chunk in any of the in memory tiers
+	protected final SpatialIndex2D index = new SpatialIndex2D();
+	// compressed chunks evicted from the unloaded cache, null if the tier is disabled
+	protected OffHeapArena compressedTier;
+	// write-ahead log every write goes through, null if chunks are written to storage directly
+	protected Journal journal;
+	// the last snapshot, storage files it has not copied yet are copied before they are changed
+	protected volatile Snapshot snapshot;
 
-	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize) {
+	/**
+	 * @param frequentWeight the maximum total weight of the frequent tier
+	 * @param inMemoryWeight the maximum total weight of the unloaded cache
+	 * @param weigher weighs chunks, {@link Weigher#singleton()} makes the limits chunk counts
+	 */
+	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentWeight, int inMemoryWeight, Weigher<? super C> weigher, StorageBackend backend, Codec codec) {
 		this.serializer = serializer;
-		this.frequentSize = frequentSize;
-		this.inMemorySize = inMemorySize;
+		this.backend = backend;
+		this.codec = codec;
+		this.frequentSize = frequentWeight;
+		this.inMemorySize = inMemoryWeight;
+		this.weigher = weigher;
 		this.deserializer = deserializer;
 		this.chunkSupplier = chunkSupplier;
+		this.folder = folder;
 		getFile = l -> new File(folder, l + ".chunkdata");
-		frequentCache = new Long2ObjectOpenHashMap<>(frequentSize);
-		unloadedCache = new Long2ObjectLinkedOpenHashMap<>(inMemorySize);
+		existence = new ExistenceIndex(32, this::loadStored);
+		// weight limits say nothing about the number of chunks
+		boolean counts = weigher == Weigher.SINGLETON;
+		frequentCache = counts ? new Long2ObjectLinkedOpenHashMap<>(frequentWeight) : new Long2ObjectLinkedOpenHashMap<>();
+		unloadedCache = counts ? new Long2ObjectLinkedOpenHashMap<>(inMemoryWeight) : new Long2ObjectLinkedOpenHashMap<>();
+	}
+
+	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, StorageBackend backend, Codec codec) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize, Weigher.singleton(), backend, codec);
+	}
+
+	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentWeight, int inMemoryWeight, Weigher<? super C> weigher) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentWeight, inMemoryWeight, weigher, StorageBackend.STREAM, Codecs.GZIP);
 	}
 	
+	/**
+	 * reads the chunk from persistent storage or generates it if it was never saved, generated chunks are dirty
+	 */
 	protected C read(int x, int y) {
-		File file = getFile.apply(key(x, y));
-		if (file.exists()) try (FileInputStream input = new FileInputStream(file)) {
-			return deserializer.deserialize(new GZIPInputStream(input), new Point(x, y));
+		C c = readCompressed(x, y);
+		if (c == null) c = readStored(x, y);
+		boolean generated = c == null;
+		if (generated) {
+			dirty.add(key(x, y));
+			c = generate(x, y);
+		}
+		if (listener != null) listener.onLoad(x, y, c, generated);
+		return c;
+	}
+
+	/**
+	 * takes the chunk out of the compressed tier
+	 * @return the chunk or null if it is not in the compressed tier
+	 */
+	protected C readCompressed(int x, int y) {
+		if (compressedTier == null) return null;
+		long key = key(x, y);
+		boolean dirty = compressedTier.isDirty(key);
+		ByteBuffer data = compressedTier.remove(key);
+		if (data == null) return null;
+		if (dirty) this.dirty.add(key);
+		try {
+			return decompress(x, y, data);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return chunkSupplier.newChunk(x, y);
+	}
+
+	/**
+	 * creates the chunk with the chunk function, this may be called from the load executor
+	 */
+	protected C generate(int x, int y) {
+		CacheStats stats = this.stats;
+		if (stats == null) return chunkSupplier.newChunk(x, y);
+		long start = System.nanoTime();
+		C c = chunkSupplier.newChunk(x, y);
+		stats.recordGenerated(System.nanoTime() - start);
+		return c;
+	}
+
+	/**
+	 * creates the chunk with {@link ChunkFunction2D#newChunkAsync(int, int)}, this may be called from the load executor
+	 */
+	protected CompletableFuture<C> generateAsync(int x, int y) {
+		CacheStats stats = this.stats;
+		if (stats == null) return chunkSupplier.newChunkAsync(x, y);
+		long start = System.nanoTime();
+		return chunkSupplier.newChunkAsync(x, y).whenComplete((c, t) -> {
+			if (t == null) stats.recordGenerated(System.nanoTime() - start);
+		});
+	}
+
+	/**
+	 * reads the chunk from persistent storage, this may be called from the load executor
+	 * @return the chunk or null if it was never saved
+	 */
+	protected C readStored(int x, int y) {
+		try {
+			if (writeBehind != null) {
+				byte[] snapshot = writeBehind.get(key(x, y));
+				if (snapshot != null) {
+					ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+					return deserializer instanceof BufferDeserializer ? deserialize(buffer, x, y) : deserialize(new ByteBufferInputStream(buffer), x, y);
+				}
+			}
+			if (journal != null) {
+				byte[] logged = journal.get(key(x, y));
+				if (logged != null) return decompress(x, y, ByteBuffer.wrap(logged));
+			}
+			if (!existence.contains(x, y)) return null;
+			CacheStats stats = this.stats;
+			long start = stats == null ? 0 : System.nanoTime();
+			ByteBuffer data = load(x, y);
+			if (data != null) {
+				int bytes = data.remaining();
+				C c = decompress(x, y, data);
+				if (stats != null) stats.recordDiskLoad(System.nanoTime() - start, bytes);
+				return c;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return null;
+	}
+
+	/**
+	 * finds the chunks of an {@link #existence} index region that are in storage, the default scans the folder for chunk
+	 * files and scans it again once files were added to or removed from it
+	 * @param region the index region
+	 * @param bits bit (offset x * size + offset y) is set for every stored chunk of the region
+	 */
+	protected void loadStored(long region, long[] bits) throws IOException {
+		// the chunks this cache writes are added to the index, but other writers only show up in a new scan
+		long modified = folder.lastModified(), now = System.currentTimeMillis();
+		if (scanned == null || modified != scannedModified || rescanAt != 0 && now >= rescanAt) {
+			int size = existence.getSize();
+			scanned = new Long2ObjectOpenHashMap<>();
+			scannedModified = modified;
+			// a file created within the resolution of the scan may not change the modification time, such a folder is scanned
+			// once more after the resolution passed rather than on every load
+			rescanAt = now - modified < MODIFIED_RESOLUTION ? modified + MODIFIED_RESOLUTION : 0;
+			String[] names = folder.list();
+			if (names != null)
+				for (String name : names)
+					if (name.endsWith(".chunkdata")) try {
+						long key = Long.parseLong(name.substring(0, name.length() - ".chunkdata".length()));
+						int x = Located2D.keyX(key), y = Located2D.keyY(key);
+						int bit = Region2D.offsetX(x, size) * size + Region2D.offsetY(y, size);
+						scanned.computeIfAbsent(Region2D.regionKey(x, y, size), l -> new long[(size * size + 63) >>> 6])[bit >>> 6] |= 1L << bit;
+					} catch (NumberFormatException ignored) {}
+		}
+		long[] found = scanned.remove(region);
+		if (found != null)
+			for (int i = 0; i < found.length; i++)
+				bits[i] |= found[i];
+	}
+
+	/**
+	 * reads the compressed bytes of the chunk from persistent storage
+	 * @return the bytes or null if the chunk was never saved
+	 */
+	protected ByteBuffer load(int x, int y) throws IOException {
+		return backend.readFile(getFile.apply(key(x, y)));
+	}
+
+	/**
+	 * writes the compressed bytes of the chunk to persistent storage
+	 */
+	protected void write(int x, int y, ByteBuffer data) throws IOException {
+		writeFile(getFile.apply(key(x, y)), data, false);
+	}
+
+	// replaces a chunk file, a running snapshot copies the old file first, true if the file was created
+	private boolean writeFile(File file, ByteBuffer data, boolean sync) throws IOException {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot != null) snapshot.preserve(file);
+		boolean created = !file.exists();
+		long before = created ? folder.lastModified() : 0;
+		backend.writeFile(file, data, sync);
+		if (created) {
+			// the new file is already in the index, if nothing else changed the folder since the scan the scan stays current
+			long after = folder.lastModified();
+			synchronized (existence) {
+				if (scannedModified == before) scannedModified = after;
+			}
+		}
+		return created;
+	}
+
+	/**
+	 * writes a batch of serialized chunks that are all stored in the same file, called from the write-behind thread
+	 * @param fileKey the {@link #fileKey(int, int)} shared by the chunks
+	 * @param snapshots chunk key to uncompressed chunk bytes
+	 */
+	protected void writeBatch(long fileKey, Long2ObjectMap<byte[]> snapshots) throws IOException {
+		for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(snapshots)) {
+			long key = entry.getLongKey();
+			write(Located2D.keyX(key), Located2D.keyY(key), compress(entry.getValue()));
+		}
+	}
+
+	/**
+	 * writes the compressed bytes of the chunk through the journal if it is enabled, otherwise straight to storage
+	 */
+	protected void store(int x, int y, ByteBuffer data) throws IOException {
+		if (journal != null) journal.append(key(x, y), data);
+		else write(x, y, data);
+	}
+
+	/**
+	 * writes logged chunks to storage, called by the journal's checkpoint thread
+	 * @param entries chunk key to compressed bytes
+	 */
+	protected void checkpoint(Long2ObjectMap<byte[]> entries) throws IOException {
+		Long2ObjectMap<Long2ObjectMap<byte[]>> files = new Long2ObjectOpenHashMap<>();
+		for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(entries)) {
+			long key = entry.getLongKey();
+			// chunks replayed after a crash were never saved by this cache, they are only found through the index once they
+			// leave the journal
+			existence.add(Located2D.keyX(key), Located2D.keyY(key));
+			files.computeIfAbsent(fileKey(Located2D.keyX(key), Located2D.keyY(key)), l -> new Long2ObjectOpenHashMap<>()).put(key, entry.getValue());
+		}
+		boolean created = false;
+		for (Long2ObjectMap.Entry<Long2ObjectMap<byte[]>> file : Long2ObjectMaps.fastIterable(files))
+			created |= writeCompressedBatch(file.getLongKey(), file.getValue(), true);
+		// the segments are deleted once this returns, a new file has to survive a crash without them
+		if (created) StorageBackend.syncFolder(folder);
+	}
+
+	/**
+	 * writes compressed chunks that share a file, this may be called from any thread but only one thread writes a file at a time
+	 * @param fileKey the {@link #fileKey(int, int)} shared by the chunks
+	 * @param chunks chunk key to compressed bytes
+	 * @param sync true if the file has to be on disk when this returns
+	 * @return true if sync is set and a file was created, its directory entry is not synced yet
+	 */
+	protected boolean writeCompressedBatch(long fileKey, Long2ObjectMap<byte[]> chunks, boolean sync) throws IOException {
+		boolean created = false;
+		for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(chunks)) {
+			// the contents are forced through the channel that wrote them
+			created |= writeFile(getFile.apply(entry.getLongKey()), ByteBuffer.wrap(entry.getValue()), sync);
+		}
+		return sync && created;
+	}
+
+	/**
+	 * the key of the file the chunk is stored in, chunks with the same file key are written together
+	 */
+	protected long fileKey(int x, int y) {
+		return key(x, y);
+	}
+
+	/**
+	 * moves saving off the calling thread, evicted and saved chunks are serialized into a bounded queue and compressed and
+	 * written by a background thread, repeated saves of a queued chunk replace the queued snapshot. Saving blocks while the
+	 * queue is full, call {@link #flush()} before shutting down
+	 * @param capacity the maximum number of queued chunks
+	 */
+	public void enableWriteBehind(int capacity) {
+		if (writeBehind != null) throw new IllegalStateException("write-behind is already enabled");
+		if (journal != null) throw new IllegalStateException("write-behind can not be used with the journal");
+		writeBehind = new WriteBehindQueue(capacity, k -> fileKey(Located2D.keyX(k), Located2D.keyY(k)), this::writeBatch);
+	}
+
+	/**
+	 * sends every write through a write-ahead journal in the folder and replays what a crash left in it. Writes are logged
+	 * and become durable with a single fsync at the end of {@link #save(int, int, boolean)} and {@link #saveAll(boolean)},
+	 * writes from evictions are durable with the next commit or checkpoint. A background thread checkpoints the journal
+	 * into the chunk files and {@link #flush()} checkpoints on the calling thread
+	 * @param folder the folder the journal segments are kept in
+	 * @param checkpointInterval milliseconds between checkpoints
+	 * @return the journal
+	 */
+	public Journal enableJournal(File folder, long checkpointInterval) throws IOException {
+		checkJournal();
+		Journal journal = new Journal(folder, checkpointInterval, this::checkpoint);
+		setJournal(journal);
+		return journal;
+	}
+
+	// uses a journal that may be shared with other caches, its checkpointer must call checkpoint on the right cache
+	protected void setJournal(Journal journal) {
+		checkJournal();
+		this.journal = journal;
+	}
+
+	private void checkJournal() {
+		if (journal != null) throw new IllegalStateException("the journal is already enabled");
+		if (writeBehind != null) throw new IllegalStateException("the journal can not be used with write-behind");
+	}
+
+	/**
+	 * keeps chunks that are evicted from the unloaded cache compressed in off heap memory instead of writing them, when the
+	 * budget is full the least recently evicted chunks are written to storage. A chunk that is accessed again only has to be
+	 * decompressed
+	 * @param budget the maximum number of off heap bytes
+	 */
+	public void enableCompressedTier(long budget) {
+		if (compressedTier != null) throw new IllegalStateException("the compressed tier is already enabled");
+		compressedTier = new OffHeapArena(budget, 1024, this::writeCompressed);
+	}
+
+	/**
+	 * @return the compressed tier, its fill level and byte counts, or null if it is disabled
+	 */
+	public OffHeapArena getCompressedTier() {
+		return compressedTier;
+	}
+
+	// writes a chunk that leaves the compressed tier if it changed
+	protected void writeCompressed(long key, ByteBuffer data, boolean dirty) throws IOException {
+		if (!dirty) return;
+		int x = Located2D.keyX(key), y = Located2D.keyY(key);
+		CacheStats stats = this.stats;
+		long start = stats == null ? 0 : System.nanoTime();
+		if (writeBehind != null) {
+			// the queue holds uncompressed snapshots, a queued older snapshot must be replaced rather than overtaken
+			int id = data.get() & 0xff;
+			try (InputStream in = Codecs.get(id).decompress(new ByteBufferInputStream(data))) {
+				ByteBuffer serialized = ThreadBuffers.readFully(in);
+				byte[] snapshot = new byte[serialized.remaining()];
+				serialized.get(snapshot);
+				writeBehind.put(key, snapshot);
+			}
+		} else {
+			// the blob was not counted when it entered the tier, its bytes are counted once they go to storage
+			int compressed = data.remaining(), serialized = stats == null ? 0 : serializedSize(data);
+			store(x, y, data);
+			if (stats != null) stats.recordCompression(serialized, compressed);
+		}
+		// only added once the write went through, a failed write leaves the blob in the tier
+		existence.add(x, y);
+		if (stats != null) stats.recordSave(System.nanoTime() - start);
+		// the chunk left memory when it was compressed
+		if (listener != null) listener.onSave(x, y, null);
+	}
+
+	// the size of a compressed blob once it is decompressed, the position of the blob is kept
+	private static int serializedSize(ByteBuffer data) throws IOException {
+		ByteBuffer blob = data.duplicate();
+		try (InputStream in = Codecs.get(blob.get() & 0xff).decompress(new ByteBufferInputStream(blob))) {
+			return ThreadBuffers.readFully(in).remaining();
+		}
+	}
+
+	// moves the chunk into the compressed tier and marks it clean there, false if it is larger than the whole tier
+	protected boolean compressInto(int x, int y, C c) throws IOException {
+		long key = key(x, y);
+		// the tier is not storage, the bytes are counted when the blob is written
+		if (!compressedTier.put(key, compress(c, null), isDirty(key, c))) return false;
+		dirty.remove(key);
+		if (c instanceof Dirtyable) ((Dirtyable) c).setDirty(false);
+		return true;
+	}
+
+	/**
+	 * blocks until every queued save has been written, does nothing if write-behind is disabled
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (writeBehind != null) writeBehind.flush();
+		if (journal != null) journal.checkpoint();
+	}
+
+	/**
+	 * writes every queued save and stops the write-behind thread, the cache can not save afterwards. Chunks in memory are not
+	 * saved, call {@link #saveAll(boolean)} first. The journal is closed by whoever enabled it
+	 */
+	@Override
+	public void close() throws IOException {
+		if (writeBehind != null) writeBehind.close();
+	}
+
+	/**
+	 * takes a point in time snapshot of every chunk and writes it to the target in the background. The chunks that changed
+	 * since they were saved are serialized on the calling thread, everything else is copied by the snapshot's thread while
+	 * the cache keeps being used, storage files are copied before the cache changes them. The target can be opened as the
+	 * folder of a cache of the same kind, or unzipped into one
+	 * @param target the folder the storage is copied to, or the zip file if archive is true
+	 * @param archive true to write the snapshot as a zip file
+	 * @return the snapshot, its future completes once it is written
+	 */
+	public Snapshot snapshot(File target, boolean archive) throws IOException {
+		installLoads();
+		Snapshot last = this.snapshot;
+		if (last != null && !last.isDone()) throw new IllegalStateException("a snapshot is still being written");
+		Snapshot snapshot = new Snapshot(this, folder, target, archive);
+		capture(snapshot);
+		snapshot.addFiles(storageFiles());
+		activate(snapshot);
+		snapshot.start();
+		return snapshot;
+	}
+
+	// captures every chunk whose newest state is not in the storage files, newer states replace older ones
+	protected void capture(Snapshot snapshot) throws IOException {
+		if (journal != null)
+			for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(journal.copyPending()))
+				snapshot.putLogged(entry.getLongKey(), entry.getValue());
+		if (writeBehind != null)
+			for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(writeBehind.copyQueued()))
+				snapshot.putSerialized(entry.getLongKey(), entry.getValue());
+		if (compressedTier != null) compressedTier.copyDirty((key, data, dirty) -> snapshot.putCompressed(key, data.array()));
+		// taking a snapshot is not an access of the chunks
+		for (Iterator<C> iterator = iterator(false); iterator.hasNext(); ) {
+			C c = iterator.next();
+			long key = key(c.getX(), c.getY());
+			if (isDirty(key, c)) snapshot.putSerialized(key, serializer.serialize(c));
+		}
+	}
+
+	// the names of the storage files in the folder
+	protected List<String> storageFiles() {
+		List<String> files = new ArrayList<>();
+		String[] names = folder.list();
+		if (names != null)
+			for (String name : names)
+				if (name.endsWith(".chunkdata")) files.add(name);
+		return files;
+	}
+
+	// makes writes preserve the snapshot's files, only the files of chunks that were captured can be written while this runs
+	protected void activate(Snapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * writes the captured chunks of a file into the snapshot's copy of the storage, called from the snapshot's thread
+	 * @param target the folder the storage was copied to
+	 * @param fileKey the {@link #fileKey(int, int)} shared by the chunks
+	 * @param chunks chunk key to compressed bytes
+	 */
+	protected void writeSnapshot(File target, long fileKey, Long2ObjectMap<byte[]> chunks) throws IOException {
+		for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(chunks))
+			backend.writeFile(new File(target, getFile.apply(entry.getLongKey()).getName()), ByteBuffer.wrap(entry.getValue()));
+	}
+
+	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, StorageBackend backend) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize, backend, Codecs.GZIP);
+	}
+
+	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize, StorageBackend.STREAM);
 	}
 
 	public PrioritisedFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer) {
 		this(folder, chunkSupplier, deserializer, serializer, 128, 1028);
 	}
 
+	/**
+	 * replaces the scans of the frequent and loaded tiers on every {@link #set(int, int, Located2D)} with a constant time policy,
+	 * see {@link TierPolicy#segmentedLru()} and {@link TierPolicy#tinyLfu(int)}
+	 * @param policy the policy or null to go back to scanning
+	 */
+	public void setTierPolicy(TierPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * makes {@link #get(int, int)} and {@link #set(int, int, Located2D)} only record the access and leaves trimming,
+	 * promotion, access count aging and eviction saves to {@link #maintain(long)}. Between calls to maintain the tiers may
+	 * grow past their limits, a call that takes a tier past the hard cap trims it back to the cap on the calling thread
+	 * @param hardCap the multiple of its limit a tier may grow to, at least 1
+	 */
+	public void enableMaintenance(float hardCap) {
+		if (!(hardCap >= 1)) throw new IllegalArgumentException("hard cap " + hardCap + " is below the limits");
+		this.maintenanceCap = hardCap;
+	}
+
+	/**
+	 * goes back to trimming on every call and trims every tier back to its limit
+	 */
+	public void disableMaintenance() {
+		this.maintenanceCap = 0;
+		maintain(Long.MAX_VALUE);
+	}
+
+	/**
+	 * does the work the calls since the last maintenance left in slices of at most one eviction or promotion step, until
+	 * the work is done or the budget is used up. Call it once per tick or from the thread that owns the cache
+	 * @param nanosBudget the time after which no new slice is started
+	 * @return true if every tier is within its limit, false if work may be left for the next call
+	 */
+	public boolean maintain(long nanosBudget) {
+		installLoads();
+		long deadline = System.nanoTime() + nanosBudget;
+		try {
+			do {
+				if (!maintainOnce()) return true;
+			} while (System.nanoTime() - deadline < 0);
+			return false;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * sets the executor {@link #getAsync(int, int)} reads and generates chunks on, the deserializer and chunk function must be
+	 * thread safe when it is used
+	 */
+	public void setLoadExecutor(Executor loadExecutor) {
+		this.loadExecutor = loadExecutor;
+	}
+
+	/**
+	 * starts recording hits, loads, saves and their latencies into the stats, set them before any asynchronous load is started
+	 * @param stats the counters, may be shared with other caches, or null to stop recording
+	 */
+	public void setStats(CacheStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * @return the counters the cache records into, or null if stats are disabled
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @param listener the callbacks for loaded, evicted and saved chunks or null to remove the listener
+	 */
+	public void setListener(CacheListener<? super C> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * loads or generates the chunk on the load executor, requests for a chunk that is already loading share its future.
+	 * the chunk is installed into the cache by the next call on the cache's own thread, so callbacks on the future run on
+	 * the executor and must not touch the cache
+	 */
+	@Override
+	public CompletableFuture<C> getAsync(int x, int y) {
+		installLoads();
+		long key = key(x, y);
+		Load<C> load = loading.get(key);
+		if (load != null) return load;
+		if (isCached(key)) return CompletableFuture.completedFuture(get(x, y));
+
+		Load<C> started = new Load<>(key);
+		loading.put(key, started);
+		loadExecutor.execute(() -> {
+			try {
+				C c = readStored(x, y);
+				if (c == null) {
+					started.generated = true;
+					// a staged chunk function finishes the chunk on its own workers
+					generateAsync(x, y).whenComplete((generated, t) -> {
+						if (t != null) started.completeExceptionally(t);
+						else started.complete(generated);
+						finishedLoads.add(started);
+					});
+					return;
+				}
+				started.complete(c);
+			} catch (Throwable t) {
+				started.completeExceptionally(t);
+			}
+			finishedLoads.add(started);
+		});
+		return started;
+	}
+
+	/**
+	 * moves finished asynchronous loads into the cache, a chunk that was cached by other means in the meantime is kept
+	 */
+	protected void installLoads() {
+		Load<C> load;
+		while ((load = finishedLoads.poll()) != null) {
+			// loads that were already awaited by a blocking call are not installed again
+			if (loading.get(load.key) != load) continue;
+			loading.remove(load.key);
+			if (!load.isCompletedExceptionally() && !isCached(load.key)) {
+				if (load.generated) dirty.add(load.key);
+				C c = load.join();
+				install(load.key, c);
+				if (listener != null) listener.onLoad(Located2D.keyX(load.key), Located2D.keyY(load.key), c, load.generated);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the chunk is in any of the in memory tiers
+	 */
+	protected boolean isCached(long key) {
+		return frequentCache.containsKey(key) || loaded.containsKey(key) || unloadedCache.containsKey(key) || compressedTier != null && compressedTier.contains(key);
+	}
+
+	// waits for the chunk if it is being loaded asynchronously
+	protected C awaitLoad(long key) {
+		Load<C> load = loading.remove(key);
+		if (load == null) return null;
+		C c = load.join();
+		if (load.generated) dirty.add(key);
+		if (listener != null) listener.onLoad(Located2D.keyX(key), Located2D.keyY(key), c, load.generated);
+		return c;
+	}
+
 	@Override
 	public C getNoPriority(int x, int y) {
+		installLoads();
 		long key = key(x, y);
 		C first = frequentCache.getOrDefault(key, (Tracker<C>) Tracker.EMPTY).get();
 		if (first == null) first = loaded.getOrDefault(key, (Tracker<C>) Tracker.EMPTY).get();
@@ -80,10 +747,12 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 
 	@Override
 	public Priority getPriority(int x, int y) {
+		installLoads();
 		long key = key(x, y);
 		if (frequentCache.containsKey(key)) return Priority.FREQUENT;
 		else if (loaded.containsKey(key)) return Priority.LOADED;
 		else if (unloadedCache.containsKey(key)) return Priority.UNLOADED_CACHED;
+		else if (compressedTier != null && compressedTier.contains(key)) return Priority.UNLOADED_COMPRESSED;
 		return Priority.UNLOADED;
 	}
 
@@ -91,19 +760,32 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 	public void setPriority(int x, int y, Priority priority) {
 		long key = key(x, y);
 		C c = forceRemove(key);
+		if (c == null && (c = awaitLoad(key)) == null) c = read(x, y);
+		place(x, y, key, c, priority);
+	}
+
+	// puts a chunk that is in no tier into the tier of the priority
+	protected void place(int x, int y, long key, C c, Priority priority) {
 		try {
 			switch (priority) {
 				case FREQUENT:
 					frequentCache.put(key, new Tracker<>(c));
+					frequentWeight += weigh(key, c);
+					index.add(x, y);
 					break;
 				case LOADED:
 					loaded.put(key, new Tracker<>(c));
+					loadedWeight += weigh(key, c);
+					index.add(x, y);
 					break;
 				case UNLOADED_CACHED:
 					addToUnloaded(key, c);
 					break;
+				case UNLOADED_COMPRESSED:
+					if (compressedTier == null || !compressInto(x, y, c)) saveIfDirty(x, y, c, true);
+					break;
 				case UNLOADED:
-					save(x, y, true);
+					saveIfDirty(x, y, c, true);
 					break;
 			}
 		} catch (IOException e) {
@@ -111,12 +793,192 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 		}
 	}
 
+	/**
+	 * keeps every chunk in the square of the given radius around the center in the tier of the level for as long as the
+	 * ticket exists, a chunk covered by several tickets is kept in the tier of the highest level. Trimming never moves a
+	 * chunk below its ticket level, so tiers can go over their limits when tickets hold more than fits. Chunks that have to
+	 * be read are read together with the other chunks of their file
+	 * @param radius the chebyshev radius, 0 covers only the center chunk
+	 * @param level the tier, {@link Priority#FREQUENT}, {@link Priority#LOADED} or {@link Priority#UNLOADED_CACHED}
+	 * @return the ticket, pass it to {@link #moveTicket(Ticket, int, int)} and {@link #removeTicket(Ticket)}
+	 */
+	public Ticket addTicket(int centerX, int centerY, int radius, Priority level) {
+		Ticket ticket = new Ticket(centerX, centerY, radius, level);
+		changeTickets(ticket.square(), LongLists.EMPTY_LIST, level);
+		return ticket;
+	}
+
+	/**
+	 * removes the ticket, chunks no other ticket covers are moved to the unloaded cache and saved when they are evicted from it
+	 */
+	public void removeTicket(Ticket ticket) {
+		if (ticket.removed) return;
+		ticket.removed = true;
+		changeTickets(LongLists.EMPTY_LIST, ticket.square(), ticket.level);
+	}
+
+	/**
+	 * moves the ticket to a new center, only the chunks that enter or leave the square are loaded or released
+	 */
+	public void moveTicket(Ticket ticket, int centerX, int centerY) {
+		LongList entering = ticket.entering(centerX, centerY), leaving = ticket.leaving(centerX, centerY);
+		ticket.x = centerX;
+		ticket.y = centerY;
+		changeTickets(entering, leaving, ticket.level);
+	}
+
+	// references the entering chunks and releases the leaving chunks at the level, then moves the chunks whose level changed
+	protected void changeTickets(LongList entering, LongList leaving, Priority level) {
+		LongList changed = new LongArrayList();
+		// chunks that enter are referenced before chunks that leave are released
+		for (int i = 0; i < entering.size(); i++)
+			reference(entering.getLong(i), level, 1, changed);
+		for (int i = 0; i < leaving.size(); i++)
+			reference(leaving.getLong(i), level, -1, changed);
+		applyTickets(changed);
+	}
+
+	/**
+	 * @return true if a ticket keeps the chunk in the tier or a higher one, so it may not be moved out of it
+	 */
+	protected boolean isHeld(long key, Priority tier) {
+		int[] counts = ticketCounts.get(key);
+		return counts != null && ticketLevel(counts).compareTo(tier) <= 0;
+	}
+
+	/**
+	 * @return the highest level of the tickets covering the chunk, {@link Priority#UNLOADED} if no ticket covers it
+	 */
+	public Priority getTicketLevel(int x, int y) {
+		return ticketLevel(ticketCounts.get(key(x, y)));
+	}
+
+	private static Priority ticketLevel(int[] counts) {
+		if (counts != null)
+			for (int level = 0; level < counts.length; level++)
+				if (counts[level] > 0) return Priority.values()[level];
+		return Priority.UNLOADED;
+	}
+
+	// changes the reference count of the chunk and remembers it if its level changed
+	private void reference(long key, Priority level, int delta, LongList changed) {
+		int[] counts = ticketCounts.get(key);
+		if (counts == null) ticketCounts.put(key, counts = new int[Priority.UNLOADED.ordinal()]);
+		Priority before = ticketLevel(counts);
+		counts[level.ordinal()] += delta;
+		Priority after = ticketLevel(counts);
+		if (after == Priority.UNLOADED) ticketCounts.remove(key);
+		if (before != after) changed.add(key);
+	}
+
+	// moves every chunk whose ticket level changed into its new tier, missing chunks are read file by file
+	protected void applyTickets(LongList changed) {
+		installLoads();
+		Long2ObjectMap<C> read = new Long2ObjectOpenHashMap<>();
+		LongArrayList missing = new LongArrayList();
+		for (int i = 0; i < changed.size(); i++) {
+			long key = changed.getLong(i);
+			if (!isCached(key) && !loading.containsKey(key) && ticketCounts.containsKey(key)) missing.add(key);
+		}
+		if (!missing.isEmpty()) {
+			long[] keys = missing.toLongArray();
+			long[] files = new long[keys.length];
+			for (int i = 0; i < keys.length; i++)
+				files[i] = fileKey(Located2D.keyX(keys[i]), Located2D.keyY(keys[i]));
+			LongArrays.quickSort(files, keys);
+			for (int start = 0, end; start < keys.length; start = end) {
+				end = start;
+				LongList group = new LongArrayList();
+				while (end < keys.length && files[end] == files[start])
+					group.add(keys[end++]);
+				readBatch(files[start], group, read);
+			}
+		}
+
+		for (int i = 0; i < changed.size(); i++) {
+			long key = changed.getLong(i);
+			int x = Located2D.keyX(key), y = Located2D.keyY(key);
+			Priority level = ticketLevel(ticketCounts.get(key));
+			if (level == Priority.UNLOADED) unload(x, y);
+			else {
+				C c = read.remove(key);
+				if (c == null && (c = forceRemove(key)) == null && (c = awaitLoad(key)) == null) c = read(x, y);
+				place(x, y, key, c, level);
+			}
+		}
+	}
+
+	/**
+	 * reads or generates several chunks that are stored in the same file
+	 * @param fileKey the {@link #fileKey(int, int)} shared by the chunks
+	 * @param keys the chunk keys
+	 * @param chunks the chunks are put here
+	 */
+	protected void readBatch(long fileKey, LongList keys, Long2ObjectMap<C> chunks) {
+		try {
+			LongList stored = new LongArrayList(keys.size());
+			LongList probed = new LongArrayList(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				long key = keys.getLong(i);
+				// queued snapshots are newer than the storage
+				if (writeBehind != null && writeBehind.get(key) != null || journal != null && journal.get(key) != null) chunks.put(key, read(Located2D.keyX(key), Located2D.keyY(key)));
+				else {
+					stored.add(key);
+					if (existence.contains(Located2D.keyX(key), Located2D.keyY(key))) probed.add(key);
+				}
+			}
+
+			CacheStats stats = this.stats;
+			long start = stats == null ? 0 : System.nanoTime();
+			Long2ObjectMap<ByteBuffer> data = probed.isEmpty() ? Long2ObjectMaps.emptyMap() : loadBatch(fileKey, probed);
+			for (int i = 0; i < stored.size(); i++) {
+				long key = stored.getLong(i);
+				int x = Located2D.keyX(key), y = Located2D.keyY(key);
+				ByteBuffer buffer = data.get(key);
+				boolean generated = buffer == null;
+				C c;
+				if (generated) {
+					dirty.add(key);
+					c = generate(x, y);
+				} else {
+					int bytes = buffer.remaining();
+					c = decompress(x, y, buffer);
+					if (stats != null) {
+						long now = System.nanoTime();
+						stats.recordDiskLoad(now - start, bytes);
+						start = now;
+					}
+				}
+				if (listener != null) listener.onLoad(x, y, c, generated);
+				chunks.put(key, c);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * reads the compressed bytes of several chunks that are stored in the same file, the default reads them one at a time
+	 * @param fileKey the {@link #fileKey(int, int)} shared by the chunks
+	 * @param keys the chunk keys
+	 * @return chunk key to bytes, chunks that were never saved are left out
+	 */
+	protected Long2ObjectMap<ByteBuffer> loadBatch(long fileKey, LongList keys) throws IOException {
+		Long2ObjectMap<ByteBuffer> data = new Long2ObjectOpenHashMap<>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			long key = keys.getLong(i);
+			ByteBuffer buffer = load(Located2D.keyX(key), Located2D.keyY(key));
+			if (buffer != null) data.put(key, buffer);
+		}
+		return data;
+	}
+
 	@Override
 	public C unload(int x, int y) {
 		try {
 			long key = key(x, y);
 			C c = forceRemove(key);
-			addToUnloaded(key, c);
+			if (c != null) addToUnloaded(key, c);
 			return c;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -126,31 +988,96 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 	@Override
 	public void set(int x, int y, C object) {
 		long key = key(x, y);
-		frequentCache.put(key, new Tracker<>(object));
+		dirty.add(key);
+		install(key, object);
+	}
+
+	/**
+	 * marks the chunk as changed so it is written the next time it is saved or evicted, call this after modifying a chunk that
+	 * was returned by {@link #get(int, int)} unless the chunk implements {@link Dirtyable}
+	 */
+	@Override
+	public void markDirty(int x, int y) {
+		dirty.add(key(x, y));
+	}
+
+	/**
+	 * @return the number of saves and evictions that did not write a chunk because it had not changed
+	 */
+	public long getSkippedSaves() {
+		return skippedSaves;
+	}
+
+	// puts the chunk into the frequent tier without marking it dirty
+	protected void install(long key, C object) {
+		int weight = weights.get(key);
+		if (loaded.remove(key) != null) loadedWeight -= weight;
+		if (unloadedCache.remove(key) != null) unloadedWeight -= weight;
+		// a set chunk replaces the compressed copy
+		if (compressedTier != null) compressedTier.discard(key);
+		if (frequentCache.putAndMoveToLast(key, new Tracker<>(object)) != null) frequentWeight -= weight;
+		frequentWeight += weigh(key, object);
+		index.add(Located2D.keyX(key), Located2D.keyY(key));
+		if (policy != null) policy.recordAccess(key);
 		update();
 	}
 
 	@Override
 	public C get(int x, int y) {
+		installLoads();
 		long key = key(x, y);
-		Tracker<C> tracker = frequentCache.get(key);
+		Tracker<C> tracker = policy == null ? frequentCache.get(key) : frequentCache.getAndMoveToLast(key);
 		C first = tracker == null ? null : tracker.get();
-		if (first == null)
+		if (first == null) {
 			first = (tracker = loaded.get(key)) == null ? null : tracker.get();
-		if (first == null)
-			first = getUnloadedPriority(x, y);
-		if (first == null)
-			set(x, y, first = read(x, y));
+			if (first != null) {
+				if (stats != null) stats.recordHit(Priority.LOADED);
+				if (policy != null) promote(key, tracker);
+			}
+		} else {
+			if (stats != null) stats.recordHit(Priority.FREQUENT);
+			if (policy != null) policy.recordAccess(key);
+		}
+		if (first == null && (first = getUnloadedPriority(x, y)) != null && stats != null)
+			stats.recordHit(Priority.UNLOADED_CACHED);
+		if (first == null) {
+			if (stats != null) {
+				if (compressedTier != null && compressedTier.contains(key)) stats.recordHit(Priority.UNLOADED_COMPRESSED);
+				else stats.recordMiss();
+			}
+			if ((first = awaitLoad(key)) == null) first = read(x, y);
+			install(key, first);
+		}
 		return first;
 	}
 
+	/**
+	 * @return true if the chunk is in storage or on its way there, may be called from any thread
+	 */
+	public boolean isStored(int x, int y) {
+		long key = key(x, y);
+		if (writeBehind != null && writeBehind.get(key) != null || journal != null && journal.get(key) != null) return true;
+		try {
+			return existence.contains(x, y);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public int size() {
+		installLoads();
 		return frequentCache.size() + unloadedCache.size() + loaded.size();
 	}
 
 	@Override
 	public Iterator<C> iterator() {
+		installLoads();
+		return iterator(true);
+	}
+
+	// every chunk in memory, access is false for internal passes that must not count as accesses of the chunks
+	protected Iterator<C> iterator(boolean access) {
 		ObjectIterator<Long2ObjectMap.Entry<Tracker<C>>> freq = Long2ObjectMaps.fastIterator(frequentCache);
 		ObjectIterator<Long2ObjectMap.Entry<Tracker<C>>> load = Long2ObjectMaps.fastIterator(loaded);
 		ObjectIterator<Long2ObjectMap.Entry<C>> ulad = Long2ObjectMaps.fastIterator(unloadedCache);
@@ -163,24 +1090,97 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 
 			@Override
 			public C next() {
-				if (freq.hasNext()) return freq.next().getValue().get();
-				else if (load.hasNext()) return load.next().getValue().get();
+				if (freq.hasNext()) return get(freq.next().getValue());
+				else if (load.hasNext()) return get(load.next().getValue());
 				else if (ulad.hasNext()) return ulad.next().getValue();
 				return null;
 			}
+
+			private C get(Tracker<C> tracker) {
+				return access ? tracker.get() : tracker.peek();
+			}
 		};
 	}
 
+	/**
+	 * calls the consumer with every chunk in any in memory tier inside the rectangle, the bounds are inclusive. The cost
+	 * depends on the area of the rectangle and not on the size of the cache, priorities are not changed
+	 */
+	public void forEachInRect(int minX, int minY, int maxX, int maxY, Consumer<? super C> consumer) {
+		forEachInRect(minX, minY, maxX, maxY, EnumSet.allOf(Priority.class), consumer);
+	}
+
+	/**
+	 * calls the consumer with every chunk inside the rectangle that is in one of the tiers, the bounds are inclusive
+	 * @param tiers the tiers to visit, e.g. {@link Priority#FREQUENT} and {@link Priority#LOADED} for the fully loaded chunks
+	 */
+	public void forEachInRect(int minX, int minY, int maxX, int maxY, Set<Priority> tiers, Consumer<? super C> consumer) {
+		installLoads();
+		boolean frequent = tiers.contains(Priority.FREQUENT), load = tiers.contains(Priority.LOADED), unloaded = tiers.contains(Priority.UNLOADED_CACHED);
+		index.forEachInRect(minX, minY, maxX, maxY, (x, y) -> {
+			C c = getCached(key(x, y), frequent, load, unloaded);
+			if (c != null) consumer.accept(c);
+		});
+	}
+
+	/**
+	 * calls the consumer with every chunk in one of the tiers whose position is within the euclidean radius of the center
+	 */
+	public void forEachInRadius(int centerX, int centerY, int radius, Set<Priority> tiers, Consumer<? super C> consumer) {
+		long radiusSquared = (long) radius * radius;
+		forEachInRect(centerX - radius, centerY - radius, centerX + radius, centerY + radius, tiers, c -> {
+			long dx = c.getX() - centerX, dy = c.getY() - centerY;
+			if (dx * dx + dy * dy <= radiusSquared) consumer.accept(c);
+		});
+	}
+
+	// gets the chunk if it is in one of the given tiers without touching its priority
+	protected C getCached(long key, boolean frequent, boolean load, boolean unloaded) {
+		Tracker<C> tracker;
+		if (frequent && (tracker = frequentCache.get(key)) != null) return tracker.peek();
+		if (load && (tracker = loaded.get(key)) != null) return tracker.peek();
+		return unloaded ? unloadedCache.get(key) : null;
+	}
+
 	protected long key(int x, int y) {
-		return (long) x << 32 | y & 0xffffffffL;
+		return Located2D.key(x, y);
+	}
+
+	// weighs a chunk that enters a tier and remembers its weight
+	protected int weigh(long key, C c) {
+		int weight = weigher.weigh(c);
+		weights.put(key, weight);
+		return weight;
+	}
+
+	/**
+	 * @return the total weight of the chunks in the tier, with the default weigher this is the number of chunks. For
+	 * {@link Priority#UNLOADED_COMPRESSED} it is the number of off heap bytes that are allocated
+	 */
+	public long getWeight(Priority tier) {
+		switch (tier) {
+			case FREQUENT:
+				return frequentWeight;
+			case LOADED:
+				return loadedWeight;
+			case UNLOADED_CACHED:
+				return unloadedWeight;
+			case UNLOADED_COMPRESSED:
+				return compressedTier == null ? 0 : compressedTier.getAllocatedBytes();
+			default:
+				return 0;
+		}
 	}
 
 
 	protected C forceRemove(long key) {
+		int weight = weights.remove(key);
 		Tracker<C> tracker = frequentCache.remove(key);
 		C first = tracker != null ? tracker.get() : null;
-		if (first == null) first = (tracker = loaded.remove(key)) == null ? null : tracker.get();
-		if (first == null) first = unloadedCache.remove(key);
+		if (first != null) frequentWeight -= weight;
+		else if ((first = (tracker = loaded.remove(key)) == null ? null : tracker.get()) != null) loadedWeight -= weight;
+		else if ((first = unloadedCache.remove(key)) != null) unloadedWeight -= weight;
+		if (first != null) index.remove(Located2D.keyX(key), Located2D.keyY(key));
 		return first;
 	}
 
@@ -188,38 +1188,267 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 	public C save(int x, int y, boolean remove) throws IOException {
 		long key = key(x, y);
 		C c = remove ? forceRemove(key) : get(x, y);
-		serialize(x, y, c, remove);
+		if (c == null && (c = awaitLoad(key)) == null) c = read(x, y);
+		saveIfDirty(x, y, c, remove);
+		if (journal != null) journal.commit();
 		return c;
 	}
 
 	@Override
 	public void saveAll(boolean remove) throws IOException {
-		for (C c : this)
-			if (c != null) save(c.getX(), c.getY(), false);
-			else System.out.println("Null chunk!");
+		installLoads();
+		for (Tracker<C> tracker : frequentCache.values())
+			saveIfDirty(tracker.peek(), false);
+		for (Tracker<C> tracker : loaded.values())
+			saveIfDirty(tracker.peek(), false);
+		for (C c : unloadedCache.values())
+			saveIfDirty(c, false);
+		if (compressedTier != null) {
+			compressedTier.writeDirty(this::writeCompressed);
+			if (remove) compressedTier.clear();
+		}
 		if (remove) {
 			loaded.clear();
 			unloadedCache.clear();
 			frequentCache.clear();
+			weights.clear();
+			frequentWeight = loadedWeight = unloadedWeight = 0;
+			index.clear();
+			dirty.clear();
+		}
+		if (journal != null) journal.commit();
+	}
+
+	/**
+	 * saves every dirty chunk in parallel. The dirty chunks of every tier are collected on the calling thread, then every file
+	 * is serialized, compressed and written by exactly one task on the pool while the calling thread waits, so the serializer
+	 * must be thread safe. A file that fails keeps its chunks dirty and in memory and its failure is reported in the summary
+	 * @param remove true to drop every chunk from memory, chunks of failed files are kept
+	 * @param pool the pool the files are saved on
+	 * @return the number of chunks and bytes written, the time it took and the failure of every file that could not be saved
+	 */
+	public SaveSummary saveAll(boolean remove, ForkJoinPool pool) throws IOException {
+		long start = System.nanoTime();
+		installLoads();
+		// the snapshot of every dirty chunk, grouped by the file it is stored in
+		Long2ObjectMap<Long2ObjectMap<C>> files = new Long2ObjectOpenHashMap<>();
+		// saving is not an access, the tier policies must not see it
+		for (Iterator<C> iterator = iterator(false); iterator.hasNext(); ) {
+			C c = iterator.next();
+			long key = key(c.getX(), c.getY());
+			if (!isDirty(key, c)) skippedSaves++;
+			else files.computeIfAbsent(fileKey(c.getX(), c.getY()), l -> new Long2ObjectOpenHashMap<>()).put(key, c);
+		}
+		if (compressedTier != null) compressedTier.writeDirty(this::writeCompressed);
+
+		SaveSummary summary = new SaveSummary();
+		Long2ObjectMap<ForkJoinTask<long[]>> tasks = new Long2ObjectOpenHashMap<>(files.size());
+		for (Long2ObjectMap.Entry<Long2ObjectMap<C>> file : Long2ObjectMaps.fastIterable(files)) {
+			// fast iteration reuses the entry, so the task captures the key and chunks
+			long fileKey = file.getLongKey();
+			Long2ObjectMap<C> chunks = file.getValue();
+			tasks.put(fileKey, pool.submit(() -> saveFile(fileKey, chunks)));
+		}
+		for (Long2ObjectMap.Entry<ForkJoinTask<long[]>> task : Long2ObjectMaps.fastIterable(tasks)) {
+			Long2ObjectMap<C> chunks = files.get(task.getLongKey());
+			try {
+				long[] written = task.getValue().get();
+				summary.chunks += written[0];
+				summary.bytes += written[1];
+			} catch (ExecutionException e) {
+				// the pool wraps checked exceptions of the task in plain runtime exceptions
+				Throwable cause = e.getCause();
+				while (cause.getClass() == RuntimeException.class && cause.getCause() != null)
+					cause = cause.getCause();
+				summary.failures.put(task.getLongKey(), cause);
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				summary.failures.put(task.getLongKey(), e);
+				continue;
+			}
+			for (Long2ObjectMap.Entry<C> chunk : Long2ObjectMaps.fastIterable(chunks)) {
+				C c = chunk.getValue();
+				dirty.remove(chunk.getLongKey());
+				if (c instanceof Dirtyable) ((Dirtyable) c).setDirty(false);
+				if (listener != null) listener.onSave(c.getX(), c.getY(), c);
+			}
 		}
+
+		if (remove) {
+			if (summary.failures.isEmpty()) {
+				loaded.clear();
+				unloadedCache.clear();
+				frequentCache.clear();
+				weights.clear();
+				frequentWeight = loadedWeight = unloadedWeight = 0;
+				index.clear();
+				dirty.clear();
+			} else {
+				LongList keys = new LongArrayList();
+				for (Iterator<C> iterator = iterator(false); iterator.hasNext(); ) {
+					C c = iterator.next();
+					if (!summary.failures.containsKey(fileKey(c.getX(), c.getY()))) keys.add(key(c.getX(), c.getY()));
+				}
+				for (int i = 0; i < keys.size(); i++)
+					forceRemove(keys.getLong(i));
+			}
+			if (compressedTier != null) compressedTier.clear();
+		}
+		if (journal != null) journal.commit();
+		summary.elapsedNanos = System.nanoTime() - start;
+		return summary;
+	}
+
+	// serializes, compresses and writes the chunks of one file on a pool thread, returns the chunk and byte counts
+	protected long[] saveFile(long fileKey, Long2ObjectMap<C> chunks) throws IOException {
+		Long2ObjectMap<byte[]> compressed = new Long2ObjectOpenHashMap<>(chunks.size());
+		long bytes = 0;
+		for (Long2ObjectMap.Entry<C> chunk : Long2ObjectMaps.fastIterable(chunks)) {
+			long key = chunk.getLongKey();
+			existence.add(Located2D.keyX(key), Located2D.keyY(key));
+			CacheStats stats = this.stats;
+			long start = stats == null ? 0 : System.nanoTime();
+			if (writeBehind != null) {
+				byte[] snapshot = serializer.serialize(chunk.getValue());
+				bytes += snapshot.length;
+				writeBehind.put(key, snapshot);
+			} else {
+				ByteBuffer data = compress(chunk.getValue());
+				bytes += data.remaining();
+				if (journal != null) journal.append(key, data);
+				else {
+					byte[] copy = new byte[data.remaining()];
+					data.get(copy);
+					compressed.put(key, copy);
+				}
+			}
+			if (stats != null) stats.recordSave(System.nanoTime() - start);
+		}
+		if (!compressed.isEmpty()) writeCompressedBatch(fileKey, compressed, false);
+		return new long[] {chunks.size(), bytes};
+	}
+
+	/**
+	 * @return true if the chunk changed since it was last saved or loaded
+	 */
+	protected boolean isDirty(long key, C c) {
+		return dirty.contains(key) || c instanceof Dirtyable && ((Dirtyable) c).isDirty();
+	}
+
+	private void saveIfDirty(C c, boolean force) {
+		if (c != null) saveIfDirty(c.getX(), c.getY(), c, force);
+	}
+
+	/**
+	 * serializes the chunk if it changed since it was last saved or loaded and marks it clean
+	 * @return false if the chunk was clean and the save was skipped
+	 */
+	protected boolean saveIfDirty(int x, int y, C c, boolean force) {
+		long key = key(x, y);
+		if (!isDirty(key, c)) {
+			skippedSaves++;
+			return false;
+		}
+		long start = stats == null ? 0 : System.nanoTime();
+		serialize(x, y, c, force);
+		if (stats != null) stats.recordSave(System.nanoTime() - start);
+		dirty.remove(key);
+		if (c instanceof Dirtyable) ((Dirtyable) c).setDirty(false);
+		if (listener != null) listener.onSave(x, y, c);
+		return true;
 	}
 
 	protected void serialize(int x, int y, C c, boolean force) {
-		File file = getFile.apply(key(x, y));
-		try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file, true))) {
-			serializer.serialize(c, out);
-			out.flush();
+		try {
+			existence.add(x, y);
+			if (writeBehind != null) writeBehind.put(key(x, y), serializer.serialize(c));
+			else store(x, y, compress(c));
 		} catch (Throwable t) {
 			throw new RuntimeException(t);
 		}
 	}
 
+	/**
+	 * serializes and compresses the chunk, the id of the codec is written in front of the compressed bytes
+	 * @return a buffer over the compressed bytes, it is only valid until the next compression on the same thread
+	 */
+	protected ByteBuffer compress(C c) throws IOException {
+		return compress(c, this.stats);
+	}
+
+	// compresses the chunk and records the sizes in the stats unless they are null
+	private ByteBuffer compress(C c, CacheStats stats) throws IOException {
+		ByteBufferOutputStream bytes = ThreadBuffers.output();
+		bytes.write(codec.id());
+		long serialized = 0;
+		try (OutputStream out = codec.compress(bytes)) {
+			if (stats == null) serializer.serialize(c, out);
+			else {
+				CountingOutputStream counting = new CountingOutputStream(out);
+				serializer.serialize(c, counting);
+				serialized = counting.getCount();
+			}
+		}
+		if (stats != null) stats.recordCompression(serialized, bytes.size());
+		return bytes.toByteBuffer();
+	}
+
+	/**
+	 * compresses an already serialized chunk
+	 * @return a buffer over the compressed bytes, it is only valid until the next compression on the same thread
+	 */
+	protected ByteBuffer compress(byte[] serialized) throws IOException {
+		ByteBufferOutputStream bytes = ThreadBuffers.output();
+		bytes.write(codec.id());
+		try (OutputStream out = codec.compress(bytes)) {
+			out.write(serialized);
+		}
+		CacheStats stats = this.stats;
+		if (stats != null) stats.recordCompression(serialized.length, bytes.size());
+		return bytes.toByteBuffer();
+	}
+
+	/**
+	 * decompresses and deserializes a chunk written by {@link #compress(Located2D)} with any registered codec, chunks written
+	 * before codec ids were stored are read as gzip
+	 */
+	protected C decompress(int x, int y, ByteBuffer data) throws IOException {
+		int id = data.get(data.position()) & 0xff;
+		if (id != Codecs.LEGACY_GZIP) data.get();
+		if (deserializer instanceof BufferDeserializer) {
+			// uncompressed chunks are read straight from the storage buffer
+			if (id == Codecs.NONE.id()) return deserialize(data, x, y);
+			try (InputStream in = Codecs.get(id).decompress(new ByteBufferInputStream(data))) {
+				return deserialize(ThreadBuffers.readFully(in), x, y);
+			}
+		}
+		try (InputStream in = Codecs.get(id).decompress(new ByteBufferInputStream(data))) {
+			return deserialize(in, x, y);
+		}
+	}
+
+	// deserializes with the raw coordinates if the deserializer supports them
+	@SuppressWarnings("unchecked")
+	private C deserialize(InputStream in, int x, int y) throws IOException {
+		if (deserializer instanceof Deserializer2D) return ((Deserializer2D<C, ?>) deserializer).deserialize(in, x, y);
+		return deserializer.deserialize(in, new Point(x, y));
+	}
+
+	@SuppressWarnings("unchecked")
+	private C deserialize(ByteBuffer buffer, int x, int y) throws IOException {
+		if (deserializer instanceof BufferDeserializer2D) return ((BufferDeserializer2D<C>) deserializer).read(buffer, x, y);
+		return ((BufferDeserializer<C, Point>) deserializer).read(buffer, new Point(x, y));
+	}
+
 	protected C getFromUnloadedNoPriority(int x, int y) throws IOException {
 		long key = key(x, y);
 		C c = unloadedCache.get(key);
 		if (c == null) {
-			c = read(x, y);
-			unloadedCache.put(key, c);
+			if ((c = awaitLoad(key)) == null) c = read(x, y);
+			unloadedCache.putAndMoveToFirst(key, c);
+			unloadedWeight += weigh(key, c);
+			index.add(x, y);
 			trimUnloadedCacheOnce();
 		}
 		return c;
@@ -231,61 +1460,387 @@ public class PrioritisedFile2DChunkCache<C extends Located2D> implements Priorit
 	}
 
 	protected void addToUnloaded(long key, C chunk) throws IOException {
-		unloadedCache.put(key, chunk);
+		// the unloaded cache is ordered most recent first so the oldest chunk is the one that is evicted
+		unloadedCache.putAndMoveToFirst(key, chunk);
+		unloadedWeight += weigh(key, chunk);
+		index.add(Located2D.keyX(key), Located2D.keyY(key));
 		trimUnloadedCacheOnce();
 	}
 
 
 	protected void update() {
-		promoteLoaded(trimFrequentOnce());
+		if (maintenanceCap > 0) {
+			// the access is recorded, the rest is left to maintain unless the frequent tier is at its hard cap
+			accessCounter++;
+			pendingUpdate = true;
+			while (frequentWeight > frequentSize * (double) maintenanceCap && updateOnce()) ;
+			return;
+		}
+		if (policy != null) {
+			while (frequentWeight > frequentSize && frequentVictimFirst())
+				demote(frequentCache.firstLongKey());
+			return;
+		}
+		promoteLoaded(trimFrequent());
+		// the promoted chunks compete with the rest of the tier for the room they took
+		demoteUntilWithin(false);
 		if (accessCounter++ > frequentSize * 2)
 			accessCounter = 0;
 	}
 
+	// one step of update, demotes at most one chunk, false if nothing could be demoted
+	protected boolean updateOnce() {
+		if (policy == null) {
+			int lowest = trimFrequentOnce();
+			promoteLoaded(lowest);
+			return lowest != -1 && lowest != Integer.MAX_VALUE;
+		}
+		if (frequentWeight <= frequentSize || !frequentVictimFirst()) return false;
+		demote(frequentCache.firstLongKey());
+		return true;
+	}
+
+	// moves the chunks that tickets keep in the frequent tier from its head to its tail, false if tickets keep all of them
+	protected boolean frequentVictimFirst() {
+		for (int i = frequentCache.size(); i > 0; i--) {
+			long key = frequentCache.firstLongKey();
+			if (!isHeld(key, Priority.FREQUENT)) return true;
+			frequentCache.getAndMoveToLast(key);
+		}
+		return false;
+	}
+
+	// one slice of the work left to maintain, false if there is nothing to do
+	protected boolean maintainOnce() throws IOException {
+		if (policy == null && accessCounter > frequentSize * 2) {
+			accessCounter = 0;
+			aging = frequentCache.size();
+		}
+		if (policy == null) {
+			// the scanning update is split into slices that look at a bounded number of chunks
+			if (promoting > 0) {
+				promoteSlice();
+				return true;
+			}
+			if (scanning > 0) {
+				scanSlice();
+				return true;
+			}
+			if (pendingUpdate || frequentWeight > frequentSize && !frequentCache.isEmpty() && !frequentPinned) {
+				pendingUpdate = false;
+				frequentPinned = false;
+				if (frequentWeight > frequentSize) {
+					scanning = frequentCache.size();
+					scanLowestVal = Integer.MAX_VALUE;
+				} else startPromoting(-1);
+				return true;
+			}
+		} else if (pendingUpdate || frequentWeight > frequentSize && !frequentCache.isEmpty()) {
+			boolean pending = pendingUpdate;
+			pendingUpdate = false;
+			// a tier that only holds ticketed chunks can not be trimmed
+			if (updateOnce() || pending) return true;
+		}
+		if (aging > 0 && !frequentCache.isEmpty()) {
+			// the scanning update does not care about the order of the frequent tier, so it is used as the aging cursor
+			aging--;
+			frequentCache.getAndMoveToLast(frequentCache.firstLongKey()).reset();
+			return true;
+		}
+		return unloadedWeight > inMemorySize && evictUnloaded();
+	}
+
+	// looks for the least accessed frequent chunk no ticket holds, demotes it once every chunk was looked at
+	protected void scanSlice() {
+		for (int i = 0; i < MAINTENANCE_SLICE && scanning > 0 && !frequentCache.isEmpty(); i++, scanning--) {
+			// the scanning update does not care about the order of the frequent tier, so rotating it is the cursor
+			long key = frequentCache.firstLongKey();
+			int accesses = frequentCache.getAndMoveToLast(key).getAccesses();
+			if (accesses < scanLowestVal && !isHeld(key, Priority.FREQUENT)) {
+				scanLowest = key;
+				scanLowestVal = accesses;
+			}
+		}
+		if (scanning > 0 && !frequentCache.isEmpty()) return;
+		scanning = 0;
+		if (frequentWeight <= frequentSize) startPromoting(-1);
+		// the chunk may have left the tier since it was looked at
+		else if (scanLowestVal == Integer.MAX_VALUE) frequentPinned = true;
+		else if (frequentCache.containsKey(scanLowest)) {
+			demote(scanLowest);
+			startPromoting(scanLowestVal);
+		}
+	}
+
+	protected void startPromoting(int above) {
+		promoteAbove = above;
+		promoting = loaded.size();
+	}
+
+	// promotes the loaded chunks of the slice that were accessed more than promoteAbove
+	protected void promoteSlice() {
+		for (int i = 0; i < MAINTENANCE_SLICE && promoting > 0 && !loaded.isEmpty(); i++, promoting--) {
+			long key = loaded.firstLongKey();
+			Tracker<C> tracker = loaded.getAndMoveToLast(key);
+			if (tracker.getAccesses() > promoteAbove) {
+				int weight = weights.get(key);
+				frequentCache.put(key, loaded.remove(key));
+				loadedWeight -= weight;
+				frequentWeight += weight;
+				if (stats != null) stats.recordPromotion();
+			}
+		}
+		if (loaded.isEmpty()) promoting = 0;
+	}
+
+	// asks the policy if a chunk accessed in the loaded tier should replace the least recently used frequent chunk
+	protected void promote(long key, Tracker<C> tracker) {
+		policy.recordAccess(key);
+		int weight = weights.get(key);
+		while (frequentWeight + weight > frequentSize && frequentVictimFirst()) {
+			long victim = frequentCache.firstLongKey();
+			if (!policy.admit(key, victim)) return;
+			demote(victim);
+		}
+		loaded.remove(key);
+		frequentCache.putAndMoveToLast(key, tracker);
+		loadedWeight -= weight;
+		frequentWeight += weight;
+		if (stats != null) stats.recordPromotion();
+	}
+
+	// moves a chunk from the frequent tier to the loaded tier
+	protected void demote(long key) {
+		int weight = weights.get(key);
+		loaded.put(key, frequentCache.remove(key));
+		frequentWeight -= weight;
+		loadedWeight += weight;
+		if (stats != null) stats.recordDemotion();
+	}
+
 	protected void promoteLoaded(int prev) {
 		ObjectIterator<Long2ObjectMap.Entry<Tracker<C>>> iterator = Long2ObjectMaps.fastIterator(loaded);
 		Long2ObjectMap.Entry<Tracker<C>> curr;
 		while (iterator.hasNext())
 			if((curr = iterator.next()).getValue().getAccesses() > prev) {
+				int weight = weights.get(curr.getLongKey());
 				frequentCache.put(curr.getLongKey(), curr.getValue());
 				iterator.remove();
+				loadedWeight -= weight;
+				frequentWeight += weight;
+				if (stats != null) stats.recordPromotion();
 			}
 	}
 
-	protected int trimFrequentOnce() {
+	/**
+	 * demotes the least accessed chunks until the frequent tier is within its limit, heavy chunks can need more than one
+	 * @return the highest access count of a demoted chunk, -1 if the tier was within its limit and {@link Integer#MAX_VALUE}
+	 * if tickets keep every chunk in it
+	 */
+	protected int trimFrequent() {
 		accessCounter++;
-		while (frequentCache.size() > frequentSize) {
-			ObjectIterator<Long2ObjectMap.Entry<Tracker<C>>> iterator = Long2ObjectMaps.fastIterator(frequentCache);
-			Long2ObjectMap.Entry<Tracker<C>> curr;
-			Long2ObjectMap.Entry<Tracker<C>> lowest = null;
-			int lowestVal = Integer.MAX_VALUE;
+		return demoteUntilWithin(accessCounter > frequentSize * 2);
+	}
+
+	// demotes the least accessed chunks no ticket holds, resets every count if age is set
+	protected int demoteUntilWithin(boolean age) {
+		if (frequentWeight <= frequentSize) return -1;
+		// the tier is usually over by a single chunk, so the least accessed one is found in one scan without ordering the rest
+		long lowest = 0;
+		int lowestVal = Integer.MAX_VALUE;
+		for (Long2ObjectMap.Entry<Tracker<C>> entry : Long2ObjectMaps.fastIterable(frequentCache))
+			if (entry.getValue().getAccesses() < lowestVal && !isHeld(entry.getLongKey(), Priority.FREQUENT)) {
+				lowest = entry.getLongKey();
+				lowestVal = entry.getValue().getAccesses();
+			}
+
+		int highest = lowestVal;
+		if (lowestVal != Integer.MAX_VALUE) {
+			if (age) frequentCache.get(lowest).reset();
+			demote(lowest);
+			// heavy chunks can need more than one demotion
+			if (frequentWeight > frequentSize) highest = Math.max(highest, demoteLeastAccessed(age));
+		}
+		if (age)
+			for (Tracker<C> tracker : frequentCache.values())
+				tracker.reset();
+		return highest;
+	}
 
-			while (iterator.hasNext()) {
-				if ((curr = iterator.next()).getValue().getAccesses() < lowestVal) lowest = curr;
-				if (accessCounter > frequentSize * 2)
-					curr.getValue().reset();
+	// demotes the least accessed chunks until the tier is within its limit, only the demoted chunks are taken from a heap
+	// instead of sorting the whole tier, -1 if tickets hold every chunk
+	private int demoteLeastAccessed(boolean age) {
+		if (demoteKeys.length < frequentCache.size()) {
+			demoteKeys = new long[frequentCache.size()];
+			demoteOrder = new long[frequentCache.size()];
+		}
+		long[] keys = demoteKeys, order = demoteOrder;
+		int count = 0;
+		for (Long2ObjectMap.Entry<Tracker<C>> entry : Long2ObjectMaps.fastIterable(frequentCache))
+			if (!isHeld(entry.getLongKey(), Priority.FREQUENT)) {
+				keys[count] = entry.getLongKey();
+				// the access count in the high bits and the index of the key in the low bits, so the heap orders by count
+				order[count] = (long) entry.getValue().getAccesses() << 32 | count;
+				count++;
 			}
+		LongHeaps.makeHeap(order, count, null);
 
-			assert lowest != null : "Unable to trim frequent list!";
+		int highest = -1;
+		while (count > 0 && frequentWeight > frequentSize) {
+			long next = order[0];
+			order[0] = order[--count];
+			if (count > 0) LongHeaps.downHeap(order, count, 0, null);
+			long key = keys[(int) next];
+			if (age) frequentCache.get(key).reset();
+			demote(key);
+			highest = (int) (next >>> 32);
+		}
+		return highest;
+	}
+
+	// demotes at most one chunk, for maintenance slices
+	protected int trimFrequentOnce() {
+		accessCounter++;
+		return demoteLowest(accessCounter > frequentSize * 2);
+	}
 
-			long key = lowest.getLongKey();
-			loaded.put(key, lowest.getValue());
-			frequentCache.remove(key);
-			return lowestVal;
+	// demotes the least accessed chunk no ticket holds if the frequent tier is over its limit, resets every count if age is set
+	protected int demoteLowest(boolean age) {
+		if (frequentWeight <= frequentSize) return -1;
+		ObjectIterator<Long2ObjectMap.Entry<Tracker<C>>> iterator = Long2ObjectMaps.fastIterator(frequentCache);
+		Long2ObjectMap.Entry<Tracker<C>> curr;
+		// the fast iterator reuses its entry, so the key of the lowest entry is kept instead
+		long lowest = 0;
+		int lowestVal = Integer.MAX_VALUE;
+
+		while (iterator.hasNext()) {
+			if ((curr = iterator.next()).getValue().getAccesses() < lowestVal && !isHeld(curr.getLongKey(), Priority.FREQUENT)) {
+				lowest = curr.getLongKey();
+				lowestVal = curr.getValue().getAccesses();
+			}
+			if (age)
+				curr.getValue().reset();
 		}
-		return -1;
+
+		// tickets keep every chunk in the tier, nothing should be promoted in exchange
+		if (lowestVal == Integer.MAX_VALUE) return lowestVal;
+
+		demote(lowest);
+		return lowestVal;
 	}
 
 
+	// evicts the oldest chunks until the unloaded cache is within its limit, or its hard cap in maintenance mode, with chunk
+	// counts this evicts at most once
 	protected void trimUnloadedCacheOnce() throws IOException {
-		if (unloadedCache.size() > inMemorySize) {
-			C c = unloadedCache.removeLast();
-			save(c.getX(), c.getY(), true);
+		double limit = maintenanceCap > 0 ? inMemorySize * (double) maintenanceCap : inMemorySize;
+		while (unloadedWeight > limit && evictUnloaded()) ;
+	}
+
+	// evicts the oldest chunk of the unloaded cache that no ticket holds, false if tickets hold all of them
+	protected boolean evictUnloaded() throws IOException {
+		long key = 0;
+		boolean found = false;
+		for (int i = unloadedCache.size(); i > 0 && !found; i--) {
+			key = unloadedCache.lastLongKey();
+			// held chunks are moved out of the way so the next eviction does not pass them again
+			if (isHeld(key, Priority.UNLOADED_CACHED)) unloadedCache.getAndMoveToFirst(key);
+			else found = true;
+		}
+		if (!found) return false;
+		// the chunk is written before it is removed, if the write fails it stays cached and is the next one evicted
+		C c = unloadedCache.get(key);
+		if (compressedTier == null || !compressInto(c.getX(), c.getY(), c)) saveIfDirty(c.getX(), c.getY(), c, true);
+		unloadedCache.remove(key);
+		unloadedWeight -= weights.remove(key);
+		index.remove(c.getX(), c.getY());
+		if (stats != null) stats.recordEviction();
+		if (listener != null) listener.onEvict(c.getX(), c.getY(), c);
+		return true;
+	}
+
+	// an asynchronous load of the chunk with the given key
+	protected static class Load<C> extends CompletableFuture<C> {
+		protected final long key;
+		// true if the chunk was generated instead of read, set before the future completes
+		protected volatile boolean generated;
+
+		protected Load(long key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * a square of chunks that is kept loaded, see {@link #addTicket(int, int, int, Priority)}
+	 */
+	public static class Ticket {
+		protected int x;
+		protected int y;
+		protected final int radius;
+		protected final Priority level;
+		protected boolean removed;
+
+		protected Ticket(int x, int y, int radius, Priority level) {
+			if (level.compareTo(Priority.UNLOADED_CACHED) > 0) throw new IllegalArgumentException("a ticket can only keep chunks in memory, not " + level);
+			if (radius < 0) throw new IllegalArgumentException("negative radius " + radius);
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+			this.level = level;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		public int getRadius() {
+			return radius;
+		}
+
+		public Priority getLevel() {
+			return level;
+		}
+
+		// the keys of every chunk the ticket covers
+		protected LongList square() {
+			LongList keys = new LongArrayList((radius * 2 + 1) * (radius * 2 + 1));
+			for (int cx = x - radius; cx <= x + radius; cx++)
+				for (int cy = y - radius; cy <= y + radius; cy++)
+					keys.add(Located2D.key(cx, cy));
+			return keys;
+		}
+
+		// the keys of the chunks the ticket covers once it is moved to the center but does not cover now
+		protected LongList entering(int centerX, int centerY) {
+			if (removed) throw new IllegalStateException("the ticket was removed");
+			LongList keys = new LongArrayList();
+			for (int cx = centerX - radius; cx <= centerX + radius; cx++)
+				for (int cy = centerY - radius; cy <= centerY + radius; cy++)
+					if (Math.abs(cx - x) > radius || Math.abs(cy - y) > radius) keys.add(Located2D.key(cx, cy));
+			return keys;
+		}
+
+		// the keys of the chunks the ticket covers now but not once it is moved to the center
+		protected LongList leaving(int centerX, int centerY) {
+			LongList keys = new LongArrayList();
+			for (int cx = x - radius; cx <= x + radius; cx++)
+				for (int cy = y - radius; cy <= y + radius; cy++)
+					if (Math.abs(cx - centerX) > radius || Math.abs(cy - centerY) > radius) keys.add(Located2D.key(cx, cy));
+			return keys;
 		}
 	}
 
 	public enum Priority {
-		FREQUENT, LOADED, UNLOADED_CACHED, UNLOADED
+		FREQUENT, LOADED, UNLOADED_CACHED,
+		/**
+		 * compressed in off heap memory, only used when {@link #enableCompressedTier(long)} was called
+		 */
+		UNLOADED_COMPRESSED,
+		UNLOADED
 	}
 
 	@Override
@@ -1,74 +1,400 @@
 package net.devtech.chunk2d;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectFunction;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.devtech.data.Codec;
+import net.devtech.data.Codecs;
 import net.devtech.data.Deserializer;
+import net.devtech.data.RegionCompactor;
+import net.devtech.data.RegionFile;
+import net.devtech.data.RegionFileCache;
 import net.devtech.data.Serializer;
+import net.devtech.data.StorageBackend;
+import net.devtech.data.StorageStats;
+import net.devtech.util.ExistenceIndex;
 import net.devtech.util.Region2D;
 import java.awt.Point;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-// region based version of its parent class
+// region based version of its parent class, every region is stored in a single indexed region file
 public class PrioritisedRegionFile2DChunkCache<C extends Located2D> extends PrioritisedFile2DChunkCache<C> {
+	/**
+	 * the number of region files that are kept open unless {@link #setOpenFileLimit(int)} is called
+	 */
+	public static final int DEFAULT_OPEN_FILES = 64;
 	private final int regionSize;
-	private Long2ObjectMap<Region2D<C>> regions = new Long2ObjectOpenHashMap<>();
+	// striped region file locks
+	private final Object[] locks = new Object[64];
+	{
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+	// bumped under the region lock every time a region of the lock's stripe is written
+	private final int[] versions = new int[locks.length];
+	// region key to region file provider
+	protected final Long2ObjectFunction<File> getRegionFile;
+	// region files that are kept open between reads and writes
+	protected volatile RegionFileCache files;
+	// regions left in the current incremental compaction pass, guarded by compactionLock
+	private final LongArrayList compactionQueue = new LongArrayList();
+	private final Object compactionLock = new Object();
+	// the background compaction thread sleeps on this, null if background compaction is off
+	private Thread compactionThread;
+	private final Object compactionSleeper = new Object();
+	private volatile boolean compactionStopped;
+	// the first failure of the background compaction, guarded by compactionSleeper
+	private IOException compactionFailure;
 
-	public PrioritisedRegionFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, int regionSize) {
-		super(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize);
+	public PrioritisedRegionFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentWeight, int inMemoryWeight, Weigher<? super C> weigher, int regionSize, StorageBackend backend, Codec codec) {
+		super(folder, chunkSupplier, deserializer, serializer, frequentWeight, inMemoryWeight, weigher, backend, codec);
 		this.regionSize = regionSize;
+		this.getRegionFile = l -> new File(folder, l + RegionCompactor.SUFFIX);
+		// the index regions are the region files, so a region's bitmap is read from its header
+		this.existence = new ExistenceIndex(regionSize, this::loadStored);
+		this.files = new RegionFileCache(DEFAULT_OPEN_FILES, getRegionFile, regionSize * regionSize, backend);
+	}
+
+	public PrioritisedRegionFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, int regionSize, StorageBackend backend, Codec codec) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize, Weigher.singleton(), regionSize, backend, codec);
+	}
+
+	public PrioritisedRegionFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, int regionSize, StorageBackend backend) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize, regionSize, backend, Codecs.GZIP);
+	}
+
+	public PrioritisedRegionFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int frequentSize, int inMemorySize, int regionSize) {
+		this(folder, chunkSupplier, deserializer, serializer, frequentSize, inMemorySize, regionSize, StorageBackend.STREAM);
 	}
 
 	public PrioritisedRegionFile2DChunkCache(File folder, ChunkFunction2D<C> chunkSupplier, Deserializer<C, ?, Point> deserializer, Serializer<C, ?> serializer, int regionSize) {
 		super(folder, chunkSupplier, deserializer, serializer);
 		this.regionSize = regionSize;
+		this.getRegionFile = l -> new File(folder, l + RegionCompactor.SUFFIX);
+		// the index regions are the region files, so a region's bitmap is read from its header
+		this.existence = new ExistenceIndex(regionSize, this::loadStored);
+		this.files = new RegionFileCache(DEFAULT_OPEN_FILES, getRegionFile, regionSize * regionSize, backend);
+	}
+
+	@Override
+	protected ByteBuffer load(int x, int y) throws IOException {
+		long region = fileKey(x, y);
+		synchronized (lock(region)) {
+			try (RegionFileCache.Handle handle = files.acquire(region, false)) {
+				return handle == null ? null : handle.file().read(slot(x, y));
+			}
+		}
+	}
+
+	@Override
+	protected void loadStored(long region, long[] bits) throws IOException {
+		synchronized (lock(region)) {
+			try (RegionFileCache.Handle handle = files.acquire(region, false)) {
+				if (handle == null) return;
+				RegionFile regionFile = handle.file();
+				for (int slot = 0; slot < regionFile.slots(); slot++)
+					if (regionFile.has(slot)) bits[slot >>> 6] |= 1L << slot;
+			}
+		}
+	}
+
+	// reads every chunk in the batch with one acquire of the region file
+	@Override
+	protected Long2ObjectMap<ByteBuffer> loadBatch(long fileKey, LongList keys) throws IOException {
+		Long2ObjectMap<ByteBuffer> data = new Long2ObjectOpenHashMap<>(keys.size());
+		synchronized (lock(fileKey)) {
+			try (RegionFileCache.Handle handle = files.acquire(fileKey, false)) {
+				if (handle == null) return data;
+				RegionFile regionFile = handle.file();
+				for (int i = 0; i < keys.size(); i++) {
+					long key = keys.getLong(i);
+					ByteBuffer buffer = regionFile.read(slot(Located2D.keyX(key), Located2D.keyY(key)));
+					if (buffer != null) data.put(key, buffer);
+				}
+			}
+		}
+		return data;
+	}
+
+	@Override
+	protected void write(int x, int y, ByteBuffer data) throws IOException {
+		long region = fileKey(x, y);
+		synchronized (lock(region)) {
+			modified(region);
+			try (RegionFileCache.Handle handle = files.acquire(region, true)) {
+				handle.file().write(slot(x, y), data);
+			}
+		}
 	}
 
 	@Override
-	protected void serialize(int x, int y, C c, boolean force) {
-		Point point = Region2D.region(x, y, regionSize);
-		Region2D<C> region2D = getRegion(key(point.x, point.y));
-		Point offset = Region2D.offset(x, y, regionSize);
-		region2D.put(offset.x, offset.y, c);
-		if(force || region2D.filled()) {
-			File file = getFile.apply(key(point.x, point.y));
-			region2D.forEach((ox, oy) -> {
-				try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file, true))) {
-					serializer.serialize(c, out);
-					out.flush();
-				} catch (Throwable t) {
-					throw new RuntimeException(t);
+	protected void writeBatch(long fileKey, Long2ObjectMap<byte[]> snapshots) throws IOException {
+		synchronized (lock(fileKey)) {
+			modified(fileKey);
+			try (RegionFileCache.Handle handle = files.acquire(fileKey, true)) {
+				RegionFile regionFile = handle.file();
+				for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(snapshots)) {
+					long key = entry.getLongKey();
+					regionFile.write(slot(Located2D.keyX(key), Located2D.keyY(key)), compress(entry.getValue()));
 				}
-			});
-			regions.remove(key(point.x, point.y));
+			}
 		}
 	}
 
 	@Override
-	protected C read(int x, int y) {
-		Point point = Region2D.region(x, y, regionSize);
-		Region2D<C> region2D = getRegion(key(point.x, point.y));
-		if(region2D.empty()) {
-			File file = getFile.apply(key(point.x, point.y));
-			region2D.populate((ox, oy) -> {
-				if (file.exists()) try (FileInputStream input = new FileInputStream(file)) {
-					return deserializer.deserialize(new GZIPInputStream(input), new Point(x+ox, y+oy));
+	protected boolean writeCompressedBatch(long fileKey, Long2ObjectMap<byte[]> chunks, boolean sync) throws IOException {
+		synchronized (lock(fileKey)) {
+			modified(fileKey);
+			boolean created = sync && !getRegionFile.apply(fileKey).exists();
+			try (RegionFileCache.Handle handle = files.acquire(fileKey, true)) {
+				RegionFile regionFile = handle.file();
+				for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(chunks)) {
+					long key = entry.getLongKey();
+					regionFile.write(slot(Located2D.keyX(key), Located2D.keyY(key)), ByteBuffer.wrap(entry.getValue()));
+				}
+				if (sync) regionFile.sync();
+			}
+			return created;
+		}
+	}
+
+	/**
+	 * @return the key of every region that has a file in the folder
+	 */
+	public LongList regions() {
+		LongList regions = new LongArrayList();
+		String[] names = folder.list();
+		if (names != null)
+			for (String name : names)
+				if (name.endsWith(RegionCompactor.SUFFIX)) try {
+					regions.add(Long.parseLong(name.substring(0, name.length() - RegionCompactor.SUFFIX.length())));
+				} catch (NumberFormatException ignored) {}
+		return regions;
+	}
+
+	/**
+	 * @return how much of the region's file is live and how much a compaction would give back, or null if the region has no file
+	 */
+	public StorageStats getStorageStats(long region) throws IOException {
+		synchronized (lock(region)) {
+			try (RegionFileCache.Handle handle = files.acquire(region, false)) {
+				return handle == null ? null : handle.file().stats();
+			}
+		}
+	}
+
+	/**
+	 * rewrites the region's file so it only holds the live chunks. The chunks are copied without holding the region's lock,
+	 * so loads of the region are never blocked by the copy, the lock is only held to move the copy over the file. A copy
+	 * that raced with a write to the region is thrown away.
+	 * @return false if the region was written while it was copied and is still uncompacted
+	 */
+	public boolean compact(long region) throws IOException {
+		File file = getRegionFile.apply(region);
+		int version;
+		synchronized (lock(region)) {
+			if (!file.exists()) return true;
+			version = versions[stripe(region)];
+		}
+		// a write that starts after the version was read is seen when the copy is moved
+		File copy;
+		try {
+			copy = RegionCompactor.rewrite(file, regionSize * regionSize, backend);
+		} catch (IOException e) {
+			// the file may have changed under the copy
+			synchronized (lock(region)) {
+				if (versions[stripe(region)] != version) return false;
+			}
+			throw e;
+		}
+		synchronized (lock(region)) {
+			if (versions[stripe(region)] == version) {
+				files.invalidate(region);
+				RegionCompactor.replace(copy, file);
+				return true;
+			}
+		}
+		copy.delete();
+		return false;
+	}
+
+	/**
+	 * continues the incremental compaction, regions whose dead ratio is at least minDeadRatio are compacted until the chunks
+	 * that were copied add up to the budget, the first region of a call is compacted even if it is larger than the budget.
+	 * A pass goes over every region file once, the next call continues where the last one stopped. The folder must not be
+	 * written by another cache while this runs
+	 * @param minDeadRatio the part of a file that has to be dead before it is compacted
+	 * @param budget the bytes of live chunks that may be copied
+	 * @return the bytes that were given back
+	 */
+	public long compact(double minDeadRatio, long budget) throws IOException {
+		synchronized (compactionLock) {
+			if (compactionQueue.isEmpty()) compactionQueue.addAll(regions());
+			long reclaimed = 0;
+			boolean first = true;
+			while (!compactionQueue.isEmpty() && (first || budget > 0)) {
+				long region = compactionQueue.removeLong(compactionQueue.size() - 1);
+				StorageStats stats = getStorageStats(region);
+				if (stats == null || stats.getDeadBytes() == 0 || stats.getDeadRatio() < minDeadRatio) continue;
+				first = false;
+				budget -= stats.getLiveBytes();
+				if (compact(region)) reclaimed += stats.getDeadBytes();
+			}
+			return reclaimed;
+		}
+	}
+
+	/**
+	 * starts a background thread that calls {@link #compact(double, long)} every interval
+	 * @param interval milliseconds between compactions
+	 * @param minDeadRatio the part of a file that has to be dead before it is compacted
+	 * @param budget the bytes of live chunks that may be copied every interval
+	 */
+	public void enableCompaction(long interval, double minDeadRatio, long budget) {
+		if (compactionThread != null) throw new IllegalStateException("compaction is already enabled");
+		compactionStopped = false;
+		compactionThread = new Thread(() -> {
+			while (true) {
+				synchronized (compactionSleeper) {
+					if (!compactionStopped) try {
+						compactionSleeper.wait(interval);
+					} catch (InterruptedException ignored) {}
+					if (compactionStopped) return;
+				}
+				try {
+					compact(minDeadRatio, budget);
 				} catch (IOException e) {
-					throw new RuntimeException(e);
+					synchronized (compactionSleeper) {
+						if (compactionFailure == null) compactionFailure = e;
+						else compactionFailure.addSuppressed(e);
+					}
 				}
-				return chunkSupplier.newChunk(x, y);
-			});
+			}
+		}, "ChunkCache compaction");
+		compactionThread.setDaemon(true);
+		compactionThread.start();
+	}
+
+	/**
+	 * stops the background compaction and waits for a running compaction to finish
+	 * @throws IOException the failures of the background compaction
+	 */
+	public void disableCompaction() throws IOException {
+		Thread thread = compactionThread;
+		if (thread == null) return;
+		synchronized (compactionSleeper) {
+			compactionStopped = true;
+			compactionSleeper.notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		compactionThread = null;
+		IOException failure;
+		synchronized (compactionSleeper) {
+			failure = compactionFailure;
+			compactionFailure = null;
+		}
+		if (failure != null) throw failure;
+	}
+
+	/**
+	 * sets the number of region files that are kept open, the files that are open now are closed
+	 */
+	public void setOpenFileLimit(int limit) throws IOException {
+		RegionFileCache old = files;
+		files = new RegionFileCache(limit, getRegionFile, regionSize * regionSize, backend);
+		old.close();
+	}
+
+	/**
+	 * @return the number of region files that are open
+	 */
+	public int getOpenFiles() {
+		return files.size();
+	}
+
+	// the files of unloaded regions are not kept open
+	@Override
+	public void saveAll(boolean remove) throws IOException {
+		super.saveAll(remove);
+		if (remove) files.clear();
+	}
+
+	@Override
+	public SaveSummary saveAll(boolean remove, ForkJoinPool pool) throws IOException {
+		SaveSummary summary = super.saveAll(remove, pool);
+		if (remove) files.clear();
+		return summary;
+	}
+
+	@Override
+	protected List<String> storageFiles() {
+		List<String> files = new ArrayList<>();
+		String[] names = folder.list();
+		if (names != null)
+			for (String name : names)
+				if (name.endsWith(RegionCompactor.SUFFIX)) files.add(name);
+		return files;
+	}
+
+	// a write that started before the snapshot could still be changing a file the snapshot's thread is copying
+	@Override
+	protected void activate(Snapshot snapshot) {
+		super.activate(snapshot);
+		for (Object lock : locks)
+			synchronized (lock) {
+				// waits for the writes that did not see the snapshot
+			}
+	}
+
+	@Override
+	protected void writeSnapshot(File target, long fileKey, Long2ObjectMap<byte[]> chunks) throws IOException {
+		try (RegionFile regionFile = new RegionFile(new File(target, getRegionFile.apply(fileKey).getName()), regionSize * regionSize, backend)) {
+			for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(chunks)) {
+				long key = entry.getLongKey();
+				regionFile.write(slot(Located2D.keyX(key), Located2D.keyY(key)), ByteBuffer.wrap(entry.getValue()));
+			}
+			regionFile.sync();
 		}
-		Point point1 = Region2D.offset(x, y, regionSize);
-		return region2D.remove(point1.x, point1.y);
 	}
 
-	private Region2D<C> getRegion(long key) {
-		return regions.computeIfAbsent(key, l -> new Region2D<>(regionSize));
+	@Override
+	protected long fileKey(int x, int y) {
+		return Region2D.regionKey(x, y, regionSize);
 	}
 
+	// a region file may be read by the caller while the write-behind thread writes to it
+	private Object lock(long region) {
+		return locks[stripe(region)];
+	}
+
+	private int stripe(long region) {
+		return (int) HashCommon.mix(region) & (locks.length - 1);
+	}
+
+	// called under the region's lock before the region's file is written
+	private void modified(long region) {
+		versions[stripe(region)]++;
+		Snapshot snapshot = this.snapshot;
+		if (snapshot != null) snapshot.preserve(getRegionFile.apply(region));
+	}
+
+	/**
+	 * the index of the chunk's slot in its region file
+	 */
+	protected int slot(int x, int y) {
+		return Region2D.offsetX(x, regionSize) * regionSize + Region2D.offsetY(y, regionSize);
+	}
 }
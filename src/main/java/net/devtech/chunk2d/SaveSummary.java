@@ -0,0 +1,65 @@
+package net.devtech.chunk2d;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.io.IOException;
+
+/**
+ * the result of a parallel save, see {@link PrioritisedFile2DChunkCache#saveAll(boolean, java.util.concurrent.ForkJoinPool)}
+ */
+public class SaveSummary {
+	// chunks that were written
+	protected long chunks;
+	// compressed bytes that were written
+	protected long bytes;
+	protected long elapsedNanos;
+	// file key to the failure that stopped the file from being written, the chunks of these files are still dirty
+	protected final Long2ObjectMap<Throwable> failures = new Long2ObjectOpenHashMap<>();
+
+	public long getChunks() {
+		return chunks;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return file key to failure for every file that could not be written
+	 */
+	public Long2ObjectMap<Throwable> getFailures() {
+		return Long2ObjectMaps.unmodifiable(failures);
+	}
+
+	/**
+	 * @throws IOException with every failure attached if any file could not be written
+	 */
+	public void rethrow() throws IOException {
+		if (failures.isEmpty()) return;
+		IOException exception = new IOException(failures.size() + " files could not be saved");
+		for (Throwable failure : failures.values())
+			exception.addSuppressed(failure);
+		throw exception;
+	}
+
+	/**
+	 * adds the counts and failures of another summary to this one, the elapsed times are added too
+	 */
+	public SaveSummary merge(SaveSummary other) {
+		chunks += other.chunks;
+		bytes += other.bytes;
+		elapsedNanos += other.elapsedNanos;
+		failures.putAll(other.failures);
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "SaveSummary{" + "chunks=" + chunks + ", bytes=" + bytes + ", elapsedMillis=" + elapsedNanos / 1_000_000 + ", failures=" + failures.size() + '}';
+	}
+}
@@ -0,0 +1,208 @@
+package net.devtech.chunk2d;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * a point in time copy of a cache's storage that is written to a folder or zip archive in the background, see
+ * {@link PrioritisedFile2DChunkCache#snapshot(File, boolean)}. The chunks whose newest state was only in memory are captured
+ * when the snapshot is taken, the storage files are copied by the snapshot's thread. A file that the cache is about to
+ * change before it was copied is copied first by the thread that changes it, so the copy always holds the file as it was
+ * when the snapshot was taken
+ */
+public class Snapshot {
+	// the cache that knows how chunks are stored
+	private final PrioritisedFile2DChunkCache<?> format;
+	private final File folder;
+	private final File target;
+	private final boolean archive;
+	// the folder the files are copied into, the target or a temporary folder next to the archive
+	private final File copy;
+	// names of the storage files that have not been copied yet
+	private final Set<String> remaining = ConcurrentHashMap.newKeySet();
+	// striped file name locks, a file is copied under its lock
+	private final Object[] locks = new Object[64];
+	{
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+	// chunk key to compressed bytes and to serialized bytes of every captured chunk, a chunk is in at most one of them
+	private final Long2ObjectMap<byte[]> compressed = new Long2ObjectOpenHashMap<>(), serialized = new Long2ObjectOpenHashMap<>();
+	private final AtomicInteger files = new AtomicInteger(), preserved = new AtomicInteger();
+	private final CompletableFuture<Snapshot> future = new CompletableFuture<>();
+	// the first failure to copy a file, guarded by remaining
+	private IOException failure;
+
+	/**
+	 * @param format writes the captured chunks into the copied files
+	 * @param folder the folder the storage files are in
+	 * @param target the folder the files are copied to, or the zip file if archive is true
+	 */
+	protected Snapshot(PrioritisedFile2DChunkCache<?> format, File folder, File target, boolean archive) {
+		this.format = format;
+		this.folder = folder;
+		this.target = target;
+		this.archive = archive;
+		this.copy = archive ? new File(target.getPath() + ".tmp") : target;
+	}
+
+	/**
+	 * @return completes with the snapshot once it is fully written
+	 */
+	public CompletableFuture<Snapshot> getFuture() {
+		return future;
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	public File getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the number of chunks that were captured from memory
+	 */
+	public int getChunks() {
+		return compressed.size() + serialized.size();
+	}
+
+	/**
+	 * @return the number of storage files that were copied so far
+	 */
+	public int getFiles() {
+		return files.get();
+	}
+
+	/**
+	 * @return the number of storage files that were copied early because the cache was about to change them
+	 */
+	public int getPreservedFiles() {
+		return preserved.get();
+	}
+
+	/**
+	 * copies the storage file if it was not copied yet, must be called before the file is changed
+	 */
+	public void preserve(File file) {
+		if (!remaining.isEmpty() && copyFile(file.getName())) preserved.incrementAndGet();
+	}
+
+	// captures the compressed bytes of a chunk, replaces what was captured for it before
+	protected void putCompressed(long key, byte[] data) {
+		serialized.remove(key);
+		compressed.put(key, data);
+	}
+
+	// captures the compressed bytes of a chunk unless a newer state was captured, for journals that are shared by caches
+	protected void putLogged(long key, byte[] data) {
+		if (!serialized.containsKey(key)) compressed.putIfAbsent(key, data);
+	}
+
+	// captures the serialized bytes of a chunk, replaces what was captured for it before
+	protected void putSerialized(long key, byte[] data) {
+		compressed.remove(key);
+		serialized.put(key, data);
+	}
+
+	// adds the files the snapshot copies, called after the chunks are captured and before the caches see the snapshot
+	protected void addFiles(Collection<String> names) throws IOException {
+		Files.createDirectories(copy.toPath());
+		remaining.addAll(names);
+	}
+
+	// starts the thread that copies the files and writes the captured chunks
+	protected void start() {
+		Thread thread = new Thread(() -> {
+			try {
+				write();
+				future.complete(this);
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}, "ChunkCache snapshot");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void write() throws IOException {
+		for (String name : new ArrayList<>(remaining))
+			copyFile(name);
+		synchronized (remaining) {
+			if (failure != null) throw failure;
+		}
+
+		// the captured chunks are newer than the copied files
+		Long2ObjectMap<Long2ObjectMap<byte[]>> chunks = new Long2ObjectOpenHashMap<>();
+		for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(compressed))
+			add(chunks, entry.getLongKey(), entry.getValue());
+		for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(serialized)) {
+			ByteBuffer data = format.compress(entry.getValue());
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			add(chunks, entry.getLongKey(), bytes);
+		}
+		for (Long2ObjectMap.Entry<Long2ObjectMap<byte[]>> file : Long2ObjectMaps.fastIterable(chunks))
+			format.writeSnapshot(copy, file.getLongKey(), file.getValue());
+
+		if (archive) {
+			File[] copied = copy.listFiles();
+			try (OutputStream out = Files.newOutputStream(target.toPath()); ZipOutputStream zip = new ZipOutputStream(out)) {
+				if (copied != null)
+					for (File file : copied) {
+						zip.putNextEntry(new ZipEntry(file.getName()));
+						Files.copy(file.toPath(), zip);
+						zip.closeEntry();
+					}
+			}
+			if (copied != null)
+				for (File file : copied)
+					Files.delete(file.toPath());
+			Files.delete(copy.toPath());
+		}
+	}
+
+	private void add(Long2ObjectMap<Long2ObjectMap<byte[]>> chunks, long key, byte[] data) {
+		long fileKey = format.fileKey(Located2D.keyX(key), Located2D.keyY(key));
+		Long2ObjectMap<byte[]> file = chunks.get(fileKey);
+		if (file == null) chunks.put(fileKey, file = new Long2ObjectOpenHashMap<>());
+		file.put(key, data);
+	}
+
+	// copies the file unless it was copied already, false if it was
+	private boolean copyFile(String name) {
+		synchronized (locks[name.hashCode() & (locks.length - 1)]) {
+			if (!remaining.contains(name)) return false;
+			try {
+				Files.copy(new File(folder, name).toPath(), new File(copy, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				files.incrementAndGet();
+			} catch (NoSuchFileException ignored) {
+				// the file was deleted after it was listed
+			} catch (IOException e) {
+				synchronized (remaining) {
+					if (failure == null) failure = e;
+					else failure.addSuppressed(e);
+				}
+			}
+			remaining.remove(name);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package net.devtech.chunk2d;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.devtech.util.IntIntPredicate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * a chunk function that generates chunks in stages, a stage of a chunk runs once every chunk within the stage's radius went
+ * through the previous stage. The base function creates the chunk, then every stage runs in order, stages of different
+ * chunks run in parallel on the worker executor as soon as their neighborhoods are ready and no other stage is using them.
+ * <p>
+ * partly generated chunks are kept in the pipeline at their level, {@link #newChunk(int, int)} only returns a chunk once
+ * it went through every stage and no stage of a neighbor can touch it anymore. Neighbors that are generated along the way
+ * stay in the pipeline until the cache asks for them, so use this as the chunk function of a single cache. Neighbors that no
+ * requested chunk depends on anymore are orphans, only the most recent orphans are kept and a dropped orphan is generated
+ * from scratch if it is asked for, without what the stages of its released neighbors wrote into it. A chunk whose
+ * generation failed is generated again the next time it is asked for
+ * @param <C> the chunk class type
+ */
+public class StagedChunkFunction2D<C> implements ChunkFunction2D<C> {
+	private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+	private static final int DEFAULT_ORPHANS = 1024;
+
+	// creates the chunks
+	private final ChunkFunction2D<C> base;
+	private final List<GenerationStage<? super C>> stages;
+	private final Executor workers;
+	// chebyshev distance to the level a chunk at that distance has to reach before the center can leave the pipeline
+	private final int[] releaseLevels;
+	// how far the chunks a requested chunk schedules can be from it
+	private final int extent;
+	private final int maxOrphans;
+	// chunks in the pipeline, guarded by this
+	private final Long2ObjectMap<Proto<C>> protos = new Long2ObjectOpenHashMap<>();
+	// chunks that left the pipeline or were already in storage and are not known to be stored, guarded by this
+	private final LongSet released = new LongOpenHashSet();
+	// the size of released that makes the next release drop the chunks that are stored by now, guarded by this
+	private int releasedLimit = 64;
+	// the number of requested chunks within the extent of a chunk, guarded by this
+	private final Long2IntOpenHashMap interest = new Long2IntOpenHashMap();
+	// chunks in the pipeline that no requested chunk depends on, oldest first, guarded by this
+	private final LongLinkedOpenHashSet orphans = new LongLinkedOpenHashSet();
+	// true for chunks that were generated before, null if every chunk is new
+	private volatile IntIntPredicate stored;
+
+	/**
+	 * @param base creates chunks before the first stage, called on the workers
+	 * @param stages the stages in the order they run
+	 * @param workers the executor stages run on, a stage that waits for a neighbor that is in use blocks its thread
+	 * @param maxOrphans the number of orphaned neighbors that are kept in the pipeline
+	 */
+	public StagedChunkFunction2D(ChunkFunction2D<C> base, List<? extends GenerationStage<? super C>> stages, Executor workers, int maxOrphans) {
+		this.base = base;
+		this.stages = new ArrayList<>(stages);
+		this.workers = workers;
+		this.maxOrphans = maxOrphans;
+		int reach = 0, scheduled = 0;
+		for (GenerationStage<? super C> stage : this.stages) {
+			reach = Math.max(reach, stage.getRadius());
+			scheduled += stage.getRadius();
+		}
+		// every level a neighbor needs schedules the level below it within the stage's radius
+		this.extent = reach + scheduled;
+		this.releaseLevels = new int[reach + 1];
+		// the last stage that reaches a distance, a neighbor at that distance must be past it
+		for (int i = 0; i < this.stages.size(); i++)
+			for (int d = 0; d <= this.stages.get(i).getRadius(); d++)
+				releaseLevels[d] = i + 1;
+		releaseLevels[0] = this.stages.size();
+	}
+
+	public StagedChunkFunction2D(ChunkFunction2D<C> base, List<? extends GenerationStage<? super C>> stages, Executor workers) {
+		this(base, stages, workers, DEFAULT_ORPHANS);
+	}
+
+	public StagedChunkFunction2D(ChunkFunction2D<C> base, List<? extends GenerationStage<? super C>> stages) {
+		this(base, stages, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * tells the pipeline which chunks were generated before, they are never generated again and stages see them as null
+	 * neighbors. Usually {@link PrioritisedFile2DChunkCache#isStored(int, int)} of the cache this generates for
+	 */
+	public void setStored(IntIntPredicate stored) {
+		this.stored = stored;
+	}
+
+	/**
+	 * generates the chunk through every stage, blocks until it is complete
+	 */
+	@Override
+	public C newChunk(int x, int y) {
+		return newChunkAsync(x, y).join();
+	}
+
+	/**
+	 * schedules the chunk and every neighbor it depends on
+	 * @return completes with the chunk once it went through every stage
+	 */
+	@Override
+	public CompletableFuture<C> newChunkAsync(int x, int y) {
+		synchronized (this) {
+			long key = Located2D.key(x, y);
+			// a chunk that left the pipeline and is asked for again was lost by the cache
+			if (!protos.containsKey(key)) released.remove(key);
+			Proto<C> proto = proto(key);
+			CompletableFuture<C> result = proto.result;
+			if (result == null) {
+				interest(x, y, 1);
+				List<CompletableFuture<Void>> ready = new ArrayList<>();
+				for (int dx = 1 - releaseLevels.length; dx < releaseLevels.length; dx++)
+					for (int dy = 1 - releaseLevels.length; dy < releaseLevels.length; dy++) {
+						int level = releaseLevels[Math.max(Math.abs(dx), Math.abs(dy))];
+						if (level > 0 || dx == 0 && dy == 0) ready.add(ensure(Located2D.key(x + dx, y + dy), level));
+					}
+				CompletableFuture<C> requested = result = CompletableFuture.allOf(ready.toArray(new CompletableFuture<?>[0])).thenApply(v -> release(key));
+				proto.result = result;
+				result.whenComplete((c, t) -> {
+					if (t != null) failed(key, requested);
+				});
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @return the number of stages the chunk went through, 0 if it was only created, the number of stages if it left the
+	 * pipeline and -1 if the pipeline has not created it, dropped it or it is in storage by now
+	 */
+	public synchronized int getLevel(int x, int y) {
+		long key = Located2D.key(x, y);
+		if (released.contains(key)) return stages.size();
+		Proto<C> proto = protos.get(key);
+		return proto == null ? -1 : proto.level;
+	}
+
+	/**
+	 * @return the number of chunks in the pipeline
+	 */
+	public synchronized int size() {
+		return protos.size();
+	}
+
+	// the future of the chunk reaching the level, schedules it and everything it depends on, called under the monitor
+	private CompletableFuture<Void> ensure(long key, int level) {
+		if (released.contains(key)) return DONE;
+		int x = Located2D.keyX(key), y = Located2D.keyY(key);
+		Proto<C> proto = protos.get(key);
+		if (proto == null) {
+			IntIntPredicate stored = this.stored;
+			if (stored != null && stored.test(x, y)) {
+				released.add(key);
+				return DONE;
+			}
+			proto = proto(key);
+		}
+		CompletableFuture<Void> future = proto.futures.get(level);
+		// a failed level is scheduled again
+		if (future != null && !future.isCompletedExceptionally()) return future;
+
+		Proto<C> scheduled = proto;
+		if (level == 0) future = CompletableFuture.runAsync(() -> {
+			scheduled.chunk = base.newChunk(x, y);
+			scheduled.level = 0;
+		}, workers);
+		else {
+			int radius = stages.get(level - 1).getRadius();
+			List<CompletableFuture<Void>> ready = new ArrayList<>();
+			for (int dx = -radius; dx <= radius; dx++)
+				for (int dy = -radius; dy <= radius; dy++)
+					ready.add(ensure(Located2D.key(x + dx, y + dy), level - 1));
+			future = CompletableFuture.allOf(ready.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> run(x, y, level), workers);
+		}
+		proto.futures.set(level, future);
+		return future;
+	}
+
+	// runs a stage once its neighborhood is not used by another stage
+	private void run(int x, int y, int level) {
+		GenerationStage<? super C> stage = stages.get(level - 1);
+		int radius = stage.getRadius(), side = radius * 2 + 1;
+		List<Proto<C>> square = new ArrayList<>(side * side);
+		synchronized (this) {
+			boolean interrupted = false;
+			while (true) {
+				boolean free = true;
+				square.clear();
+				for (int i = 0; i < side * side; i++) {
+					Proto<C> proto = protos.get(Located2D.key(x + i / side - radius, y + i % side - radius));
+					if (proto != null && proto.busy) free = false;
+					square.add(proto);
+				}
+				if (free) break;
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			for (Proto<C> proto : square)
+				if (proto != null) proto.busy = true;
+		}
+		try {
+			Proto<C> center = square.get(square.size() / 2);
+			stage.generate(center.chunk, x, y, (nx, ny) -> {
+				int dx = nx - x, dy = ny - y;
+				if (Math.abs(dx) > radius || Math.abs(dy) > radius) throw new IllegalArgumentException(nx + ", " + ny + " is outside of the radius of the stage");
+				Proto<C> proto = square.get((dx + radius) * side + dy + radius);
+				return proto == null ? null : proto.chunk;
+			});
+			center.level = level;
+		} finally {
+			synchronized (this) {
+				for (Proto<C> proto : square)
+					if (proto != null) proto.busy = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized C release(long key) {
+		Proto<C> proto = protos.remove(key);
+		released.add(key);
+		IntIntPredicate stored = this.stored;
+		if (stored != null && released.size() >= releasedLimit) {
+			// the cache answers for the chunks it stored, only chunks it holds in memory have to be remembered
+			for (LongIterator iterator = released.iterator(); iterator.hasNext(); ) {
+				long stale = iterator.nextLong();
+				if (stored.test(Located2D.keyX(stale), Located2D.keyY(stale))) iterator.remove();
+			}
+			releasedLimit = Math.max(64, released.size() * 2);
+		}
+		interest(Located2D.keyX(key), Located2D.keyY(key), -1);
+		return proto.chunk;
+	}
+
+	// forgets a request whose generation failed, so the next request generates the chunk again
+	private synchronized void failed(long key, CompletableFuture<C> result) {
+		Proto<C> proto = protos.get(key);
+		if (proto == null || proto.result != result) return;
+		proto.result = null;
+		interest(Located2D.keyX(key), Located2D.keyY(key), -1);
+	}
+
+	// adds or removes a requested chunk, chunks no requested chunk depends on become orphans and the oldest ones are dropped
+	private void interest(int x, int y, int delta) {
+		for (int dx = -extent; dx <= extent; dx++)
+			for (int dy = -extent; dy <= extent; dy++) {
+				long key = Located2D.key(x + dx, y + dy);
+				if (interest.addTo(key, delta) + delta > 0) orphans.remove(key);
+				else {
+					interest.remove(key);
+					Proto<C> proto = protos.get(key);
+					if (proto != null && proto.result == null) orphans.add(key);
+				}
+			}
+		for (LongIterator iterator = orphans.iterator(); orphans.size() > maxOrphans && iterator.hasNext(); ) {
+			long key = iterator.nextLong();
+			Proto<C> proto = protos.get(key);
+			if (proto == null) iterator.remove();
+			else if (proto.isIdle()) {
+				iterator.remove();
+				protos.remove(key);
+			}
+		}
+	}
+
+	private Proto<C> proto(long key) {
+		Proto<C> proto = protos.get(key);
+		if (proto == null) protos.put(key, proto = new Proto<>(stages.size() + 1));
+		return proto;
+	}
+
+	// a chunk in the pipeline
+	private static class Proto<C> {
+		// set by the base function before level 0 completes
+		volatile C chunk;
+		// the number of stages the chunk went through, -1 before it is created
+		volatile int level = -1;
+		// the future of every level, null until it is scheduled, guarded by the function
+		final List<CompletableFuture<Void>> futures;
+		// completes with the chunk when it leaves the pipeline, guarded by the function
+		CompletableFuture<C> result;
+		// true while a stage uses the chunk, guarded by the function
+		boolean busy;
+
+		Proto(int levels) {
+			this.futures = new ArrayList<>(levels);
+			for (int i = 0; i < levels; i++)
+				futures.add(null);
+		}
+
+		// true if no stage uses the chunk or is still going to
+		boolean isIdle() {
+			if (busy) return false;
+			for (CompletableFuture<Void> future : futures)
+				if (future != null && !future.isDone()) return false;
+			return true;
+		}
+	}
+}
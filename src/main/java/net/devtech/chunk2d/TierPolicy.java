@@ -0,0 +1,61 @@
+package net.devtech.chunk2d;
+
+import net.devtech.util.FrequencySketch;
+
+/**
+ * decides which chunks are kept in the frequent tier of a {@link PrioritisedFile2DChunkCache} in constant time.
+ * the frequent tier is kept in recency order, when it overflows its least recently used chunk is moved to the loaded tier,
+ * and when a chunk in the loaded tier is accessed while the frequent tier is full the policy decides if it takes the place
+ * of the least recently used frequent chunk
+ */
+public interface TierPolicy {
+	/**
+	 * records an access to the chunk
+	 * @param key the chunk key
+	 */
+	void recordAccess(long key);
+
+	/**
+	 * decides if a chunk from the loaded tier should replace a chunk in the frequent tier
+	 * @param candidate the key of the chunk that was just accessed in the loaded tier
+	 * @param victim the key of the least recently used chunk in the frequent tier
+	 * @return true if the candidate should be promoted and the victim demoted
+	 */
+	boolean admit(long candidate, long victim);
+
+	/**
+	 * segmented lru, the loaded tier is the probation segment and the frequent tier the protected segment, a chunk that is
+	 * accessed again while in the loaded tier is always promoted
+	 */
+	static TierPolicy segmentedLru() {
+		return new TierPolicy() {
+			@Override
+			public void recordAccess(long key) {}
+
+			@Override
+			public boolean admit(long candidate, long victim) {
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * tiny lfu, a chunk is only promoted if it was accessed more often in the recent past than the chunk it replaces,
+	 * access counts are kept in a {@link FrequencySketch} that ages periodically
+	 * @param capacity the number of chunks that are expected to be cached at once
+	 */
+	static TierPolicy tinyLfu(int capacity) {
+		FrequencySketch sketch = new FrequencySketch(capacity);
+		return new TierPolicy() {
+			@Override
+			public void recordAccess(long key) {
+				sketch.increment(key);
+			}
+
+			@Override
+			public boolean admit(long candidate, long victim) {
+				return sketch.frequency(candidate) > sketch.frequency(victim);
+			}
+		};
+	}
+}
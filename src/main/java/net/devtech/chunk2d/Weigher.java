@@ -0,0 +1,27 @@
+package net.devtech.chunk2d;
+
+/**
+ * estimates how much memory a chunk takes, a cache with a weigher caps its tiers by the total weight of their chunks
+ * instead of the number of chunks
+ * @param <C> the chunk class type
+ */
+@FunctionalInterface
+public interface Weigher<C> {
+	/**
+	 * gives every chunk a weight of 1
+	 */
+	Weigher<Object> SINGLETON = c -> 1;
+
+	/**
+	 * @return the weight of the chunk, e.g. its approximate size in bytes, must not be negative
+	 */
+	int weigh(C chunk);
+
+	/**
+	 * @return a weigher that gives every chunk a weight of 1 so the limits are chunk counts
+	 */
+	@SuppressWarnings("unchecked")
+	static <C> Weigher<C> singleton() {
+		return (Weigher<C>) SINGLETON;
+	}
+}
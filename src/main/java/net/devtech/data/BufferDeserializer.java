@@ -0,0 +1,74 @@
+package net.devtech.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * deserializes chunks of data directly from a buffer
+ * @param <C> chunk type
+ * @param <A> extra arg type
+ */
+public interface BufferDeserializer<C, A> {
+	/**
+	 * reads a chunk from the remaining bytes of the buffer, the buffer may be heap, direct or mapped
+	 * @param buffer the buffer to read a chunk from
+	 * @param args extra information that the chunk needs to initialize
+	 * @return a new chunk read from the buffer
+	 */
+	C read(ByteBuffer buffer, A args) throws IOException;
+
+	/**
+	 * @return a stream deserializer that reads the chunk through this deserializer, caches use the buffer path of the returned
+	 * deserializer directly
+	 */
+	default Deserializer<C, InputStream, A> asDeserializer() {
+		return new Adapter<>(this);
+	}
+
+	/**
+	 * adapts a stream deserializer to a buffer deserializer
+	 * @param deserializer the stream deserializer
+	 */
+	@SuppressWarnings("unchecked")
+	static <C, A> BufferDeserializer<C, A> of(Deserializer<C, ?, A> deserializer) {
+		if (deserializer instanceof BufferDeserializer) return (BufferDeserializer<C, A>) deserializer;
+		return (buffer, args) -> deserializer.deserialize(new ByteBufferInputStream(buffer), args);
+	}
+
+	/**
+	 * a buffer deserializer that can be used where a stream deserializer is expected
+	 */
+	class Adapter<C, A> implements Deserializer<C, InputStream, A>, BufferDeserializer<C, A> {
+		private final BufferDeserializer<C, A> deserializer;
+
+		public Adapter(BufferDeserializer<C, A> deserializer) {
+			this.deserializer = deserializer;
+		}
+
+		@Override
+		public C read(ByteBuffer buffer, A args) throws IOException {
+			return deserializer.read(buffer, args);
+		}
+
+		@Override
+		public C read(InputStream stream, A args) throws IOException {
+			return deserializer.read(ThreadBuffers.readFully(stream), args);
+		}
+
+		@Override
+		public InputStream newStream(InputStream stream) {
+			return stream;
+		}
+
+		@Override
+		public C read(byte[] input, A args) throws IOException {
+			return deserializer.read(ByteBuffer.wrap(input), args);
+		}
+
+		@Override
+		public Deserializer<C, InputStream, A> asDeserializer() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package net.devtech.data;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * a buffer deserializer for chunks on a 2d plane that takes the coordinates of the chunk as raw ints
+ * @param <C> chunk type
+ */
+public interface BufferDeserializer2D<C> extends BufferDeserializer<C, Point> {
+	/**
+	 * reads a chunk from the remaining bytes of the buffer, the buffer may be heap, direct or mapped
+	 * @param buffer the buffer to read a chunk from
+	 * @param x the x coordinate of the chunk
+	 * @param y the y coordinate of the chunk
+	 * @return a new chunk read from the buffer
+	 */
+	C read(ByteBuffer buffer, int x, int y) throws IOException;
+
+	@Override
+	default C read(ByteBuffer buffer, Point args) throws IOException {
+		return read(buffer, args.x, args.y);
+	}
+
+	@Override
+	default Deserializer<C, InputStream, Point> asDeserializer() {
+		return new Adapter2D<>(this);
+	}
+
+	/**
+	 * a buffer deserializer that can be used where a stream deserializer is expected
+	 */
+	class Adapter2D<C> extends Adapter<C, Point> implements Deserializer2D<C, InputStream>, BufferDeserializer2D<C> {
+		private final BufferDeserializer2D<C> deserializer;
+
+		public Adapter2D(BufferDeserializer2D<C> deserializer) {
+			super(deserializer);
+			this.deserializer = deserializer;
+		}
+
+		@Override
+		public C read(ByteBuffer buffer, int x, int y) throws IOException {
+			return deserializer.read(buffer, x, y);
+		}
+
+		@Override
+		public C read(InputStream stream, int x, int y) throws IOException {
+			return deserializer.read(ThreadBuffers.readFully(stream), x, y);
+		}
+
+		@Override
+		public C read(ByteBuffer buffer, Point args) throws IOException {
+			return deserializer.read(buffer, args.x, args.y);
+		}
+
+		@Override
+		public C read(InputStream stream, Point args) throws IOException {
+			return read(stream, args.x, args.y);
+		}
+
+		@Override
+		public Deserializer<C, InputStream, Point> asDeserializer() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.devtech.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * serializes chunks of data directly into a buffer
+ * @param <C> chunk type
+ */
+public interface BufferSerializer<C> {
+	/**
+	 * writes the chunk into the buffer starting at its position, the buffer may be heap or direct
+	 * @param chunk the chunk
+	 * @param buffer the buffer
+	 * @throws BufferOverflowException if the chunk doesn't fit, the caller retries with a larger buffer
+	 */
+	void write(C chunk, ByteBuffer buffer) throws IOException;
+
+	/**
+	 * @return a stream serializer that writes the chunk through this serializer, caches use the buffer path of the returned
+	 * serializer directly
+	 */
+	default Serializer<C, OutputStream> asSerializer() {
+		return new Adapter<>(this);
+	}
+
+	/**
+	 * adapts a stream serializer to a buffer serializer
+	 * @param serializer the stream serializer
+	 */
+	@SuppressWarnings("unchecked")
+	static <C> BufferSerializer<C> of(Serializer<C, ?> serializer) {
+		if (serializer instanceof BufferSerializer) return (BufferSerializer<C>) serializer;
+		return (chunk, buffer) -> serializer.serialize(chunk, new OutputStream() {
+			@Override
+			public void write(int b) {
+				buffer.put((byte) b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				buffer.put(b, off, len);
+			}
+		});
+	}
+
+	/**
+	 * a buffer serializer that can be used where a stream serializer is expected
+	 */
+	class Adapter<C> implements Serializer<C, OutputStream>, BufferSerializer<C> {
+		private final BufferSerializer<C> serializer;
+
+		public Adapter(BufferSerializer<C> serializer) {
+			this.serializer = serializer;
+		}
+
+		@Override
+		public void write(C chunk, ByteBuffer buffer) throws IOException {
+			serializer.write(chunk, buffer);
+		}
+
+		@Override
+		public void write(C chunk, OutputStream output) throws IOException {
+			ByteBuffer buffer = ThreadBuffers.serialize(serializer, chunk);
+			output.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+		}
+
+		@Override
+		public OutputStream newStream(OutputStream outputStream) {
+			return outputStream;
+		}
+
+		@Override
+		public byte[] serialize(C chunk) throws IOException {
+			ByteBuffer buffer = ThreadBuffers.serialize(serializer, chunk);
+			byte[] bytes = new byte[buffer.limit()];
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		@Override
+		public Serializer<C, OutputStream> asSerializer() {
+			return this;
+		}
+	}
+}
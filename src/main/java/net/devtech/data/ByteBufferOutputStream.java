@@ -0,0 +1,22 @@
+package net.devtech.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * a byte array output stream whose contents can be viewed as a buffer without being copied
+ */
+public class ByteBufferOutputStream extends ByteArrayOutputStream {
+	public ByteBufferOutputStream() {}
+
+	public ByteBufferOutputStream(int size) {
+		super(size);
+	}
+
+	/**
+	 * @return a buffer over the bytes written so far, it is only valid until the next write or reset
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buf, 0, count);
+	}
+}
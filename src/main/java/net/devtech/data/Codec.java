@@ -0,0 +1,29 @@
+package net.devtech.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * compresses serialized chunks, the id of the codec is stored in front of every compressed chunk so chunks written with a
+ * different codec can still be read, see {@link Codecs} for the built in codecs
+ */
+public interface Codec {
+	/**
+	 * @return the id stored in front of every chunk, unique among the codecs registered in {@link Codecs}
+	 */
+	int id();
+
+	/**
+	 * creates a stream that compresses everything written to it into the given stream, closing it finishes the compressed data
+	 * and releases any resources the stream borrowed
+	 * @param output the stream the compressed bytes are written to
+	 */
+	OutputStream compress(OutputStream output) throws IOException;
+
+	/**
+	 * creates a stream that decompresses the given stream, closing it releases any resources the stream borrowed
+	 * @param input the stream the compressed bytes are read from
+	 */
+	InputStream decompress(InputStream input) throws IOException;
+}
@@ -0,0 +1,193 @@
+package net.devtech.data;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * the built in codecs and the registry used to find the codec of a stored chunk by its id
+ */
+public final class Codecs {
+	/**
+	 * the first byte of a gzip stream, chunks that start with it were written before codec ids were stored and are gzip
+	 */
+	public static final int LEGACY_GZIP = 0x1f;
+	private static final Codec[] CODECS = new Codec[256];
+
+	/**
+	 * stores chunks as they were serialized
+	 */
+	public static final Codec NONE = register(new Codec() {
+		@Override
+		public int id() {
+			return 0;
+		}
+
+		@Override
+		public OutputStream compress(OutputStream output) {
+			return new FilterOutputStream(output) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(InputStream input) {
+			return input;
+		}
+	});
+
+	/**
+	 * raw deflate with the default compression level, Deflaters and Inflaters are pooled and reused with their stream buffers
+	 */
+	public static final Codec DEFLATE = register(deflate(Deflater.DEFAULT_COMPRESSION));
+
+	/**
+	 * gzip streams, for compatibility with chunks written before codecs existed
+	 */
+	public static final Codec GZIP = register(new Codec() {
+		@Override
+		public int id() {
+			return 2;
+		}
+
+		@Override
+		public OutputStream compress(OutputStream output) throws IOException {
+			return new GZIPOutputStream(output);
+		}
+
+		@Override
+		public InputStream decompress(InputStream input) throws IOException {
+			return new GZIPInputStream(input);
+		}
+	});
+
+	private Codecs() {}
+
+	/**
+	 * creates a raw deflate codec, every deflate codec shares the same id since the level isn't needed to decompress
+	 * @param level the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public static Codec deflate(int level) {
+		return new DeflateCodec(level);
+	}
+
+	/**
+	 * registers a codec so chunks stored with its id can be read
+	 * @return the codec
+	 */
+	public static synchronized Codec register(Codec codec) {
+		int id = codec.id();
+		if (id < 0 || id > 255 || id == LEGACY_GZIP) throw new IllegalArgumentException("invalid codec id " + id);
+		Codec registered = CODECS[id];
+		if (registered != null && registered.getClass() != codec.getClass()) throw new IllegalArgumentException("codec id " + id + " is already used by " + registered);
+		if (registered == null) CODECS[id] = codec;
+		return codec;
+	}
+
+	/**
+	 * @return the codec registered with the id
+	 * @throws IOException if no codec is registered with the id
+	 */
+	public static Codec get(int id) throws IOException {
+		Codec codec = id == LEGACY_GZIP ? GZIP : CODECS[id];
+		if (codec == null) throw new IOException("unknown codec id " + id);
+		return codec;
+	}
+
+	private static final class DeflateCodec implements Codec {
+		// the most (de)compressors a pool keeps, enough for every thread that compresses at once, surplus ones are ended
+		private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+		private static final int BUFFER_SIZE = 4096;
+		// shared by every deflate codec
+		private static final Queue<Pooled<Inflater>> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+		private final Queue<Pooled<Deflater>> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+		private final int level;
+
+		private DeflateCodec(int level) {
+			this.level = level;
+		}
+
+		@Override
+		public int id() {
+			return 1;
+		}
+
+		@Override
+		public OutputStream compress(OutputStream output) {
+			Pooled<Deflater> polled = deflaters.poll();
+			Pooled<Deflater> pooled = polled == null ? new Pooled<>(new Deflater(level, true)) : polled;
+			// the stream's own buffer is replaced by the pooled one, so it is created as small as possible
+			return new DeflaterOutputStream(output, pooled.zip, 1) {
+				private boolean closed;
+
+				{
+					buf = pooled.buffer;
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (closed) return;
+					closed = true;
+					try {
+						super.close();
+					} finally {
+						pooled.zip.reset();
+						if (!deflaters.offer(pooled)) pooled.zip.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(InputStream input) {
+			Pooled<Inflater> polled = INFLATERS.poll();
+			Pooled<Inflater> pooled = polled == null ? new Pooled<>(new Inflater(true)) : polled;
+			return new InflaterInputStream(input, pooled.zip, 1) {
+				private boolean closed;
+
+				{
+					buf = pooled.buffer;
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (closed) return;
+					closed = true;
+					try {
+						super.close();
+					} finally {
+						pooled.zip.reset();
+						if (!INFLATERS.offer(pooled)) pooled.zip.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		public String toString() {
+			return "DeflateCodec{" + "level=" + level + '}';
+		}
+
+		// a (de)compressor and the buffer of the stream that uses it
+		private static final class Pooled<T> {
+			private final T zip;
+			private final byte[] buffer = new byte[BUFFER_SIZE];
+
+			private Pooled(T zip) {
+				this.zip = zip;
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package net.devtech.data;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * a deserializer for chunks on a 2d plane that takes the coordinates of the chunk as raw ints, caches call the int overload
+ * so no {@link Point} is allocated per chunk
+ * @param <C> chunk type
+ * @param <S> input stream type
+ */
+public interface Deserializer2D<C, S extends InputStream> extends Deserializer<C, S, Point> {
+	/**
+	 * deserialize a chunk from the input stream, do not call this method!
+	 * @param stream the stream to read a chunk from
+	 * @param x the x coordinate of the chunk
+	 * @param y the y coordinate of the chunk
+	 * @return a new chunk read from the output stream
+	 */
+	C read(S stream, int x, int y) throws IOException;
+
+	default C deserialize(InputStream inputStream, int x, int y) throws IOException {
+		return read(newStream(inputStream), x, y);
+	}
+
+	@Override
+	default C read(S stream, Point args) throws IOException {
+		return read(stream, args.x, args.y);
+	}
+}
@@ -0,0 +1,300 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * a write-ahead log of chunk writes. A write is appended to the current log segment and is durable once {@link #commit()}
+ * returns, callers that commit at the same time share a single fsync. A background thread periodically checkpoints the
+ * logged writes into the real storage through the {@link Checkpointer} and deletes the segments that were checkpointed.
+ * Opening a journal replays the segments left behind by a crash, a record that was cut short is ignored.
+ * <p>
+ * a record is the chunk key, the length, the crc32 of the data and the data
+ */
+public class Journal implements Closeable {
+	/**
+	 * durably writes logged chunks to the real storage
+	 */
+	public interface Checkpointer {
+		/**
+		 * writes the chunks, the writes and the directory entries of the files they created must be on disk when this returns
+		 * @param entries chunk key to the bytes that were logged for it
+		 */
+		void checkpoint(Long2ObjectMap<byte[]> entries) throws IOException;
+	}
+
+	private static final String PREFIX = "journal-";
+	private static final String SUFFIX = ".log";
+	private static final int HEADER = 16;
+
+	private final File folder;
+	private final Checkpointer checkpointer;
+	private final long interval;
+	// the newest logged bytes of every chunk that has not been checkpointed, guarded by this
+	private final Long2ObjectMap<byte[]> pending = new Long2ObjectOpenHashMap<>();
+	// the segment appends go to, guarded by this
+	private FileChannel log;
+	private int segment;
+	// number of appended and of synced records, guarded by this
+	private long appended, synced;
+	// true while a thread is syncing outside of the monitor
+	private boolean syncing;
+	// one checkpoint at a time
+	private final Object checkpointLock = new Object();
+	// the checkpoint thread sleeps on this, channels are closed by interrupts so the thread is never interrupted
+	private final Object sleeper = new Object();
+	// the first failure of the background thread, guarded by this
+	private Throwable failure;
+	private volatile boolean closed;
+	private final Thread thread;
+
+	/**
+	 * opens the journal, replays every segment in the folder and starts the checkpoint thread
+	 * @param folder the folder the segments are kept in
+	 * @param interval milliseconds between checkpoints, appended writes are also committed at this rate
+	 * @param checkpointer writes checkpointed chunks to the real storage
+	 */
+	public Journal(File folder, long interval, Checkpointer checkpointer) throws IOException {
+		this.folder = folder;
+		this.interval = interval;
+		this.checkpointer = checkpointer;
+		folder.mkdirs();
+		IntArrayList segments = segments();
+		for (int i = 0; i < segments.size(); i++)
+			replay(file(segments.getInt(i)));
+		segment = segments.isEmpty() ? 0 : segments.getInt(segments.size() - 1) + 1;
+		log = open(segment);
+		thread = new Thread(this::run, "ChunkCache journal");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * logs the chunk, it is not durable until {@link #commit()} returns
+	 * @param key the chunk key
+	 * @param data the remaining bytes are logged
+	 */
+	public synchronized void append(long key, ByteBuffer data) throws IOException {
+		if (closed) throw new IllegalStateException("journal is closed");
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		ByteBuffer record = ByteBuffer.allocate(HEADER + bytes.length);
+		record.putLong(key).putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+		while (record.hasRemaining())
+			log.write(record);
+		pending.put(key, bytes);
+		appended++;
+	}
+
+	/**
+	 * blocks until every write appended before the call is on disk, if another thread is already syncing this waits for it
+	 * and syncs everything that was appended in the meantime together
+	 */
+	public void commit() throws IOException {
+		rethrow();
+		FileChannel channel;
+		long upTo;
+		synchronized (this) {
+			long target = appended;
+			boolean interrupted = false;
+			while (synced < target && syncing) try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (synced >= target) return;
+			syncing = true;
+			upTo = appended;
+			channel = log;
+		}
+		// other threads keep appending while the log is synced, their records are covered by the next sync
+		boolean done = false;
+		try {
+			channel.force(false);
+			done = true;
+		} finally {
+			synchronized (this) {
+				syncing = false;
+				if (done) synced = Math.max(synced, upTo);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the newest logged bytes of the chunk if they have not been checkpointed yet, or null
+	 */
+	public synchronized byte[] get(long key) {
+		return pending.get(key);
+	}
+
+	/**
+	 * @return a copy of every chunk that is logged but not checkpointed, chunk key to compressed bytes
+	 */
+	public synchronized Long2ObjectMap<byte[]> copyPending() {
+		return new Long2ObjectOpenHashMap<>(pending);
+	}
+
+	/**
+	 * @return the number of chunks that are logged but not checkpointed
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * writes every logged chunk to the real storage and deletes the segments they were logged in, new writes go to a new
+	 * segment while this runs
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			Long2ObjectMap<byte[]> snapshot;
+			int current;
+			synchronized (this) {
+				if (pending.isEmpty()) return;
+				boolean interrupted = false;
+				while (syncing) try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+				if (interrupted) Thread.currentThread().interrupt();
+				// everything in the old segment is durable in the log before the segment is retired
+				log.force(false);
+				log.close();
+				synced = appended;
+				snapshot = new Long2ObjectOpenHashMap<>(pending);
+				current = ++segment;
+				log = open(current);
+			}
+
+			if (!snapshot.isEmpty()) checkpointer.checkpoint(snapshot);
+
+			synchronized (this) {
+				// chunks that were logged again during the checkpoint stay pending
+				for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(snapshot))
+					if (pending.get(entry.getLongKey()) == entry.getValue()) pending.remove(entry.getLongKey());
+			}
+			IntArrayList segments = segments();
+			for (int i = 0; i < segments.size(); i++)
+				if (segments.getInt(i) < current) file(segments.getInt(i)).delete();
+			// a deleted segment that comes back after a crash would replay writes older than the checkpointed ones
+			syncFolder();
+		}
+	}
+
+	/**
+	 * stops the checkpoint thread and checkpoints everything that was logged
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (sleeper) {
+			closed = true;
+			sleeper.notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		checkpoint();
+		synchronized (this) {
+			log.close();
+		}
+		rethrow();
+	}
+
+	private void run() {
+		while (true) {
+			synchronized (sleeper) {
+				if (!closed) try {
+					sleeper.wait(interval);
+				} catch (InterruptedException ignored) {}
+				if (closed) return;
+			}
+			try {
+				checkpoint();
+			} catch (Throwable t) {
+				synchronized (this) {
+					if (failure == null) failure = t;
+					else failure.addSuppressed(t);
+				}
+			}
+		}
+	}
+
+	private synchronized void rethrow() throws IOException {
+		Throwable t = failure;
+		failure = null;
+		if (t instanceof IOException) throw (IOException) t;
+		else if (t != null) throw new IOException(t);
+	}
+
+	// reads every complete record of the segment into pending
+	private void replay(File file) throws IOException {
+		long remaining = file.length();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			CRC32 crc = new CRC32();
+			while (true) {
+				long key = in.readLong();
+				int length = in.readInt();
+				int checksum = in.readInt();
+				remaining -= HEADER;
+				// the length of a torn record is garbage, it is checked before anything is allocated for it
+				if (length < 0 || length > remaining) break;
+				remaining -= length;
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				crc.reset();
+				crc.update(bytes, 0, length);
+				// a record torn by a crash ends the segment
+				if ((int) crc.getValue() != checksum) break;
+				pending.put(key, bytes);
+			}
+		} catch (EOFException ignored) {}
+	}
+
+	private IntArrayList segments() {
+		IntArrayList segments = new IntArrayList();
+		String[] names = folder.list();
+		if (names != null)
+			for (String name : names)
+				if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) try {
+					segments.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+				} catch (NumberFormatException ignored) {}
+		segments.sort(null);
+		return segments;
+	}
+
+	private File file(int segment) {
+		return new File(folder, PREFIX + segment + SUFFIX);
+	}
+
+	private FileChannel open(int segment) throws IOException {
+		FileChannel channel = FileChannel.open(file(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		// the records of a new segment are only durable once its directory entry is
+		syncFolder();
+		return channel;
+	}
+
+	// makes created and deleted segments durable
+	private void syncFolder() throws IOException {
+		StorageBackend.syncFolder(folder);
+	}
+}
@@ -0,0 +1,242 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * a byte budgeted store of blobs outside of the java heap, the memory is allocated in direct slabs that are split into fixed
+ * size blocks and a blob is stored in as many blocks as it needs. When a blob does not fit the least recently stored blobs
+ * are handed to the {@link Evictor} until it does. Not thread safe
+ */
+public class OffHeapArena {
+	/**
+	 * receives the blobs that are evicted to make room for new ones
+	 */
+	public interface Evictor {
+		/**
+		 * @param key the key of the blob
+		 * @param data the blob, only valid during the call
+		 * @param dirty the dirty flag the blob was stored with
+		 */
+		void evict(long key, ByteBuffer data, boolean dirty) throws IOException;
+	}
+
+	// blocks per slab
+	private static final int SLAB_BLOCKS = 256;
+	private final int blockSize;
+	private final int totalBlocks;
+	private final Evictor evictor;
+	// slabs are allocated the first time one of their blocks is needed
+	private final ByteBuffer[] slabs;
+	// blocks that were used and freed again
+	private final IntArrayList free = new IntArrayList();
+	// blocks below this have been handed out at least once
+	private int fresh;
+	// blobs in insertion order, the first one is evicted first
+	private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+	private long usedBytes;
+
+	/**
+	 * @param budget the maximum number of bytes the arena allocates, rounded down to whole blocks
+	 * @param blockSize the unit blobs are allocated in
+	 * @param evictor receives evicted blobs
+	 */
+	public OffHeapArena(long budget, int blockSize, Evictor evictor) {
+		this.blockSize = blockSize;
+		this.totalBlocks = (int) Math.min(Integer.MAX_VALUE, budget / blockSize);
+		this.evictor = evictor;
+		this.slabs = new ByteBuffer[(totalBlocks + SLAB_BLOCKS - 1) / SLAB_BLOCKS];
+	}
+
+	/**
+	 * stores a copy of the remaining bytes of the buffer, replacing any blob stored with the same key. If the evictor fails
+	 * while room is made the exception is thrown and the arena keeps every blob it had, including the one being replaced
+	 * @return false if the blob is larger than the whole budget, nothing is stored then
+	 */
+	public boolean put(long key, ByteBuffer data, boolean dirty) throws IOException {
+		int length = data.remaining();
+		int needed = Math.max(1, (length + blockSize - 1) / blockSize);
+		if (needed > totalBlocks) return false;
+		// the replaced blob is only released once there is room, so a failed eviction leaves it in place
+		Entry old = entries.remove(key);
+		int reused = old == null ? 0 : old.blocks.length;
+		try {
+			while (free.size() + totalBlocks - fresh + reused < needed)
+				evictFirst();
+		} catch (IOException | RuntimeException e) {
+			if (old != null) entries.put(key, old);
+			throw e;
+		}
+		if (old != null) release(old);
+
+		int[] blocks = new int[needed];
+		for (int i = 0; i < needed; i++) {
+			int block = blocks[i] = free.isEmpty() ? fresh++ : free.popInt();
+			ByteBuffer slice = block(block);
+			int start = data.position();
+			int len = Math.min(blockSize, data.remaining());
+			ByteBuffer src = data.duplicate();
+			src.limit(start + len);
+			slice.put(src);
+			data.position(start + len);
+		}
+		entries.put(key, new Entry(blocks, length, dirty));
+		usedBytes += length;
+		return true;
+	}
+
+	/**
+	 * removes the blob
+	 * @return a heap copy of the blob or null if nothing is stored with the key
+	 */
+	public ByteBuffer remove(long key) {
+		Entry entry = entries.remove(key);
+		if (entry == null) return null;
+		ByteBuffer copy = copy(entry);
+		release(entry);
+		return copy;
+	}
+
+	/**
+	 * removes the blob without copying it
+	 * @return true if a blob was stored with the key
+	 */
+	public boolean discard(long key) {
+		Entry entry = entries.remove(key);
+		if (entry == null) return false;
+		release(entry);
+		return true;
+	}
+
+	public boolean contains(long key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * @return true if the blob was stored as dirty and has not been written since
+	 */
+	public boolean isDirty(long key) {
+		Entry entry = entries.get(key);
+		return entry != null && entry.dirty;
+	}
+
+	/**
+	 * hands every dirty blob to the evictor without removing it and marks it clean
+	 */
+	public void writeDirty(Evictor writer) throws IOException {
+		for (Long2ObjectMap.Entry<Entry> entry : Long2ObjectMaps.fastIterable(entries))
+			if (entry.getValue().dirty) {
+				writer.evict(entry.getLongKey(), copy(entry.getValue()), true);
+				entry.getValue().dirty = false;
+			}
+	}
+
+	/**
+	 * hands a copy of every dirty blob to the visitor without marking it clean
+	 */
+	public void copyDirty(Evictor visitor) throws IOException {
+		for (Long2ObjectMap.Entry<Entry> entry : Long2ObjectMaps.fastIterable(entries))
+			if (entry.getValue().dirty) visitor.evict(entry.getLongKey(), copy(entry.getValue()), true);
+	}
+
+	/**
+	 * drops every blob without evicting it, the slabs are kept
+	 */
+	public void clear() {
+		entries.clear();
+		free.clear();
+		fresh = 0;
+		usedBytes = 0;
+	}
+
+	/**
+	 * @return the number of stored blobs
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the bytes of every stored blob
+	 */
+	public long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return the bytes of the blocks that hold blobs, this includes the unused ends of the last blocks
+	 */
+	public long getAllocatedBytes() {
+		return (long) (fresh - free.size()) * blockSize;
+	}
+
+	/**
+	 * @return the budget in bytes
+	 */
+	public long getCapacity() {
+		return (long) totalBlocks * blockSize;
+	}
+
+	/**
+	 * @return the allocated fraction of the budget
+	 */
+	public double getFillLevel() {
+		return totalBlocks == 0 ? 0 : (double) (fresh - free.size()) / totalBlocks;
+	}
+
+	private void evictFirst() throws IOException {
+		long key = entries.firstLongKey();
+		Entry entry = entries.removeFirst();
+		try {
+			evictor.evict(key, copy(entry), entry.dirty);
+		} catch (IOException | RuntimeException e) {
+			// the blob may be the only copy of its data, it stays first in line until a write succeeds
+			entries.putAndMoveToFirst(key, entry);
+			throw e;
+		}
+		release(entry);
+	}
+
+	private void release(Entry entry) {
+		for (int block : entry.blocks)
+			free.add(block);
+		usedBytes -= entry.length;
+	}
+
+	private ByteBuffer copy(Entry entry) {
+		ByteBuffer copy = ByteBuffer.allocate(entry.length);
+		for (int block : entry.blocks) {
+			ByteBuffer slice = block(block);
+			slice.limit(Math.min(blockSize, copy.remaining()));
+			copy.put(slice);
+		}
+		copy.flip();
+		return copy;
+	}
+
+	// a buffer over the whole block
+	private ByteBuffer block(int block) {
+		int slab = block / SLAB_BLOCKS;
+		if (slabs[slab] == null) slabs[slab] = ByteBuffer.allocateDirect(Math.min(SLAB_BLOCKS, totalBlocks - slab * SLAB_BLOCKS) * blockSize);
+		ByteBuffer buffer = slabs[slab].duplicate();
+		int start = block % SLAB_BLOCKS * blockSize;
+		buffer.limit(start + blockSize).position(start);
+		return buffer.slice();
+	}
+
+	private static class Entry {
+		private final int[] blocks;
+		private final int length;
+		private boolean dirty;
+
+		private Entry(int[] blocks, int length, boolean dirty) {
+			this.blocks = blocks;
+			this.length = length;
+			this.dirty = dirty;
+		}
+	}
+}
@@ -14,4 +14,14 @@ public interface PersistentCache<C> {
 	 * save all the chunks
 	 */
 	void saveAll(boolean remove) throws Exception;
+
+	/**
+	 * marks the chunk as changed since it was last saved, caches that track changes only write changed chunks
+	 */
+	default void markDirty(int x, int y) {}
+
+	/**
+	 * blocks until every save that was started before this call has reached persistent storage, call this before the program exits
+	 */
+	default void flush() throws Exception {}
 }
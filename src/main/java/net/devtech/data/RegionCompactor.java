@@ -0,0 +1,90 @@
+package net.devtech.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * rewrites region files so they only hold the current blob of every slot. A region file keeps the sectors of blobs that
+ * moved or shrank as holes and never gets shorter, compaction copies the live blobs back to back into a temporary file and
+ * atomically moves it over the region file.
+ * <p>
+ * can be run on a folder of region files that no cache is using with {@code RegionCompactor <folder> <regionSize> [minDeadRatio]}
+ */
+public class RegionCompactor {
+	/**
+	 * the suffix of region files
+	 */
+	public static final String SUFFIX = ".region";
+	// the suffix of the copy that is being written, a leftover copy is from a compaction that was cut short
+	private static final String TEMP_SUFFIX = ".compact";
+
+	/**
+	 * @return the stats of the region file
+	 */
+	public static StorageStats stats(File file, int slots, StorageBackend backend) throws IOException {
+		try (RegionFile region = new RegionFile(file, slots, backend)) {
+			return region.stats();
+		}
+	}
+
+	/**
+	 * copies every blob of the region file into a new compact region file next to it, the region file is not changed
+	 * @return the copy
+	 */
+	public static File rewrite(File file, int slots, StorageBackend backend) throws IOException {
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		Files.deleteIfExists(temp.toPath());
+		try (RegionFile region = new RegionFile(file, slots, backend); RegionFile copy = new RegionFile(temp, slots, backend)) {
+			for (int slot = 0; slot < slots; slot++) {
+				ByteBuffer data = region.read(slot);
+				if (data != null) copy.write(slot, data);
+			}
+			copy.sync();
+		} catch (IOException | RuntimeException e) {
+			temp.delete();
+			throw e;
+		}
+		return temp;
+	}
+
+	/**
+	 * atomically replaces the region file with a copy made by {@link #rewrite(File, int, StorageBackend)}
+	 */
+	public static void replace(File copy, File file) throws IOException {
+		Files.move(copy.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * compacts the region file, nothing else may use the file while this runs
+	 * @return the stats of the file before it was compacted
+	 */
+	public static StorageStats compact(File file, int slots, StorageBackend backend) throws IOException {
+		StorageStats stats = stats(file, slots, backend);
+		replace(rewrite(file, slots, backend), file);
+		return stats;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: RegionCompactor <folder> <regionSize> [minDeadRatio]");
+			System.exit(1);
+		}
+		File folder = new File(args[0]);
+		int regionSize = Integer.parseInt(args[1]);
+		double minDeadRatio = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (files == null) throw new IOException(folder + " is not a folder");
+		long reclaimed = 0;
+		for (File file : files) {
+			StorageStats stats = stats(file, regionSize * regionSize, StorageBackend.STREAM);
+			if (stats.getDeadBytes() == 0 || stats.getDeadRatio() < minDeadRatio) continue;
+			compact(file, regionSize * regionSize, StorageBackend.STREAM);
+			reclaimed += Math.max(0, stats.getFileBytes() - file.length());
+			System.out.println(file.getName() + " " + stats);
+		}
+		System.out.println("reclaimed " + reclaimed + " bytes");
+	}
+}
@@ -0,0 +1,182 @@
+package net.devtech.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * a random access file that stores a fixed number of slots, each slot is a blob of bytes allocated in sectors.
+ * the file starts with a header that maps every slot to its first sector and its length in bytes, the rest of the file is
+ * handed out in {@link #SECTOR_SIZE} byte sectors, a blob that still fits in its old sectors is rewritten in place
+ */
+public class RegionFile implements Closeable {
+	/**
+	 * the unit space is allocated in
+	 */
+	public static final int SECTOR_SIZE = 512;
+	// bytes per header entry, sector offset + byte length
+	private static final int ENTRY_SIZE = 8;
+
+	private final RandomAccessFile file;
+	private final StorageBackend backend;
+	// first sector of every slot, 0 if the slot is empty
+	private final int[] offsets;
+	// length of the blob in every slot
+	private final int[] lengths;
+	// sectors in use, the header sectors are always used
+	private final BitSet used = new BitSet();
+	private final int headerSectors;
+
+	/**
+	 * opens or creates a region file
+	 * @param file the file
+	 * @param slots the number of slots in the region, must be the same every time the file is opened
+	 * @param backend the way blobs are read and written
+	 */
+	public RegionFile(File file, int slots, StorageBackend backend) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		this.backend = backend;
+		this.offsets = new int[slots];
+		this.lengths = new int[slots];
+		this.headerSectors = sectors(slots * ENTRY_SIZE);
+		this.used.set(0, headerSectors);
+
+		byte[] header = new byte[slots * ENTRY_SIZE];
+		if (this.file.length() < header.length) {
+			this.file.seek(0);
+			this.file.write(header);
+		} else {
+			this.file.seek(0);
+			this.file.readFully(header);
+			ByteBuffer buffer = ByteBuffer.wrap(header);
+			for (int slot = 0; slot < slots; slot++) {
+				int offset = buffer.getInt();
+				int length = buffer.getInt();
+				if (offset >= headerSectors && length > 0) {
+					offsets[slot] = offset;
+					lengths[slot] = length;
+					used.set(offset, offset + sectors(length));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the slot has data
+	 */
+	public boolean has(int slot) {
+		return offsets[slot] != 0;
+	}
+
+	/**
+	 * reads the blob stored in the slot
+	 * @param slot the slot
+	 * @return a buffer with the contents of the slot, or null if the slot is empty
+	 */
+	public ByteBuffer read(int slot) throws IOException {
+		if (!has(slot)) return null;
+		return backend.read(file, (long) offsets[slot] * SECTOR_SIZE, lengths[slot]);
+	}
+
+	/**
+	 * writes the blob to the slot, if it fits in the sectors the slot already owns it is written in place, otherwise the old
+	 * sectors are freed and a new run of sectors is allocated
+	 * @param slot the slot
+	 * @param data the blob, its remaining bytes are written
+	 */
+	public void write(int slot, ByteBuffer data) throws IOException {
+		int len = data.remaining();
+		int needed = sectors(len);
+		int offset = offsets[slot];
+		if (offset == 0 || sectors(lengths[slot]) < needed) {
+			if (offset != 0) used.clear(offset, offset + sectors(lengths[slot]));
+			offset = allocate(needed);
+		} else used.clear(offset + needed, offset + sectors(lengths[slot]));
+
+		backend.write(file, (long) offset * SECTOR_SIZE, data);
+		writeEntry(slot, offset, len);
+	}
+
+	/**
+	 * empties the slot and frees its sectors
+	 * @param slot the slot
+	 */
+	public void remove(int slot) throws IOException {
+		if (!has(slot)) return;
+		used.clear(offsets[slot], offsets[slot] + sectors(lengths[slot]));
+		writeEntry(slot, 0, 0);
+	}
+
+	/**
+	 * @return the bytes of every blob in the region, without the header and the unused ends of sectors
+	 */
+	public long liveBytes() {
+		long live = 0;
+		for (int length : lengths)
+			live += length;
+		return live;
+	}
+
+	/**
+	 * @return the bytes at the end of the file and in free sectors between blobs that a compaction would give back
+	 */
+	public long reclaimableBytes() throws IOException {
+		return Math.max(0, file.length() - (long) used.cardinality() * SECTOR_SIZE);
+	}
+
+	/**
+	 * @return the stats of the region file
+	 */
+	public StorageStats stats() throws IOException {
+		int chunks = 0;
+		for (int offset : offsets)
+			if (offset != 0) chunks++;
+		return new StorageStats(chunks, liveBytes(), reclaimableBytes(), file.length());
+	}
+
+	/**
+	 * @return the number of slots in the region
+	 */
+	public int slots() {
+		return offsets.length;
+	}
+
+	/**
+	 * forces every write to the file onto the disk
+	 */
+	public void sync() throws IOException {
+		file.getFD().sync();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private void writeEntry(int slot, int offset, int length) throws IOException {
+		offsets[slot] = offset;
+		lengths[slot] = length;
+		file.seek((long) slot * ENTRY_SIZE);
+		file.writeInt(offset);
+		file.writeInt(length);
+	}
+
+	// first fit search for a run of free sectors, grows the file if none is found
+	private int allocate(int sectors) {
+		int start = used.nextClearBit(headerSectors);
+		while (true) {
+			int end = used.nextSetBit(start);
+			if (end == -1 || end - start >= sectors) break;
+			start = used.nextClearBit(end);
+		}
+		used.set(start, start + sectors);
+		return start;
+	}
+
+	private static int sectors(int bytes) {
+		return Math.max(1, (bytes + SECTOR_SIZE - 1) / SECTOR_SIZE);
+	}
+}
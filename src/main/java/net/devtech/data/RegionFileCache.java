@@ -0,0 +1,132 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectFunction;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * a bounded lru cache of open region files, so reading or writing a region does not reopen the file and parse its header
+ * every time. A file is taken with {@link #acquire(long, boolean)} and handed back by closing the handle, a file that is
+ * evicted while a handle to it is open is closed when the last handle is closed.
+ * <p>
+ * the cache does not order access to a file, callers must not use the same region from two threads at once
+ */
+public class RegionFileCache implements Closeable {
+	/**
+	 * an acquired region file, closing the handle releases it
+	 */
+	public final class Handle implements AutoCloseable {
+		private final RegionFile file;
+		// open handles, guarded by the cache
+		private int users;
+		// true once the file left the cache, it is closed when the last handle is closed
+		private boolean evicted;
+
+		private Handle(RegionFile file) {
+			this.file = file;
+		}
+
+		public RegionFile file() {
+			return file;
+		}
+
+		@Override
+		public void close() throws IOException {
+			release(this);
+		}
+	}
+
+	private final int capacity;
+	private final Long2ObjectFunction<File> files;
+	private final int slots;
+	private final StorageBackend backend;
+	// open files in access order, guarded by this
+	private final Long2ObjectLinkedOpenHashMap<Handle> open = new Long2ObjectLinkedOpenHashMap<>();
+	// once closed files are no longer kept open, guarded by this
+	private boolean closed;
+
+	/**
+	 * @param capacity the number of files that are kept open
+	 * @param files region key to region file
+	 * @param slots the number of slots in a region file
+	 * @param backend the way blobs are read and written
+	 */
+	public RegionFileCache(int capacity, Long2ObjectFunction<File> files, int slots, StorageBackend backend) {
+		this.capacity = Math.max(1, capacity);
+		this.files = files;
+		this.slots = slots;
+		this.backend = backend;
+	}
+
+	/**
+	 * opens the region's file or takes it from the cache, the handle must be closed
+	 * @param create whether the file is created if it does not exist
+	 * @return the handle or null if the file does not exist and create is false
+	 */
+	public synchronized Handle acquire(long region, boolean create) throws IOException {
+		Handle handle = open.getAndMoveToLast(region);
+		if (handle == null) {
+			File file = files.apply(region);
+			if (!create && !file.exists()) return null;
+			handle = new Handle(new RegionFile(file, slots, backend));
+			// a closed cache hands out files that are closed with their handle
+			if (closed) handle.evicted = true;
+			else {
+				open.putAndMoveToLast(region, handle);
+				while (open.size() > capacity)
+					evict(open.removeFirst());
+			}
+		}
+		handle.users++;
+		return handle;
+	}
+
+	/**
+	 * closes the region's file if it is open, must be called before the file is replaced or deleted
+	 */
+	public synchronized void invalidate(long region) throws IOException {
+		Handle handle = open.remove(region);
+		if (handle != null) evict(handle);
+	}
+
+	/**
+	 * @return the number of open files
+	 */
+	public synchronized int size() {
+		return open.size();
+	}
+
+	/**
+	 * closes every file and stops keeping files open
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		clear();
+	}
+
+	/**
+	 * closes every file, files with open handles are closed when their handles are
+	 */
+	public synchronized void clear() throws IOException {
+		IOException failure = null;
+		while (!open.isEmpty()) try {
+			evict(open.removeFirst());
+		} catch (IOException e) {
+			if (failure == null) failure = e;
+			else failure.addSuppressed(e);
+		}
+		if (failure != null) throw failure;
+	}
+
+	private synchronized void release(Handle handle) throws IOException {
+		if (--handle.users == 0 && handle.evicted) handle.file.close();
+	}
+
+	private void evict(Handle handle) throws IOException {
+		handle.evicted = true;
+		if (handle.users == 0) handle.file.close();
+	}
+}
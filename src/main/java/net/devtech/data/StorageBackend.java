@@ -0,0 +1,126 @@
+package net.devtech.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * the way chunk bytes are moved between the disk and memory, selected when a cache is created
+ */
+public enum StorageBackend {
+	/**
+	 * plain {@link RandomAccessFile} reads and writes into heap arrays
+	 */
+	STREAM {
+		@Override
+		public ByteBuffer read(RandomAccessFile file, long position, int length) throws IOException {
+			byte[] data = new byte[length];
+			file.seek(position);
+			file.readFully(data);
+			return ByteBuffer.wrap(data);
+		}
+
+		@Override
+		public void write(RandomAccessFile file, long position, ByteBuffer data) throws IOException {
+			file.seek(position);
+			if (data.hasArray()) {
+				file.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				data.position(data.limit());
+			} else {
+				byte[] copy = new byte[data.remaining()];
+				data.get(copy);
+				file.write(copy);
+			}
+		}
+	},
+	/**
+	 * positional {@link FileChannel} reads and writes, the file pointer is never moved
+	 */
+	CHANNEL {
+		@Override
+		public ByteBuffer read(RandomAccessFile file, long position, int length) throws IOException {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+			buffer.flip();
+			return buffer;
+		}
+	},
+	/**
+	 * reads are {@link java.nio.MappedByteBuffer} windows over the file so the codec reads straight from the page cache,
+	 * writes are positional channel writes because a mapping can't grow the file
+	 */
+	MAPPED {
+		@Override
+		public ByteBuffer read(RandomAccessFile file, long position, int length) throws IOException {
+			return file.getChannel().map(FileChannel.MapMode.READ_ONLY, position, length);
+		}
+	};
+
+	/**
+	 * reads length bytes from the file at the given position
+	 * @return a buffer positioned at the first byte of the data, the buffer may not be backed by an array
+	 */
+	public abstract ByteBuffer read(RandomAccessFile file, long position, int length) throws IOException;
+
+	/**
+	 * writes the remaining bytes of the buffer to the file at the given position
+	 */
+	public void write(RandomAccessFile file, long position, ByteBuffer data) throws IOException {
+		FileChannel channel = file.getChannel();
+		while (data.hasRemaining())
+			position += channel.write(data, position);
+	}
+
+	/**
+	 * reads the whole file
+	 * @return the contents of the file or null if it does not exist
+	 */
+	public ByteBuffer readFile(File file) throws IOException {
+		if (!file.exists()) return null;
+		try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+			return read(access, 0, (int) access.length());
+		}
+	}
+
+	/**
+	 * replaces the contents of the file with the remaining bytes of the buffer
+	 */
+	public void writeFile(File file, ByteBuffer data) throws IOException {
+		writeFile(file, data, false);
+	}
+
+	/**
+	 * replaces the contents of the file with the remaining bytes of the buffer
+	 * @param sync true if the contents have to be on disk when this returns, the directory entry of a new file is not synced
+	 */
+	public void writeFile(File file, ByteBuffer data, boolean sync) throws IOException {
+		try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+			long length = data.remaining();
+			write(access, 0, data);
+			access.setLength(length);
+			if (sync) access.getChannel().force(true);
+		}
+	}
+
+	/**
+	 * makes the files created in and deleted from the folder durable
+	 */
+	public static void syncFolder(File folder) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			// some platforms can not open directories, their file systems keep the entries durable themselves
+			return;
+		}
+		try (FileChannel dir = channel) {
+			dir.force(true);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package net.devtech.data;
+
+/**
+ * how much of a storage file is live chunk data and how much is space a compaction could give back
+ */
+public class StorageStats {
+	// chunks stored in the file
+	protected final int chunks;
+	// bytes of the stored chunks
+	protected final long liveBytes;
+	// bytes of free sectors and of the file tail that are not used by any chunk
+	protected final long deadBytes;
+	// the length of the file
+	protected final long fileBytes;
+
+	public StorageStats(int chunks, long liveBytes, long deadBytes, long fileBytes) {
+		this.chunks = chunks;
+		this.liveBytes = liveBytes;
+		this.deadBytes = deadBytes;
+		this.fileBytes = fileBytes;
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	public long getLiveBytes() {
+		return liveBytes;
+	}
+
+	public long getDeadBytes() {
+		return deadBytes;
+	}
+
+	public long getFileBytes() {
+		return fileBytes;
+	}
+
+	/**
+	 * @return the part of the file that is dead, 0 for an empty file
+	 */
+	public double getDeadRatio() {
+		return fileBytes == 0 ? 0 : (double) deadBytes / fileBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "StorageStats{" + "chunks=" + chunks + ", liveBytes=" + liveBytes + ", deadBytes=" + deadBytes + ", fileBytes=" + fileBytes + '}';
+	}
+}
@@ -0,0 +1,67 @@
+package net.devtech.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * reusable per thread buffers for the serialization paths, a buffer returned from here is only valid until the next call on
+ * the same thread
+ */
+public final class ThreadBuffers {
+	private static final int INITIAL_SIZE = 8192;
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_SIZE));
+	private static final ThreadLocal<ByteBufferOutputStream> OUTPUT = ThreadLocal.withInitial(() -> new ByteBufferOutputStream(INITIAL_SIZE));
+
+	private ThreadBuffers() {}
+
+	/**
+	 * @return the calling thread's output stream, reset
+	 */
+	public static ByteBufferOutputStream output() {
+		ByteBufferOutputStream output = OUTPUT.get();
+		output.reset();
+		return output;
+	}
+
+	/**
+	 * serializes the chunk into the calling thread's buffer, growing it until the chunk fits
+	 * @return the buffer, flipped so it holds exactly the chunk
+	 */
+	public static <C> ByteBuffer serialize(BufferSerializer<C> serializer, C chunk) throws IOException {
+		ByteBuffer buffer = BUFFER.get();
+		while (true) {
+			buffer.clear();
+			try {
+				serializer.write(chunk, buffer);
+				buffer.flip();
+				return buffer;
+			} catch (BufferOverflowException e) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+				BUFFER.set(buffer);
+			}
+		}
+	}
+
+	/**
+	 * reads the stream to its end into the calling thread's buffer
+	 * @return the buffer, flipped so it holds exactly the contents of the stream
+	 */
+	public static ByteBuffer readFully(InputStream stream) throws IOException {
+		ByteBuffer buffer = BUFFER.get();
+		buffer.clear();
+		int read;
+		while ((read = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())) != -1) {
+			buffer.position(buffer.position() + read);
+			if (!buffer.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				bigger.put(buffer);
+				BUFFER.set(buffer = bigger);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
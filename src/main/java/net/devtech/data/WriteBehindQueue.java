@@ -0,0 +1,195 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.longs.Long2LongFunction;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a bounded queue of chunk snapshots that a background thread writes to persistent storage.
+ * saving a key that is already queued replaces its snapshot instead of taking another spot, the writer takes everything
+ * that is queued at once and hands it to the {@link Writer} grouped by file so every file is opened once per batch.
+ * the snapshots of a batch that fails stay queued and readable and are retried after a delay
+ */
+public class WriteBehindQueue implements Closeable {
+	/**
+	 * writes a batch of snapshots that belong to the same file
+	 */
+	public interface Writer {
+		/**
+		 * @param group the file key shared by every chunk in the batch
+		 * @param batch chunk key to snapshot
+		 */
+		void write(long group, Long2ObjectMap<byte[]> batch) throws IOException;
+	}
+
+	// chunk key to file key
+	private final Long2LongFunction group;
+	private final Writer writer;
+	private final int capacity;
+	// milliseconds the writer waits after a failed pass before it retries
+	private final long retryDelay;
+	// snapshots waiting to be written, guarded by this
+	private final Long2ObjectLinkedOpenHashMap<byte[]> pending = new Long2ObjectLinkedOpenHashMap<>();
+	// snapshots the writer is currently writing, guarded by this
+	private Long2ObjectMap<byte[]> writing = new Long2ObjectOpenHashMap<>();
+	private final Thread thread;
+	// the first failure since the last flush
+	private Throwable failure;
+	private boolean closed;
+
+	/**
+	 * creates the queue and starts its writer thread
+	 * @param capacity the maximum number of snapshots that can be queued or being written before {@link #put(long, byte[])} blocks
+	 * @param retryDelay milliseconds the writer waits before it retries batches that failed
+	 * @param group maps a chunk key to the key of the file it is stored in
+	 * @param writer writes the batches
+	 */
+	public WriteBehindQueue(int capacity, long retryDelay, Long2LongFunction group, Writer writer) {
+		this.capacity = capacity;
+		this.retryDelay = retryDelay;
+		this.group = group;
+		this.writer = writer;
+		this.thread = new Thread(this::run, "ChunkCache write-behind");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public WriteBehindQueue(int capacity, Long2LongFunction group, Writer writer) {
+		this(capacity, 1000, group, writer);
+	}
+
+	/**
+	 * queues the snapshot of the chunk, blocks while the queue is full unless the chunk is already queued
+	 * @param key the chunk key
+	 * @param snapshot the serialized chunk, must not be modified after it is queued
+	 */
+	public synchronized void put(long key, byte[] snapshot) {
+		if (closed) throw new IllegalStateException("write-behind queue is closed");
+		boolean interrupted = false;
+		// the batch that is being written still holds its snapshots, so it counts against the capacity
+		while (pending.size() + writing.size() >= capacity && !pending.containsKey(key)) try {
+			wait();
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		pending.put(key, snapshot);
+		notifyAll();
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * gets the newest snapshot of the chunk that has not reached the storage yet
+	 * @param key the chunk key
+	 * @return the snapshot or null if nothing is queued for the chunk
+	 */
+	public synchronized byte[] get(long key) {
+		byte[] snapshot = pending.get(key);
+		return snapshot != null ? snapshot : writing.get(key);
+	}
+
+	/**
+	 * @return a copy of the newest snapshot of every chunk that has not reached the storage yet
+	 */
+	public synchronized Long2ObjectMap<byte[]> copyQueued() {
+		Long2ObjectMap<byte[]> queued = new Long2ObjectOpenHashMap<>(writing);
+		queued.putAll(pending);
+		return queued;
+	}
+
+	/**
+	 * @return the number of chunks waiting to be written
+	 */
+	public synchronized int size() {
+		return pending.size() + writing.size();
+	}
+
+	/**
+	 * blocks until every snapshot queued before this call has been written or a write failed
+	 * @throws IOException if a write failed since the last flush, the snapshots that failed are still queued
+	 */
+	public synchronized void flush() throws IOException {
+		boolean interrupted = false;
+		while (!(pending.isEmpty() && writing.isEmpty()) && failure == null && thread.isAlive()) try {
+			wait();
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		Throwable t = failure;
+		failure = null;
+		if (t instanceof IOException) throw (IOException) t;
+		else if (t != null) throw new IOException(t);
+	}
+
+	/**
+	 * flushes the queue and stops the writer thread, snapshots that could not be written are not retried anymore
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void run() {
+		boolean failed = false;
+		while (true) {
+			synchronized (this) {
+				// a failing storage is not retried in a busy loop
+				long retry = System.currentTimeMillis() + retryDelay;
+				for (long left = retryDelay; failed && !closed && left > 0; left = retry - System.currentTimeMillis()) try {
+					wait(left);
+				} catch (InterruptedException ignored) {}
+				while (pending.isEmpty() && !closed) try {
+					wait();
+				} catch (InterruptedException ignored) {}
+				if (pending.isEmpty() || failed && closed) return;
+				writing = new Long2ObjectOpenHashMap<>(pending);
+				pending.clear();
+				notifyAll();
+			}
+			failed = false;
+
+			Long2ObjectMap<Long2ObjectMap<byte[]>> batches = new Long2ObjectOpenHashMap<>();
+			ObjectIterator<Long2ObjectMap.Entry<byte[]>> iterator = Long2ObjectMaps.fastIterator(writing);
+			while (iterator.hasNext()) {
+				Long2ObjectMap.Entry<byte[]> entry = iterator.next();
+				batches.computeIfAbsent(group.get(entry.getLongKey()), l -> new Long2ObjectOpenHashMap<>()).put(entry.getLongKey(), entry.getValue());
+			}
+
+			List<Long2ObjectMap<byte[]>> unwritten = new ArrayList<>();
+			for (Long2ObjectMap.Entry<Long2ObjectMap<byte[]>> batch : Long2ObjectMaps.fastIterable(batches)) try {
+				writer.write(batch.getLongKey(), batch.getValue());
+			} catch (Throwable t) {
+				unwritten.add(batch.getValue());
+				synchronized (this) {
+					if (failure == null) failure = t;
+					else failure.addSuppressed(t);
+				}
+			}
+
+			synchronized (this) {
+				// the snapshots that failed are their chunks' only copy, they are queued again unless a newer one was queued
+				for (Long2ObjectMap<byte[]> batch : unwritten)
+					for (Long2ObjectMap.Entry<byte[]> entry : Long2ObjectMaps.fastIterable(batch))
+						pending.putIfAbsent(entry.getLongKey(), entry.getValue());
+				failed = !unwritten.isEmpty();
+				writing = new Long2ObjectOpenHashMap<>();
+				notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package net.devtech.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import java.io.IOException;
+
+/**
+ * a bitmap per region of the chunks that are in persistent storage, so a miss for a chunk that was never saved can go
+ * straight to generation without touching the disk. The bitmap of a region is loaded the first time the region is queried,
+ * chunks that were added before that are kept. Only saves have to be added, nothing is ever removed from storage
+ */
+public class ExistenceIndex {
+	/**
+	 * finds the chunks of a region that are in persistent storage
+	 */
+	public interface Loader {
+		/**
+		 * sets bit (offset x * size + offset y) of every chunk of the region that is in storage
+		 * @param region the {@link Region2D#regionKey(int, int, int)} of the region
+		 */
+		void load(long region, long[] bits) throws IOException;
+	}
+
+	private final int size;
+	private final Loader loader;
+	// region key to bitmap, guarded by this
+	private final Long2ObjectMap<long[]> regions = new Long2ObjectOpenHashMap<>();
+	// regions that were loaded from storage, guarded by this
+	private final LongSet loaded = new LongOpenHashSet();
+
+	/**
+	 * @param size the side length of the regions
+	 * @param loader loads the bitmap of a region the first time it is queried
+	 */
+	public ExistenceIndex(int size, Loader loader) {
+		this.size = size;
+		this.loader = loader;
+	}
+
+	/**
+	 * records that the chunk is, or is about to be, in storage
+	 */
+	public synchronized void add(int x, int y) {
+		int bit = bit(x, y);
+		bits(Region2D.regionKey(x, y, size))[bit >>> 6] |= 1L << bit;
+	}
+
+	/**
+	 * @return false if the chunk is certainly not in storage
+	 */
+	public synchronized boolean contains(int x, int y) throws IOException {
+		long region = Region2D.regionKey(x, y, size);
+		long[] bits = bits(region);
+		if (loaded.add(region)) try {
+			loader.load(region, bits);
+		} catch (IOException | RuntimeException e) {
+			loaded.remove(region);
+			throw e;
+		}
+		int bit = bit(x, y);
+		return (bits[bit >>> 6] & 1L << bit) != 0;
+	}
+
+	/**
+	 * @return the side length of the regions
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	private long[] bits(long region) {
+		long[] bits = regions.get(region);
+		if (bits == null) regions.put(region, bits = new long[(size * size + 63) >>> 6]);
+		return bits;
+	}
+
+	private int bit(int x, int y) {
+		return Region2D.offsetX(x, size) * size + Region2D.offsetY(y, size);
+	}
+}
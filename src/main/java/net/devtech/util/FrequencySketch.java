@@ -0,0 +1,69 @@
+package net.devtech.util;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * a count-min sketch of 4 bit counters that estimates how often keys were accessed in the recent past.
+ * once enough increments have been recorded every counter is halved so old popularity fades away
+ */
+public class FrequencySketch {
+	// clears the bit that a right shift moves into the next counter
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+	// 4 rows of 4 bit counters, 16 counters per long
+	private final long[] table;
+	// counters per row - 1
+	private final int rowMask;
+	// increments before the counters are halved
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * @param capacity the number of keys that are expected to be tracked at once
+	 */
+	public FrequencySketch(int capacity) {
+		int width = HashCommon.nextPowerOfTwo(Math.max(16, capacity));
+		this.table = new long[width / 16 * SEEDS.length];
+		this.rowMask = width - 1;
+		this.sampleSize = 10 * width;
+	}
+
+	/**
+	 * @return the estimated number of recent accesses of the key, at most 15
+	 */
+	public int frequency(long key) {
+		int frequency = 15;
+		for (int row = 0; row < SEEDS.length; row++) {
+			int index = index(key, row);
+			frequency = Math.min(frequency, (int) (table[index >>> 4] >>> ((index & 15) << 2)) & 15);
+		}
+		return frequency;
+	}
+
+	/**
+	 * records an access of the key
+	 */
+	public void increment(long key) {
+		boolean added = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			int index = index(key, row);
+			int shift = (index & 15) << 2;
+			if ((table[index >>> 4] >>> shift & 15) != 15) {
+				table[index >>> 4] += 1L << shift;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) reset();
+	}
+
+	// halves every counter
+	private void reset() {
+		for (int i = 0; i < table.length; i++)
+			table[i] = table[i] >>> 1 & RESET_MASK;
+		additions /= 2;
+	}
+
+	private int index(long key, int row) {
+		return row * (rowMask + 1) + ((int) (HashCommon.mix(key + SEEDS[row]) >>> 32) & rowMask);
+	}
+}
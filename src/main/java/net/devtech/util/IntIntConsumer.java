@@ -0,0 +1,9 @@
+package net.devtech.util;
+
+/**
+ * a consumer of 2 primitive ints
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+	void accept(int x, int y);
+}
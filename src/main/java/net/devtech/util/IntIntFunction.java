@@ -0,0 +1,10 @@
+package net.devtech.util;
+
+/**
+ * a function of 2 primitive ints
+ * @param <R> the result type
+ */
+@FunctionalInterface
+public interface IntIntFunction<R> {
+	R apply(int x, int y);
+}
@@ -0,0 +1,9 @@
+package net.devtech.util;
+
+/**
+ * a predicate of 2 primitive ints
+ */
+@FunctionalInterface
+public interface IntIntPredicate {
+	boolean test(int x, int y);
+}
@@ -0,0 +1,76 @@
+package net.devtech.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a thread safe histogram of durations with power of 2 buckets, bucket i counts the durations in [2^i, 2^(i+1)) nanoseconds.
+ * recording is a single striped increment so it can be called from any thread on a hot path
+ */
+public class LatencyHistogram {
+	private final LongAdder[] buckets = new LongAdder[64];
+	private final LongAdder total = new LongAdder();
+	{
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	/**
+	 * records a duration
+	 * @param nanos the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		buckets[bucket(nanos)].increment();
+		total.add(Math.max(0, nanos));
+	}
+
+	/**
+	 * @return a copy of the counts of every bucket
+	 */
+	public long[] counts() {
+		long[] counts = new long[buckets.length];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = buckets[i].sum();
+		return counts;
+	}
+
+	/**
+	 * @return the sum of every recorded duration in nanoseconds
+	 */
+	public long total() {
+		return total.sum();
+	}
+
+	/**
+	 * clears the histogram, durations recorded while it is being cleared may or may not be kept
+	 */
+	public void reset() {
+		for (LongAdder bucket : buckets)
+			bucket.reset();
+		total.reset();
+	}
+
+	/**
+	 * @return the bucket the duration is counted in
+	 */
+	public static int bucket(long nanos) {
+		return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	/**
+	 * estimates a percentile from bucket counts
+	 * @param counts the bucket counts, see {@link #counts()}
+	 * @param percentile between 0 and 1
+	 * @return the upper bound of the bucket the percentile falls in, in nanoseconds, or 0 if nothing was recorded
+	 */
+	public static long percentile(long[] counts, double percentile) {
+		long count = 0;
+		for (long c : counts)
+			count += c;
+		if (count == 0) return 0;
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+			if ((seen += counts[i]) >= rank) return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+		return Long.MAX_VALUE;
+	}
+}
@@ -1,67 +1,187 @@
 package net.devtech.util;
 
 import java.awt.Point;
-import java.util.function.BiConsumer;
-import java.util.function.BiFunction;
+import java.util.Arrays;
 
+/**
+ * a square grid of objects stored in a single flat array, slots are indexed x * size + y.
+ * an occupancy bitset and a population counter are kept next to the array so {@link #filled()} and {@link #empty()} are O(1)
+ * and iterating only the occupied slots skips empty words
+ */
 public class Region2D<C> {
-	public C[][] region;
+	private final int size;
+	private final Object[] region;
+	// a set bit for every occupied slot
+	private final long[] occupied;
+	// the number of occupied slots
+	private int population;
 
 	public Region2D(int size) {
-		this.region = (C[][]) new Object[size][size];
+		this.size = size;
+		this.region = new Object[size * size];
+		this.occupied = new long[(size * size + 63) >>> 6];
 	}
 
+	/**
+	 * @return the object in the slot or null if it is empty
+	 */
 	public C get(int x, int y) {
-		C c = region[x][y];
-		region[x][y] = null;
-		return c;
+		return slot(x * size + y);
 	}
 
+	/**
+	 * empties the slot
+	 * @return the object that was in the slot
+	 */
 	public C remove(int x, int y) {
-		C temp = region[x][y];
-		region[x][y] = null;
+		int index = x * size + y;
+		C temp = slot(index);
+		if (temp != null) {
+			region[index] = null;
+			occupied[index >>> 6] &= ~(1L << index);
+			population--;
+		}
 		return temp;
 	}
 
+	/**
+	 * puts the object in the slot, a null object empties the slot
+	 */
 	public void put(int x, int y, C c) {
-		region[x][y] = c;
+		if (c == null) {
+			remove(x, y);
+			return;
+		}
+		int index = x * size + y;
+		if (region[index] == null) {
+			occupied[index >>> 6] |= 1L << index;
+			population++;
+		}
+		region[index] = c;
 	}
 
 	public boolean has(int x, int y) {
-		return region[x][y] != null;
+		int index = x * size + y;
+		return (occupied[index >>> 6] & 1L << index) != 0;
 	}
 
 	public boolean filled() {
-		for (C[] cs : region)
-			for (C c : cs)
-				if (c == null) return false;
-		return true;
+		return population == region.length;
 	}
 
 	public boolean empty() {
-		for (C[] cs : region)
-			for (C c : cs)
-				if (c != null) return false;
-		return true;
+		return population == 0;
 	}
 
-	public void populate(BiFunction<Integer, Integer, C> populator) {
-		for (int x = 0; x < region.length; x++)
-			for (int y = 0; y < region[x].length; y++)
-				if (!has(x, y)) region[x][y] = populator.apply(x, y);
+	/**
+	 * @return the number of occupied slots
+	 */
+	public int population() {
+		return population;
 	}
 
-	public void forEach(BiConsumer<Integer, Integer> forEach) {
-		for (int x = 0; x < region.length; x++)
-			for (int y = 0; y < region[x].length; y++)
+	/**
+	 * @return the side length of the region
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * fills every empty slot with the result of the populator
+	 */
+	public void populate(IntIntFunction<C> populator) {
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				if (!has(x, y)) put(x, y, populator.apply(x, y));
+	}
+
+	/**
+	 * visits every slot, occupied or not
+	 */
+	public void forEach(IntIntConsumer forEach) {
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
 				forEach.accept(x, y);
 	}
 
+	/**
+	 * visits every occupied slot
+	 */
+	public void forEachOccupied(IntIntConsumer forEach) {
+		for (int word = 0; word < occupied.length; word++) {
+			long bits = occupied[word];
+			while (bits != 0) {
+				int index = word << 6 | Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				forEach.accept(index / size, index % size);
+			}
+		}
+	}
+
+	/**
+	 * empties every slot
+	 */
+	public void clear() {
+		Arrays.fill(region, null);
+		Arrays.fill(occupied, 0);
+		population = 0;
+	}
+
+	/**
+	 * @return the x coordinate of the region the x coordinate is in
+	 */
+	public static int regionX(int x, int scale) {
+		return Math.floorDiv(x, scale);
+	}
+
+	/**
+	 * @return the y coordinate of the region the y coordinate is in
+	 */
+	public static int regionY(int y, int scale) {
+		return Math.floorDiv(y, scale);
+	}
+
+	/**
+	 * @return the x offset of the x coordinate inside its region
+	 */
+	public static int offsetX(int x, int scale) {
+		return Math.floorMod(x, scale);
+	}
+
+	/**
+	 * @return the y offset of the y coordinate inside its region
+	 */
+	public static int offsetY(int y, int scale) {
+		return Math.floorMod(y, scale);
+	}
+
+	// the array only ever holds objects that were set through the typed methods
+	@SuppressWarnings("unchecked")
+	private C slot(int index) {
+		return (C) region[index];
+	}
+
+	/**
+	 * @return the packed key of the region the coordinates are in, packed like chunk keys
+	 */
+	public static long regionKey(int x, int y, int scale) {
+		return (long) regionX(x, scale) << 32 | regionY(y, scale) & 0xffffffffL;
+	}
+
+	/**
+	 * @deprecated allocates, use {@link #regionX(int, int)} and {@link #regionY(int, int)}
+	 */
+	@Deprecated
 	public static Point region(int x, int y, int scale) {
-		return new Point(Math.floorDiv(x, scale), Math.floorDiv(y, scale));
+		return new Point(regionX(x, scale), regionY(y, scale));
 	}
 
+	/**
+	 * @deprecated allocates, use {@link #offsetX(int, int)} and {@link #offsetY(int, int)}
+	 */
+	@Deprecated
 	public static Point offset(int x, int y, int scale) {
-		return new Point(Math.floorMod(x, scale), Math.floorMod(y, scale));
+		return new Point(offsetX(x, scale), offsetY(y, scale));
 	}
 }
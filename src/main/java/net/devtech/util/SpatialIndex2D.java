@@ -0,0 +1,95 @@
+package net.devtech.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * a set of 2d positions stored as a grid of 16x16 cells, each cell is a 256 bit bitset so a rectangle query only looks at
+ * the cells it overlaps and costs time proportional to its area instead of the number of positions in the set
+ */
+public class SpatialIndex2D {
+	private static final int SHIFT = 4;
+	private static final int CELL = 1 << SHIFT;
+	private static final int MASK = CELL - 1;
+	// cell key to bitset, bit (ox * 16 + oy) is set if the position is in the set
+	private final Long2ObjectMap<long[]> cells = new Long2ObjectOpenHashMap<>();
+	private int size;
+
+	/**
+	 * @return true if the position was not in the set
+	 */
+	public boolean add(int x, int y) {
+		long key = Region2D.regionKey(x, y, CELL);
+		long[] cell = cells.get(key);
+		if (cell == null) cells.put(key, cell = new long[CELL * CELL / 64]);
+		int bit = bit(x, y);
+		long mask = 1L << bit;
+		if ((cell[bit >>> 6] & mask) != 0) return false;
+		cell[bit >>> 6] |= mask;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return true if the position was in the set
+	 */
+	public boolean remove(int x, int y) {
+		long key = Region2D.regionKey(x, y, CELL);
+		long[] cell = cells.get(key);
+		if (cell == null) return false;
+		int bit = bit(x, y);
+		long mask = 1L << bit;
+		if ((cell[bit >>> 6] & mask) == 0) return false;
+		cell[bit >>> 6] &= ~mask;
+		size--;
+		for (long word : cell)
+			if (word != 0) return true;
+		cells.remove(key);
+		return true;
+	}
+
+	public boolean contains(int x, int y) {
+		long[] cell = cells.get(Region2D.regionKey(x, y, CELL));
+		if (cell == null) return false;
+		int bit = bit(x, y);
+		return (cell[bit >>> 6] & 1L << bit) != 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		cells.clear();
+		size = 0;
+	}
+
+	/**
+	 * calls the consumer with every position in the set that is inside the rectangle, the bounds are inclusive
+	 */
+	public void forEachInRect(int minX, int minY, int maxX, int maxY, IntIntConsumer consumer) {
+		if (minX > maxX || minY > maxY) return;
+		for (int cellX = minX >> SHIFT; cellX <= maxX >> SHIFT; cellX++)
+			for (int cellY = minY >> SHIFT; cellY <= maxY >> SHIFT; cellY++) {
+				long[] cell = cells.get(Region2D.regionKey(cellX << SHIFT, cellY << SHIFT, CELL));
+				if (cell == null) continue;
+				int baseX = cellX << SHIFT, baseY = cellY << SHIFT;
+				int fromX = Math.max(minX, baseX) - baseX, toX = Math.min(maxX, baseX + MASK) - baseX;
+				int fromY = Math.max(minY, baseY) - baseY, toY = Math.min(maxY, baseY + MASK) - baseY;
+				// a row of 16 bits covers one x offset
+				int rowMask = (0xffff >>> (MASK - toY)) & (0xffff << fromY);
+				for (int ox = fromX; ox <= toX; ox++) {
+					int row = (int) (cell[ox >>> 2] >>> ((ox & 3) << SHIFT)) & rowMask;
+					while (row != 0) {
+						int oy = Integer.numberOfTrailingZeros(row);
+						row &= row - 1;
+						consumer.accept(baseX + ox, baseY + oy);
+					}
+				}
+			}
+	}
+
+	private static int bit(int x, int y) {
+		return (x & MASK) << SHIFT | (y & MASK);
+	}
+}
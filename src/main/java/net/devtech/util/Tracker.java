@@ -14,6 +14,13 @@ public class Tracker<C> {
 		return objects;
 	}
 
+	/**
+	 * @return the object without counting an access
+	 */
+	public C peek() {
+		return objects;
+	}
+
 	public int getAccesses() {
 		return accesses;
 	}
@@ -0,0 +1,49 @@
+package net.devtech;
+
+import net.devtech.data.Deserializer;
+import net.devtech.data.Serializer;
+import java.awt.Point;
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * the chunk format and folders the tests share
+ */
+public class TestChunks {
+	public static final Deserializer<Chunk, DataInputStream, Point> DESERIALIZER = new Deserializer<Chunk, DataInputStream, Point>() {
+		@Override
+		public Chunk read(DataInputStream stream, Point args) throws IOException {
+			Chunk chunk = new Chunk(args.x, args.y);
+			chunk.setValue(stream.readInt());
+			return chunk;
+		}
+
+		@Override
+		public DataInputStream newStream(InputStream stream) {
+			return new DataInputStream(stream);
+		}
+	};
+	public static final Serializer<Chunk, DataOutputStream> SERIALIZER = new Serializer<Chunk, DataOutputStream>() {
+		@Override
+		public void write(Chunk chunk, DataOutputStream output) throws IOException {
+			output.writeInt(chunk.getValue());
+		}
+
+		@Override
+		public DataOutputStream newStream(OutputStream outputStream) {
+			return new DataOutputStream(outputStream);
+		}
+	};
+
+	public static File folder() throws IOException {
+		return Files.createTempDirectory("chunks").toFile();
+	}
+
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
@@ -0,0 +1,126 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class CacheStatsTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void recordsHitsLoadsAndEvictions() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		CacheStats stats = new CacheStats();
+		cache.setStats(stats);
+		cache.get(0, 0);
+		cache.get(0, 0);
+		cache.unload(0, 0);
+		cache.get(0, 0);
+		cache.unload(0, 0);
+		// the unloaded cache holds a single chunk, so the second one evicts and saves the first
+		cache.get(1, 0);
+		cache.unload(1, 0);
+		cache.get(0, 0);
+
+		CacheStats.Snapshot snapshot = stats.snapshot();
+		assertEquals(5, snapshot.requests());
+		assertEquals(1, snapshot.hits(FREQUENT));
+		assertEquals(1, snapshot.hits(UNLOADED_CACHED));
+		assertEquals(3, snapshot.misses);
+		assertEquals(3, snapshot.hits(UNLOADED));
+		assertEquals(2, snapshot.generated);
+		assertEquals(1, snapshot.diskLoads);
+		assertTrue(snapshot.bytesRead > 0);
+		assertEquals(1, snapshot.evictions);
+		assertEquals(1, snapshot.saves);
+		assertTrue(snapshot.bytesWritten > 0);
+		assertTrue(snapshot.bytesSerialized >= 4);
+		assertEquals(.6, snapshot.hitRatio(UNLOADED), 1e-9);
+		assertEquals(1, Arrays.stream(snapshot.loadLatency).sum());
+		assertEquals(2, Arrays.stream(snapshot.generateLatency).sum());
+
+		stats.reset();
+		assertEquals(0, stats.snapshot().requests());
+		assertEquals(0, Arrays.stream(stats.snapshot().saveLatency).sum());
+	}
+
+	@Test
+	public void recordsPromotionsAndDemotions() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		cache.setTierPolicy(TierPolicy.segmentedLru());
+		CacheStats stats = new CacheStats();
+		cache.setStats(stats);
+		for (int x = 0; x < 3; x++)
+			cache.get(x, 0);
+		cache.get(0, 0);
+		CacheStats.Snapshot snapshot = stats.snapshot();
+		assertEquals(1, snapshot.hits(LOADED));
+		assertEquals(1, snapshot.promotions);
+		assertEquals(2, snapshot.demotions);
+	}
+
+	@Test
+	public void statsCanBeShared() {
+		CacheStats stats = new CacheStats();
+		PrioritisedFile2DChunkCache<Chunk> first = cache(), second = cache();
+		first.setStats(stats);
+		second.setStats(stats);
+		first.get(0, 0);
+		second.get(0, 0);
+		assertEquals(2, stats.snapshot().misses);
+		assertSame(stats, second.getStats());
+	}
+
+	@Test
+	public void listenersSeeLoadsEvictionsAndSaves() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		List<String> events = new ArrayList<>();
+		cache.setListener(new CacheListener<Chunk>() {
+			@Override
+			public void onLoad(int x, int y, Chunk chunk, boolean generated) {
+				events.add((generated ? "generate " : "load ") + x);
+			}
+
+			@Override
+			public void onEvict(int x, int y, Chunk chunk) {
+				events.add("evict " + x);
+			}
+
+			@Override
+			public void onSave(int x, int y, Chunk chunk) {
+				events.add("save " + x);
+			}
+		});
+		cache.get(0, 0);
+		cache.unload(0, 0);
+		cache.get(1, 0);
+		cache.unload(1, 0);
+		cache.get(0, 0);
+		cache.saveAll(false);
+		assertEquals(Arrays.asList("generate 0", "generate 1", "save 0", "evict 0", "load 0", "save 1"), events);
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache() {
+		return new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 1);
+	}
+}
@@ -0,0 +1,81 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.data.Codec;
+import net.devtech.data.Codecs;
+import net.devtech.data.StorageBackend;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CodecRoundTripTest {
+	private static final Codec[] CODECS = {Codecs.NONE, Codecs.DEFLATE, Codecs.GZIP};
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void everyBackendAndCodecRoundTrips() throws IOException {
+		for (StorageBackend backend : StorageBackend.values())
+			for (Codec codec : CODECS) {
+				String name = backend + " " + codec.id();
+				File files = child(name);
+				write(new PrioritisedFile2DChunkCache<>(files, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, backend, codec));
+				check(name, new PrioritisedFile2DChunkCache<>(files, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, backend, codec));
+
+				File regions = child(name + " region");
+				write(new PrioritisedRegionFile2DChunkCache<>(regions, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, backend, codec));
+				check(name + " region", new PrioritisedRegionFile2DChunkCache<>(regions, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, backend, codec));
+			}
+	}
+
+	@Test
+	public void chunksKeepTheCodecTheyWereWrittenWith() throws IOException {
+		for (int i = 0; i < CODECS.length; i++) {
+			Codec writer = CODECS[i], reader = CODECS[(i + 1) % CODECS.length];
+			File regions = child(writer.id() + " -> " + reader.id());
+			write(new PrioritisedRegionFile2DChunkCache<>(regions, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, StorageBackend.STREAM, writer));
+			check(writer.id() + " -> " + reader.id(), new PrioritisedRegionFile2DChunkCache<>(regions, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, StorageBackend.STREAM, reader));
+		}
+	}
+
+	// writes 12x12 chunks over several files and saves them
+	private static void write(PrioritisedFile2DChunkCache<Chunk> cache) throws IOException {
+		for (int x = 0; x < 12; x++)
+			for (int y = 0; y < 12; y++) {
+				cache.get(x, y).setValue(x * 1000 + y);
+				cache.markDirty(x, y);
+			}
+		cache.saveAll(true);
+	}
+
+	private static void check(String name, PrioritisedFile2DChunkCache<Chunk> cache) {
+		for (int x = 0; x < 12; x++)
+			for (int y = 0; y < 12; y++)
+				assertEquals(name, x * 1000 + y, cache.get(x, y).getValue());
+	}
+
+	private File child(String name) {
+		File child = new File(folder, name);
+		child.mkdir();
+		return child;
+	}
+
+	// the reopened caches must read every chunk from disk
+	private Chunk missing(int x, int y) {
+		throw new AssertionError("chunk " + x + ", " + y + " was not stored");
+	}
+}
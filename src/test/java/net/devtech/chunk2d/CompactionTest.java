@@ -0,0 +1,122 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.data.Codecs;
+import net.devtech.data.Deserializer;
+import net.devtech.data.Serializer;
+import net.devtech.data.StorageBackend;
+import net.devtech.data.StorageStats;
+import net.devtech.util.Region2D;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.awt.Point;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class CompactionTest {
+	// a chunk is written as its value followed by as many ints, so growing the value grows the stored chunk
+	private static final Serializer<Chunk, DataOutputStream> SERIALIZER = new Serializer<Chunk, DataOutputStream>() {
+		@Override
+		public void write(Chunk chunk, DataOutputStream output) throws IOException {
+			output.writeInt(chunk.getValue());
+			for (int i = 0; i < chunk.getValue(); i++)
+				output.writeInt(i);
+		}
+
+		@Override
+		public DataOutputStream newStream(OutputStream outputStream) {
+			return new DataOutputStream(outputStream);
+		}
+	};
+	private static final Deserializer<Chunk, DataInputStream, Point> DESERIALIZER = new Deserializer<Chunk, DataInputStream, Point>() {
+		@Override
+		public Chunk read(DataInputStream stream, Point args) throws IOException {
+			Chunk chunk = new Chunk(args.x, args.y);
+			chunk.setValue(stream.readInt());
+			for (int i = 0; i < chunk.getValue(); i++)
+				assertEquals(i, stream.readInt());
+			return chunk;
+		}
+
+		@Override
+		public DataInputStream newStream(InputStream stream) {
+			return new DataInputStream(stream);
+		}
+	};
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void compactedRegionsKeepTheirChunks() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> cache = cache();
+		fragment(cache, 0);
+		long region = Region2D.regionKey(0, 0, 8);
+		StorageStats before = cache.getStorageStats(region);
+		assertTrue(before.getDeadBytes() > 0);
+		assertTrue(cache.compact(region));
+		StorageStats after = cache.getStorageStats(region);
+		assertEquals(before.getLiveBytes(), after.getLiveBytes());
+		assertTrue(after.getFileBytes() < before.getFileBytes());
+		check(cache(), 0);
+		assertNull(cache.getStorageStats(Region2D.regionKey(100, 100, 8)));
+	}
+
+	@Test
+	public void incrementalCompactionSkipsLiveRegions() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> cache = cache();
+		fragment(cache, 0);
+		// a second region without dead space
+		for (int y = 0; y < 8; y++) {
+			cache.get(8, y).setValue(100);
+			cache.markDirty(8, y);
+		}
+		cache.saveAll(true);
+		long fragmented = Region2D.regionKey(0, 0, 8), live = Region2D.regionKey(8, 0, 8);
+		long dead = cache.getStorageStats(fragmented).getDeadBytes();
+		long liveLength = cache.getStorageStats(live).getFileBytes();
+		assertEquals(dead, cache.compact(.1, Long.MAX_VALUE));
+		assertEquals(liveLength, cache.getStorageStats(live).getFileBytes());
+		assertEquals(0, cache.compact(.1, Long.MAX_VALUE));
+		check(cache, 0);
+	}
+
+	private PrioritisedRegionFile2DChunkCache<Chunk> cache() {
+		return new PrioritisedRegionFile2DChunkCache<>(folder, Chunk::new, DESERIALIZER, SERIALIZER, 4, 16, 8, StorageBackend.STREAM, Codecs.NONE);
+	}
+
+	// writes a column of chunks and then grows every other one so the region file is left with holes
+	private static void fragment(PrioritisedRegionFile2DChunkCache<Chunk> cache, int x) throws IOException {
+		for (int y = 0; y < 8; y++) {
+			cache.get(x, y).setValue(200);
+			cache.markDirty(x, y);
+		}
+		cache.saveAll(true);
+		for (int y = 0; y < 8; y += 2) {
+			cache.get(x, y).setValue(1000);
+			cache.markDirty(x, y);
+		}
+		cache.saveAll(true);
+	}
+
+	private static void check(PrioritisedRegionFile2DChunkCache<Chunk> cache, int x) {
+		for (int y = 0; y < 8; y++)
+			assertEquals(y % 2 == 0 ? 1000 : 200, cache.get(x, y).getValue());
+	}
+}
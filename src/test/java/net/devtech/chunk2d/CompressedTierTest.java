@@ -0,0 +1,147 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class CompressedTierTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void evictedChunksAreKeptCompressed() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(1 << 16);
+		evict(cache, 0, 0, 7);
+		assertEquals(UNLOADED_COMPRESSED, cache.getPriority(0, 0));
+		assertFalse(cache.isStored(0, 0));
+		assertEquals(1, cache.getCompressedTier().size());
+		assertEquals(7, cache.get(0, 0).getValue());
+		assertEquals(0, cache.getCompressedTier().size());
+	}
+
+	@Test
+	public void overflowingChunksAreWritten() {
+		// room for a single chunk
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(1024);
+		evict(cache, 0, 0, 7);
+		evict(cache, 1, 0, 8);
+		assertEquals(UNLOADED, cache.getPriority(0, 0));
+		assertTrue(cache.isStored(0, 0));
+		assertEquals(UNLOADED_COMPRESSED, cache.getPriority(1, 0));
+		assertEquals(7, cache.get(0, 0).getValue());
+	}
+
+	@Test
+	public void failedWritesKeepTheChunks() throws IOException {
+		boolean[] failing = {false};
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<Chunk>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 1, 1) {
+			@Override
+			protected void store(int x, int y, ByteBuffer data) throws IOException {
+				if (failing[0]) throw new IOException("disk full");
+				super.store(x, y, data);
+			}
+		};
+		// room for a single chunk
+		cache.enableCompressedTier(1024);
+		evict(cache, 0, 0, 7);
+		failing[0] = true;
+		try {
+			evict(cache, 1, 0, 8);
+			fail();
+		} catch (RuntimeException expected) {
+		}
+		// neither the compressed chunk nor the one that needed its room was dropped
+		assertEquals(UNLOADED_COMPRESSED, cache.getPriority(0, 0));
+		assertEquals(UNLOADED_CACHED, cache.getPriority(1, 0));
+		assertFalse(cache.isStored(0, 0));
+
+		failing[0] = false;
+		cache.saveAll(true);
+		PrioritisedFile2DChunkCache<Chunk> reopened = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 1, 1);
+		assertEquals(7, reopened.get(0, 0).getValue());
+		assertEquals(8, reopened.get(1, 0).getValue());
+	}
+
+	@Test
+	public void chunksAreCountedWhenTheyAreWritten() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(1024);
+		CacheStats stats = new CacheStats();
+		cache.setStats(stats);
+		List<Point> saved = new ArrayList<>();
+		cache.setListener(new CacheListener<Chunk>() {
+			@Override
+			public void onSave(int x, int y, Chunk chunk) {
+				saved.add(new Point(x, y));
+			}
+		});
+		evict(cache, 0, 0, 7);
+		// compressing into the tier is not a save
+		assertEquals(0, stats.snapshot().saves);
+		assertEquals(0, stats.snapshot().bytesWritten);
+		// the tier holds a single chunk, so the chunk and the generated one that pushed it out are written in turn
+		evict(cache, 1, 0, 8);
+		CacheStats.Snapshot snapshot = stats.snapshot();
+		assertEquals(2, snapshot.saves);
+		assertTrue(snapshot.bytesWritten > 0);
+		assertEquals(8, snapshot.bytesSerialized);
+		assertEquals(Arrays.asList(new Point(0, 0), new Point(100, 0)), saved);
+	}
+
+	@Test
+	public void saveAllWritesCompressedChunks() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(1 << 16);
+		evict(cache, 0, 0, 7);
+		cache.saveAll(true);
+		assertEquals(0, cache.getCompressedTier().size());
+		PrioritisedFile2DChunkCache<Chunk> reopened = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 1, 1);
+		assertEquals(7, reopened.get(0, 0).getValue());
+	}
+
+	@Test
+	public void setChunksReplaceTheCompressedCopy() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(1 << 16);
+		evict(cache, 0, 0, 7);
+		Chunk chunk = new Chunk(0, 0);
+		chunk.setValue(9);
+		cache.set(0, 0, chunk);
+		assertFalse(cache.getCompressedTier().contains(Located2D.key(0, 0)));
+		cache.saveAll(true);
+		assertEquals(9, cache.get(0, 0).getValue());
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache(long budget) {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 1, 1);
+		cache.enableCompressedTier(budget);
+		return cache;
+	}
+
+	// changes the chunk and pushes it out of the unloaded cache with a chunk far away
+	private static void evict(PrioritisedFile2DChunkCache<Chunk> cache, int x, int y, int value) {
+		cache.get(x, y).setValue(value);
+		cache.markDirty(x, y);
+		cache.unload(x, y);
+		cache.get(x + 100, y);
+		cache.unload(x + 100, y);
+	}
+}
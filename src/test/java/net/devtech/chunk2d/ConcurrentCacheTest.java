@@ -0,0 +1,160 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentCacheTest {
+	private static final int THREADS = 8, SIZE = 96;
+	private File folder;
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+		pool = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void parallelWritesAreSaved() throws Exception {
+		// small limits so the stripes evict and save while the threads are writing
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> cache = cache(64, 256);
+		run(thread -> {
+			for (int x = thread; x < SIZE; x += THREADS)
+				for (int y = 0; y < SIZE; y++) {
+					Chunk chunk = new Chunk(x, y);
+					chunk.setValue(value(x, y));
+					cache.set(x, y, chunk);
+					// reads of chunks other threads own
+					cache.get(y, x);
+				}
+		});
+		cache.saveAll(true);
+		assertEquals(0, cache.size());
+
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> reopened = cache(64, 256);
+		run(thread -> {
+			for (int x = 0; x < SIZE; x++)
+				for (int y = thread; y < SIZE; y += THREADS)
+					assertEquals(value(x, y), reopened.get(x, y).getValue());
+		});
+	}
+
+	@Test
+	public void threadsShareTheCachedChunk() throws Exception {
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> cache = cache(1024, 4096);
+		Chunk[][] seen = new Chunk[THREADS][SIZE];
+		run(thread -> {
+			for (int x = 0; x < SIZE; x++)
+				seen[thread][x] = cache.get(x, x);
+		});
+		for (int thread = 1; thread < THREADS; thread++)
+			for (int x = 0; x < SIZE; x++)
+				assertSame(seen[0][x], seen[thread][x]);
+		assertEquals(SIZE, cache.size());
+	}
+
+	@Test
+	public void tiersStayWithinTheirLimits() throws Exception {
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> cache = cache(32, 128);
+		run(thread -> {
+			for (int i = 0; i < 4000; i++) {
+				int x = (i * 31 + thread * 7) % SIZE, y = (i * 17) % SIZE;
+				cache.get(x, y);
+				if (i % 3 == 0) cache.unload(x, y);
+			}
+		});
+		// every stripe keeps its share of the limits
+		assertTrue(cache.getWeight(PrioritisedFile2DChunkCache.Priority.FREQUENT) <= 32);
+		assertTrue(cache.getWeight(PrioritisedFile2DChunkCache.Priority.UNLOADED_CACHED) <= 128);
+	}
+
+	@Test
+	public void limitsAreSplitBetweenTheCreatedStripes() {
+		// 3 stripes are rounded up to 4, which share the limits
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> cache = new ConcurrentPrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 12, 24, 3);
+		for (int x = 0; x < SIZE; x++)
+			for (int y = 0; y < SIZE; y += 8) {
+				cache.get(x, y);
+				cache.unload(x, y);
+			}
+		assertTrue(cache.getWeight(PrioritisedFile2DChunkCache.Priority.UNLOADED_CACHED) <= 24);
+	}
+
+	@Test
+	public void closeWritesQueuedSaves() throws Exception {
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> cache = new ConcurrentPrioritisedFile2DChunkCache<>(THREADS, 32, i -> {
+			PrioritisedFile2DChunkCache<Chunk> stripe = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 8, 32);
+			stripe.enableWriteBehind(16);
+			return stripe;
+		});
+		run(thread -> {
+			for (int x = thread; x < SIZE; x += THREADS)
+				cache.get(x, 0).setValue(value(x, 0));
+		});
+		for (int x = 0; x < SIZE; x++)
+			cache.markDirty(x, 0);
+		cache.saveAll(true);
+		cache.close();
+		// the writer threads are stopped
+		try {
+			cache.set(0, 0, new Chunk(0, 0));
+			cache.save(0, 0, true);
+			fail();
+		} catch (RuntimeException expected) {
+			assertTrue(expected.getCause() instanceof IllegalStateException);
+		}
+
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> reopened = cache(64, 256);
+		for (int x = 1; x < SIZE; x++)
+			assertEquals(value(x, 0), reopened.get(x, 0).getValue());
+	}
+
+	private ConcurrentPrioritisedFile2DChunkCache<Chunk> cache(int frequentSize, int inMemorySize) {
+		return new ConcurrentPrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, frequentSize, inMemorySize, THREADS);
+	}
+
+	// runs the body on every thread at once and rethrows the first failure
+	private void run(ThreadBody body) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			int thread = i;
+			futures.add(pool.submit((Callable<Void>) () -> {
+				start.await();
+				body.run(thread);
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<Void> future : futures)
+			future.get();
+	}
+
+	private static int value(int x, int y) {
+		return x * SIZE + y;
+	}
+
+	private interface ThreadBody {
+		void run(int thread) throws Exception;
+	}
+}
@@ -0,0 +1,120 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.data.BufferDeserializer2D;
+import net.devtech.data.Deserializer2D;
+import net.devtech.data.StorageBackend;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.awt.Point;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CoordinateDeserializerTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void streamDeserializersGetRawCoordinates() throws IOException {
+		Deserializer2D<Chunk, DataInputStream> deserializer = new Deserializer2D<Chunk, DataInputStream>() {
+			@Override
+			public Chunk read(DataInputStream stream, int x, int y) throws IOException {
+				Chunk chunk = new Chunk(x, y);
+				chunk.setValue(stream.readInt());
+				return chunk;
+			}
+
+			@Override
+			public Chunk read(DataInputStream stream, Point args) {
+				throw new AssertionError("a point was allocated");
+			}
+
+			@Override
+			public DataInputStream newStream(InputStream stream) {
+				return new DataInputStream(stream);
+			}
+		};
+		roundTrip(new PrioritisedFile2DChunkCache<>(folder, Chunk::new, deserializer, TestChunks.SERIALIZER, 4, 16));
+	}
+
+	@Test
+	public void bufferDeserializersGetRawCoordinates() throws IOException {
+		BufferDeserializer2D<Chunk> deserializer = new BufferDeserializer2D<Chunk>() {
+			@Override
+			public Chunk read(ByteBuffer buffer, int x, int y) {
+				Chunk chunk = new Chunk(x, y);
+				chunk.setValue(buffer.getInt());
+				return chunk;
+			}
+
+			@Override
+			public Chunk read(ByteBuffer buffer, Point args) {
+				throw new AssertionError("a point was allocated");
+			}
+		};
+		for (StorageBackend backend : StorageBackend.values()) {
+			File files = new File(folder, backend.name());
+			files.mkdir();
+			roundTrip(new PrioritisedRegionFile2DChunkCache<>(files, Chunk::new, deserializer.asDeserializer(), TestChunks.SERIALIZER, 4, 16, 8, backend));
+		}
+	}
+
+	@Test
+	public void pointOverloadsForwardToTheCoordinates() throws IOException {
+		Deserializer2D<Chunk, InputStream> deserializer = new Deserializer2D<Chunk, InputStream>() {
+			@Override
+			public Chunk read(InputStream stream, int x, int y) {
+				return new Chunk(x, y);
+			}
+
+			@Override
+			public InputStream newStream(InputStream stream) {
+				return stream;
+			}
+		};
+		Chunk chunk = deserializer.read((InputStream) null, new Point(-3, 7));
+		assertEquals(-3, chunk.getX());
+		assertEquals(7, chunk.getY());
+	}
+
+	@Test
+	public void keysPackBothCoordinates() {
+		for (int x : new int[] {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE})
+			for (int y : new int[] {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+				long key = Located2D.key(x, y);
+				assertEquals(x, Located2D.keyX(key));
+				assertEquals(y, Located2D.keyY(key));
+				assertEquals(key, Located2D.of(x, y).getKey());
+			}
+	}
+
+	// saves chunks on both sides of the origin and reads them back through the deserializer
+	private static void roundTrip(PrioritisedFile2DChunkCache<Chunk> cache) throws IOException {
+		for (int x = -10; x < 10; x += 3) {
+			cache.get(x, -x).setValue(x);
+			cache.markDirty(x, -x);
+		}
+		cache.saveAll(true);
+		for (int x = -10; x < 10; x += 3) {
+			Chunk chunk = cache.get(x, -x);
+			assertEquals(x, chunk.getValue());
+			assertEquals(-x, chunk.getY());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.data.Deserializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.awt.Point;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class DirtyTrackingTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void generatedChunksAreSavedOnce() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		cache.get(0, 0);
+		cache.saveAll(false);
+		assertEquals(0, cache.getSkippedSaves());
+		assertTrue(cache.isStored(0, 0));
+		cache.saveAll(false);
+		assertEquals(1, cache.getSkippedSaves());
+	}
+
+	@Test
+	public void loadedChunksAreCleanUntilMarked() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> writer = cache();
+		writer.get(0, 0).setValue(1);
+		writer.markDirty(0, 0);
+		writer.saveAll(true);
+
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		// a change that was not marked is not written
+		cache.get(0, 0).setValue(2);
+		cache.saveAll(false);
+		assertEquals(1, cache.getSkippedSaves());
+		cache.get(0, 0).setValue(3);
+		cache.markDirty(0, 0);
+		cache.saveAll(true);
+		assertEquals(1, cache.getSkippedSaves());
+		assertEquals(3, cache().get(0, 0).getValue());
+	}
+
+	@Test
+	public void dirtyChunksAreWrittenWhenEvicted() {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 1, 1);
+		cache.get(0, 0).setValue(7);
+		cache.markDirty(0, 0);
+		cache.unload(0, 0);
+		for (int x = 1; x < 4; x++) {
+			cache.get(x, 0);
+			cache.unload(x, 0);
+		}
+		assertEquals(PrioritisedFile2DChunkCache.Priority.UNLOADED, cache.getPriority(0, 0));
+		assertEquals(7, cache.get(0, 0).getValue());
+	}
+
+	@Test
+	public void dirtyableChunksTrackThemselves() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, TrackedChunk::new, new Deserializer<Chunk, DataInputStream, Point>() {
+			@Override
+			public Chunk read(DataInputStream stream, Point args) throws IOException {
+				TrackedChunk chunk = new TrackedChunk(args.x, args.y);
+				chunk.setValue(stream.readInt());
+				return chunk;
+			}
+
+			@Override
+			public DataInputStream newStream(InputStream stream) {
+				return new DataInputStream(stream);
+			}
+		}, TestChunks.SERIALIZER, 4, 16);
+		TrackedChunk chunk = (TrackedChunk) cache.get(0, 0);
+		cache.saveAll(false);
+		assertFalse(chunk.isDirty());
+		cache.saveAll(false);
+		assertEquals(1, cache.getSkippedSaves());
+		chunk.setValue(5);
+		chunk.setDirty(true);
+		cache.saveAll(true);
+		assertEquals(1, cache.getSkippedSaves());
+		chunk = (TrackedChunk) cache.get(0, 0);
+		assertEquals(5, chunk.getValue());
+		assertFalse(chunk.isDirty());
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache() {
+		return new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16);
+	}
+
+	private static class TrackedChunk extends Chunk implements Dirtyable {
+		private boolean dirty;
+
+		TrackedChunk(int x, int y) {
+			super(x, y);
+		}
+
+		@Override
+		public boolean isDirty() {
+			return dirty;
+		}
+
+		@Override
+		public void setDirty(boolean dirty) {
+			this.dirty = dirty;
+		}
+	}
+}
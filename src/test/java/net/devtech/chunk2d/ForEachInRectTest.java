@@ -0,0 +1,77 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class ForEachInRectTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void visitsOnlyTheGivenTiers() {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 8);
+		for (int x = 0; x < 4; x++)
+			cache.get(x, 0);
+		cache.unload(3, 0);
+		List<Chunk> visited = new ArrayList<>();
+		cache.forEachInRect(0, 0, 10, 10, EnumSet.of(FREQUENT, LOADED), visited::add);
+		assertEquals(3, visited.size());
+		visited.clear();
+		cache.forEachInRect(0, 0, 10, 10, EnumSet.of(UNLOADED_CACHED), visited::add);
+		assertEquals(1, visited.size());
+		assertEquals(3, visited.get(0).getX());
+	}
+
+	@Test
+	public void doesNotChangePriorities() {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 8);
+		// the frequent chunks are accessed again after every new chunk, so the new chunks are the ones that are demoted
+		for (int next = 4; next < 6; next++) {
+			for (int i = 0; i < 2; i++)
+				for (int x = 0; x < 4; x++)
+					cache.get(x, 0);
+			cache.get(next, 0);
+		}
+		assertEquals(LOADED, cache.getPriority(4, 0));
+		assertEquals(LOADED, cache.getPriority(5, 0));
+		for (int i = 0; i < 5; i++)
+			cache.forEachInRect(0, 0, 5, 0, EnumSet.of(FREQUENT, LOADED), c -> {});
+		cache.set(6, 0, new Chunk(6, 0));
+		assertEquals(LOADED, cache.getPriority(4, 0));
+		assertEquals(LOADED, cache.getPriority(5, 0));
+	}
+
+	@Test
+	public void radiusQueriesAreRound() {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 100, 100);
+		for (int x = -3; x <= 3; x++)
+			for (int y = -3; y <= 3; y++)
+				cache.get(x, y);
+		List<Chunk> visited = new ArrayList<>();
+		cache.forEachInRadius(0, 0, 2, EnumSet.allOf(PrioritisedFile2DChunkCache.Priority.class), visited::add);
+		// 5 chunks on the x = 0 column, 3 on each of x = -1 and 1 and 1 on each of x = -2 and 2
+		assertEquals(13, visited.size());
+		for (Chunk chunk : visited)
+			assertTrue(chunk.getX() * chunk.getX() + chunk.getY() * chunk.getY() <= 4);
+	}
+}
@@ -0,0 +1,42 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class FrequentTrimTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void trimsUntilWithinLimit() {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 8);
+		for (int x = 0; x < 6; x++)
+			cache.get(x, 0);
+		// the loaded chunks are accessed more than the next new chunk, so they are all promoted with it and
+		// have to be demoted again in the same update
+		for (int i = 0; i < 3; i++)
+			for (int x = 0; x < 6; x++)
+				cache.get(x, 0);
+		for (int x = 6; x < 10; x++) {
+			cache.get(x, 0);
+			assertTrue(cache.getWeight(FREQUENT) <= 2);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class GetAsyncTest {
+	private File folder;
+	// loads run when the test runs them
+	private final List<Runnable> tasks = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void requestsShareOneLoad() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(Chunk::new);
+		CompletableFuture<Chunk> first = cache.getAsync(1, 2), second = cache.getAsync(1, 2);
+		assertSame(first, second);
+		assertEquals(1, tasks.size());
+		assertFalse(first.isDone());
+		runTasks();
+		assertTrue(first.isDone());
+	}
+
+	@Test
+	public void loadsAreInstalledByTheNextCall() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(Chunk::new);
+		CompletableFuture<Chunk> future = cache.getAsync(3, 4);
+		runTasks();
+		// any call on the cache installs the finished load
+		cache.getPriority(0, 0);
+		assertEquals(PrioritisedFile2DChunkCache.Priority.FREQUENT, cache.getPriority(3, 4));
+		assertSame(future.join(), cache.get(3, 4));
+		assertTrue(cache.getAsync(3, 4).isDone());
+		assertTrue(tasks.isEmpty());
+	}
+
+	@Test
+	public void blockingGetsWaitForTheLoad() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(Chunk::new);
+		CompletableFuture<Chunk> future = cache.getAsync(5, 6);
+		runTasks();
+		assertSame(future.join(), cache.get(5, 6));
+		// the awaited load is not installed a second time
+		cache.getPriority(0, 0);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void storedChunksAreReadInsteadOfGenerated() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> writer = cache(Chunk::new);
+		writer.get(7, 8).setValue(42);
+		writer.markDirty(7, 8);
+		writer.saveAll(true);
+
+		PrioritisedFile2DChunkCache<Chunk> cache = cache((x, y) -> {
+			throw new AssertionError("chunk " + x + ", " + y + " was generated");
+		});
+		CompletableFuture<Chunk> future = cache.getAsync(7, 8);
+		runTasks();
+		assertEquals(42, future.join().getValue());
+	}
+
+	@Test
+	public void failedLoadsAreNotInstalled() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache((x, y) -> {
+			throw new IllegalStateException("broken generator");
+		});
+		CompletableFuture<Chunk> future = cache.getAsync(0, 1);
+		runTasks();
+		assertTrue(future.isCompletedExceptionally());
+		cache.getPriority(0, 0);
+		assertEquals(PrioritisedFile2DChunkCache.Priority.UNLOADED, cache.getPriority(0, 1));
+		assertEquals(0, cache.size());
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache(ChunkFunction2D<Chunk> function) {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, function, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16);
+		cache.setLoadExecutor(tasks::add);
+		return cache;
+	}
+
+	private void runTasks() {
+		List<Runnable> run = new ArrayList<>(tasks);
+		tasks.clear();
+		for (Runnable task : run)
+			task.run();
+	}
+}
@@ -0,0 +1,74 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class JournalRecoveryTest {
+	private static final long NEVER = 1000 * 60 * 60;
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache(boolean region) throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = region ? new PrioritisedRegionFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 2, 4) : new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 2);
+		cache.enableJournal(new File(folder, "journal"), NEVER);
+		return cache;
+	}
+
+	private void checkpointedAfterCrash(boolean region) throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> crashed = cache(region);
+		Chunk chunk = new Chunk(1, 1);
+		chunk.setValue(777);
+		crashed.set(1, 1, chunk);
+		crashed.save(1, 1, true);
+
+		// the crashed cache is never closed, the new one replays its journal
+		PrioritisedFile2DChunkCache<Chunk> reopened = cache(region);
+		reopened.get(1, 0);
+		reopened.flush();
+		assertEquals(0, reopened.journal.size());
+		assertEquals(777, reopened.get(1, 1).getValue());
+	}
+
+	@Test
+	public void replayedChunksAreFoundAfterCheckpoint() throws IOException {
+		checkpointedAfterCrash(false);
+	}
+
+	@Test
+	public void replayedRegionChunksAreFoundAfterCheckpoint() throws IOException {
+		checkpointedAfterCrash(true);
+	}
+
+	@Test
+	public void folderScanSeesFilesWrittenLater() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> reader = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 2);
+		// an old modification time, so the new file changes it even on coarse file systems
+		assertTrue(folder.setLastModified(System.currentTimeMillis() - 60_000));
+		// the first scan happens before the other cache writes the chunk of another index region
+		reader.get(0, 0);
+		PrioritisedFile2DChunkCache<Chunk> writer = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 2);
+		Chunk chunk = new Chunk(100, 100);
+		chunk.setValue(5);
+		writer.set(100, 100, chunk);
+		writer.save(100, 100, true);
+		writer.flush();
+		assertTrue(reader.isStored(100, 100));
+		assertEquals(5, reader.get(100, 100).getValue());
+	}
+}
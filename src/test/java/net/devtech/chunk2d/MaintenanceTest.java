@@ -0,0 +1,66 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class MaintenanceTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	// a cache with a few frequent chunks and many accessed loaded chunks
+	private PrioritisedFile2DChunkCache<Chunk> cache() {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 1000);
+		for (int i = 0; i < 2; i++)
+			for (int x = 0; x < 4; x++)
+				cache.get(x, 0);
+		for (int x = 4; x < 500; x++)
+			cache.get(x, 0);
+		return cache;
+	}
+
+	@Test
+	public void slicesLookAtBoundedWork() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		assertTrue(cache.getWeight(LOADED) > PrioritisedFile2DChunkCache.MAINTENANCE_SLICE * 2);
+		cache.enableMaintenance(1000);
+		// every loaded chunk is accessed, so the next update offers all of them a promotion
+		for (int x = 4; x < 500; x++)
+			cache.get(x, 0);
+		cache.get(1000, 0);
+		long frequent = cache.getWeight(FREQUENT);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(cache.maintainOnce());
+			assertTrue(cache.getWeight(FREQUENT) - frequent <= PrioritisedFile2DChunkCache.MAINTENANCE_SLICE);
+			frequent = cache.getWeight(FREQUENT);
+		}
+		assertTrue(cache.maintain(Long.MAX_VALUE));
+		assertTrue(cache.getWeight(FREQUENT) <= 4);
+	}
+
+	@Test
+	public void finishesWithTicketedChunksOverTheLimit() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		cache.enableMaintenance(1000);
+		cache.addTicket(100, 100, 2, FREQUENT);
+		cache.get(1000, 0);
+		assertTrue(cache.maintain(Long.MAX_VALUE));
+		assertEquals(25, cache.getWeight(FREQUENT));
+	}
+}
@@ -0,0 +1,109 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.data.Serializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelSaveTest {
+	private File folder;
+	private ForkJoinPool pool;
+	// chunks on this x fail to serialize while it is set
+	private volatile int broken = Integer.MIN_VALUE;
+	private final Serializer<Chunk, DataOutputStream> serializer = new Serializer<Chunk, DataOutputStream>() {
+		@Override
+		public void write(Chunk chunk, DataOutputStream output) throws IOException {
+			if (chunk.getX() == broken) throw new IOException("disk full");
+			output.writeInt(chunk.getValue());
+		}
+
+		@Override
+		public DataOutputStream newStream(OutputStream outputStream) {
+			return new DataOutputStream(outputStream);
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void savesEveryDirtyChunk() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> cache = cache();
+		for (int x = 0; x < 40; x++)
+			for (int y = 0; y < 40; y += 4) {
+				cache.get(x, y).setValue(x * 100 + y);
+				cache.markDirty(x, y);
+			}
+		SaveSummary summary = cache.saveAll(true, pool);
+		assertTrue(summary.getFailures().isEmpty());
+		assertEquals(400, summary.getChunks());
+		assertTrue(summary.getBytes() > 0);
+		assertEquals(0, cache.size());
+
+		PrioritisedRegionFile2DChunkCache<Chunk> reopened = cache();
+		for (int x = 0; x < 40; x++)
+			for (int y = 0; y < 40; y += 4)
+				assertEquals(x * 100 + y, reopened.get(x, y).getValue());
+		assertEquals(0, reopened.saveAll(false, pool).getChunks());
+		assertEquals(400, reopened.getSkippedSaves());
+	}
+
+	@Test
+	public void failedFilesKeepTheirChunks() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> cache = cache();
+		for (int x = 0; x < 32; x++)
+			cache.get(x, 0).setValue(x);
+		broken = 20;
+		SaveSummary summary = cache.saveAll(true, pool);
+		// the region of x = 16 to 23 failed, the other 3 regions were written
+		assertEquals(1, summary.getFailures().size());
+		assertEquals(24, summary.getChunks());
+		assertEquals(8, cache.size());
+		try {
+			summary.rethrow();
+			fail("the failure was not rethrown");
+		} catch (IOException expected) {
+			assertEquals(1, expected.getSuppressed().length);
+		}
+
+		broken = Integer.MIN_VALUE;
+		summary = cache.saveAll(true, pool);
+		assertTrue(summary.getFailures().isEmpty());
+		assertEquals(8, summary.getChunks());
+		PrioritisedRegionFile2DChunkCache<Chunk> reopened = cache();
+		for (int x = 0; x < 32; x++)
+			assertEquals(x, reopened.get(x, 0).getValue());
+	}
+
+	@Test
+	public void chunkFilesAreSavedInParallel() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, serializer, 4, 16);
+		for (int x = 0; x < 50; x++)
+			cache.get(x, x);
+		assertEquals(50, cache.saveAll(false, pool).getChunks());
+		for (int x = 0; x < 50; x++)
+			assertTrue(cache.isStored(x, x));
+	}
+
+	private PrioritisedRegionFile2DChunkCache<Chunk> cache() {
+		return new PrioritisedRegionFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, serializer, 4, 16, 8);
+	}
+}
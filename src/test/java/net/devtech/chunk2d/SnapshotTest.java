@@ -0,0 +1,116 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void snapshotsHoldTheStateWhenTheyWereTaken() throws IOException {
+		for (boolean regions : new boolean[] {false, true}) {
+			File storage = child(regions + "-storage"), target = new File(folder, regions + "-snapshot");
+			PrioritisedFile2DChunkCache<Chunk> cache = regions ? new PrioritisedRegionFile2DChunkCache<>(storage, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8) : new PrioritisedFile2DChunkCache<>(storage, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16);
+			fill(cache);
+			Snapshot snapshot = cache.snapshot(target, false);
+			// changes made after the snapshot was taken are not in it, even if they are saved before it is written
+			change(cache, 100);
+			cache.saveAll(true);
+			snapshot.getFuture().join();
+			// the chunks that were only in memory
+			assertEquals(4, snapshot.getChunks());
+
+			check(cache(target, regions), 0);
+			check(cache(storage, regions), 100);
+		}
+	}
+
+	@Test
+	public void archivesCanBeUnzippedIntoAFolder() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> cache = new PrioritisedRegionFile2DChunkCache<>(child("storage"), Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8);
+		fill(cache);
+		File zip = new File(folder, "snapshot.zip");
+		Snapshot snapshot = cache.snapshot(zip, true);
+		change(cache, 100);
+		cache.saveAll(true);
+		snapshot.getFuture().join();
+		assertTrue(zip.isFile());
+		assertFalse(new File(zip.getPath() + ".tmp").exists());
+
+		File unzipped = child("unzipped");
+		try (InputStream in = Files.newInputStream(zip.toPath()); ZipInputStream entries = new ZipInputStream(in)) {
+			ZipEntry entry;
+			while ((entry = entries.getNextEntry()) != null)
+				Files.copy(entries, new File(unzipped, entry.getName()).toPath());
+		}
+		check(cache(unzipped, true), 0);
+	}
+
+	@Test
+	public void queuedSavesAreCaptured() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(child("storage"), Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16);
+		cache.enableWriteBehind(64);
+		fill(cache);
+		File target = new File(folder, "snapshot");
+		cache.snapshot(target, false).getFuture().join();
+		cache.flush();
+		check(cache(target, false), 0);
+	}
+
+	// a cache that reads the storage and fails for chunks that are not in it
+	private PrioritisedFile2DChunkCache<Chunk> cache(File storage, boolean regions) {
+		ChunkFunction2D<Chunk> missing = (x, y) -> {
+			throw new AssertionError("chunk " + x + ", " + y + " is not in " + storage);
+		};
+		if (regions) return new PrioritisedRegionFile2DChunkCache<>(storage, missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8);
+		return new PrioritisedFile2DChunkCache<>(storage, missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16);
+	}
+
+	// saves half of the chunks and leaves the other half dirty in memory
+	private static void fill(PrioritisedFile2DChunkCache<Chunk> cache) throws IOException {
+		for (int x = 0; x < 16; x += 2) {
+			cache.get(x, 0).setValue(x);
+			cache.markDirty(x, 0);
+			if (x < 8) cache.save(x, 0, true);
+		}
+	}
+
+	private static void change(PrioritisedFile2DChunkCache<Chunk> cache, int offset) {
+		for (int x = 0; x < 16; x += 2) {
+			cache.get(x, 0).setValue(x + offset);
+			cache.markDirty(x, 0);
+		}
+	}
+
+	private static void check(PrioritisedFile2DChunkCache<Chunk> cache, int offset) {
+		for (int x = 0; x < 16; x += 2)
+			assertEquals(x + offset, cache.get(x, 0).getValue());
+	}
+
+	private File child(String name) {
+		File child = new File(folder, name);
+		child.mkdir();
+		return child;
+	}
+}
@@ -0,0 +1,101 @@
+package net.devtech.chunk2d;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.devtech.Chunk;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StagedChunkFunction2DTest {
+	// sets the chunk to 1
+	private static final GenerationStage<Chunk> FILL = new GenerationStage<Chunk>() {
+		@Override
+		public int getRadius() {
+			return 0;
+		}
+
+		@Override
+		public void generate(Chunk chunk, int x, int y, Neighbors<Chunk> neighbors) {
+			chunk.setValue(1);
+		}
+	};
+	// adds the number of filled neighbors times 10
+	private static final GenerationStage<Chunk> COUNT = new GenerationStage<Chunk>() {
+		@Override
+		public int getRadius() {
+			return 1;
+		}
+
+		@Override
+		public void generate(Chunk chunk, int x, int y, Neighbors<Chunk> neighbors) {
+			int filled = 0;
+			for (int dx = -1; dx <= 1; dx++)
+				for (int dy = -1; dy <= 1; dy++) {
+					Chunk neighbor = neighbors.get(x + dx, y + dy);
+					if (neighbor != null && neighbor.getValue() % 10 == 1) filled++;
+				}
+			chunk.setValue(chunk.getValue() + filled * 10);
+		}
+	};
+
+	@Test
+	public void runsEveryStageAfterTheNeighborhood() {
+		StagedChunkFunction2D<Chunk> function = new StagedChunkFunction2D<>(Chunk::new, Arrays.asList(FILL, COUNT));
+		assertEquals(91, function.newChunk(0, 0).getValue());
+		assertEquals(2, function.getLevel(0, 0));
+		// the neighbors stay in the pipeline, past every stage that could still write into the center
+		assertEquals(2, function.getLevel(1, 0));
+		assertEquals(1, function.getLevel(2, 0));
+	}
+
+	@Test
+	public void storedNeighborsAreNull() {
+		StagedChunkFunction2D<Chunk> function = new StagedChunkFunction2D<>(Chunk::new, Arrays.asList(FILL, COUNT));
+		function.setStored((x, y) -> x == 1);
+		assertEquals(61, function.newChunk(0, 0).getValue());
+	}
+
+	@Test
+	public void failedChunksAreGeneratedAgain() {
+		AtomicBoolean broken = new AtomicBoolean(true);
+		StagedChunkFunction2D<Chunk> function = new StagedChunkFunction2D<>((x, y) -> {
+			if (x == 1 && broken.get()) throw new IllegalStateException("broken generator");
+			return new Chunk(x, y);
+		}, Arrays.asList(FILL, COUNT));
+		try {
+			function.newChunk(0, 0);
+			fail("the generator failed");
+		} catch (CompletionException expected) {}
+		broken.set(false);
+		assertEquals(91, function.newChunk(0, 0).getValue());
+	}
+
+	@Test
+	public void keepsOnlyTheNewestOrphans() {
+		StagedChunkFunction2D<Chunk> function = new StagedChunkFunction2D<>(Chunk::new, Arrays.asList(FILL, COUNT), ForkJoinPool.commonPool(), 4);
+		for (int i = 0; i < 20; i++)
+			function.newChunk(i * 100, 0);
+		assertEquals(4, function.size());
+		assertEquals(-1, function.getLevel(1, 0));
+		assertEquals(1, function.getLevel(1902, 0));
+	}
+
+	@Test
+	public void forgetsReleasedChunksOnceStored() {
+		LongSet stored = new LongOpenHashSet();
+		StagedChunkFunction2D<Chunk> function = new StagedChunkFunction2D<>(Chunk::new, Collections.singletonList(FILL));
+		function.setStored((x, y) -> stored.contains(Located2D.key(x, y)));
+		for (int x = 0; x < 100; x++) {
+			function.newChunk(x, 0);
+			assertEquals(1, function.getLevel(x, 0));
+			stored.add(Located2D.key(x, 0));
+		}
+		assertEquals(-1, function.getLevel(0, 0));
+	}
+}
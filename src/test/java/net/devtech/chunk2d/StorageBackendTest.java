@@ -0,0 +1,102 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.data.StorageBackend;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StorageBackendTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void chunksSurviveReopening() throws IOException {
+		for (StorageBackend backend : StorageBackend.values()) {
+			File files = child(backend.name());
+			write(new PrioritisedFile2DChunkCache<>(files, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, backend));
+			check(backend.name(), new PrioritisedFile2DChunkCache<>(files, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, backend));
+
+			File regions = child(backend.name() + "-region");
+			write(new PrioritisedRegionFile2DChunkCache<>(regions, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, backend));
+			check(backend.name() + " region", new PrioritisedRegionFile2DChunkCache<>(regions, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, backend));
+		}
+	}
+
+	@Test
+	public void backendsShareTheFileFormat() throws IOException {
+		StorageBackend[] backends = StorageBackend.values();
+		for (int i = 0; i < backends.length; i++) {
+			StorageBackend writer = backends[i], reader = backends[(i + 1) % backends.length];
+			File regions = child(writer.name());
+			write(new PrioritisedRegionFile2DChunkCache<>(regions, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, writer));
+			check(writer + " -> " + reader, new PrioritisedRegionFile2DChunkCache<>(regions, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, reader));
+		}
+	}
+
+	@Test
+	public void overwrittenChunksReadTheNewestValue() throws IOException {
+		for (StorageBackend backend : StorageBackend.values()) {
+			File regions = child(backend.name());
+			PrioritisedRegionFile2DChunkCache<Chunk> cache = new PrioritisedRegionFile2DChunkCache<>(regions, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, backend);
+			write(cache);
+			for (int x = 0; x < 12; x++) {
+				cache.get(x, 3).setValue(-x);
+				cache.markDirty(x, 3);
+			}
+			cache.saveAll(true);
+
+			PrioritisedRegionFile2DChunkCache<Chunk> reopened = new PrioritisedRegionFile2DChunkCache<>(regions, this::missing, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8, backend);
+			for (int x = 0; x < 12; x++)
+				assertEquals(backend.name(), -x, reopened.get(x, 3).getValue());
+			assertEquals(backend.name(), value(0, 4), reopened.get(0, 4).getValue());
+		}
+	}
+
+	// writes 12x12 chunks over several files and saves them
+	private static void write(PrioritisedFile2DChunkCache<Chunk> cache) throws IOException {
+		for (int x = 0; x < 12; x++)
+			for (int y = 0; y < 12; y++) {
+				cache.get(x, y).setValue(value(x, y));
+				cache.markDirty(x, y);
+			}
+		cache.saveAll(true);
+	}
+
+	private static void check(String name, PrioritisedFile2DChunkCache<Chunk> cache) {
+		for (int x = 0; x < 12; x++)
+			for (int y = 0; y < 12; y++) {
+				assertTrue(name, cache.isStored(x, y));
+				assertEquals(name, value(x, y), cache.get(x, y).getValue());
+			}
+	}
+
+	private File child(String name) {
+		File child = new File(folder, name);
+		child.mkdir();
+		return child;
+	}
+
+	private static int value(int x, int y) {
+		return x * 1000 + y;
+	}
+
+	// the reopened caches must read every chunk from disk
+	private Chunk missing(int x, int y) {
+		throw new AssertionError("chunk " + x + ", " + y + " was not stored");
+	}
+}
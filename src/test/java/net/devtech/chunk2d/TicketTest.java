@@ -0,0 +1,85 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class TicketTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache() {
+		return new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 2);
+	}
+
+	@Test
+	public void frequentTicketsSurviveTrimming() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		cache.addTicket(0, 0, 1, FREQUENT);
+		for (int i = 0; i < 50; i++)
+			cache.get(10 + i % 5, 10);
+		for (int x = -1; x <= 1; x++)
+			for (int y = -1; y <= 1; y++)
+				assertEquals(FREQUENT, cache.getPriority(x, y));
+	}
+
+	@Test
+	public void unloadedCachedTicketsSurviveEviction() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		cache.addTicket(0, 0, 1, UNLOADED_CACHED);
+		for (int i = 0; i < 20; i++) {
+			cache.get(10 + i, 10);
+			cache.unload(10 + i, 10);
+		}
+		for (int x = -1; x <= 1; x++)
+			for (int y = -1; y <= 1; y++)
+				assertEquals(UNLOADED_CACHED, cache.getPriority(x, y));
+		assertEquals(UNLOADED, cache.getPriority(10, 10));
+	}
+
+	@Test
+	public void removedTicketsLetChunksBeTrimmed() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache();
+		PrioritisedFile2DChunkCache.Ticket ticket = cache.addTicket(0, 0, 1, FREQUENT);
+		cache.removeTicket(ticket);
+		for (int i = 0; i < 20; i++) {
+			cache.get(10 + i, 10);
+			cache.unload(10 + i, 10);
+		}
+		assertEquals(UNLOADED, cache.getPriority(0, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCompressedLevel() {
+		cache().addTicket(0, 0, 1, UNLOADED_COMPRESSED);
+	}
+
+	@Test
+	public void concurrentTickets() {
+		ConcurrentPrioritisedFile2DChunkCache<Chunk> cache = new ConcurrentPrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 2, 4);
+		PrioritisedFile2DChunkCache.Ticket ticket = cache.addTicket(0, 0, 20, LOADED);
+		assertEquals(LOADED, cache.getTicketLevel(-20, 20));
+		assertNotEquals(UNLOADED, cache.getPriority(20, -20));
+		cache.moveTicket(ticket, 100, 0);
+		assertEquals(UNLOADED, cache.getTicketLevel(-20, 20));
+		assertEquals(LOADED, cache.getTicketLevel(120, 0));
+		cache.removeTicket(ticket);
+		assertEquals(UNLOADED, cache.getTicketLevel(100, 0));
+	}
+}
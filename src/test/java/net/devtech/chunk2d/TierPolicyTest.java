@@ -0,0 +1,98 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class TierPolicyTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache(TierPolicy policy) {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 2, 8);
+		cache.setTierPolicy(policy);
+		return cache;
+	}
+
+	@Test
+	public void segmentedLruDemotesTheLeastRecentlyUsed() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.segmentedLru());
+		cache.get(0, 0);
+		cache.get(1, 0);
+		cache.get(0, 0);
+		cache.get(2, 0);
+		assertEquals(FREQUENT, cache.getPriority(0, 0));
+		assertEquals(LOADED, cache.getPriority(1, 0));
+		assertEquals(FREQUENT, cache.getPriority(2, 0));
+	}
+
+	@Test
+	public void segmentedLruPromotesOnTheSecondAccess() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.segmentedLru());
+		for (int x = 0; x < 3; x++)
+			cache.get(x, 0);
+		assertEquals(LOADED, cache.getPriority(0, 0));
+		cache.get(0, 0);
+		assertEquals(FREQUENT, cache.getPriority(0, 0));
+		assertEquals(LOADED, cache.getPriority(1, 0));
+		assertEquals(2, cache.getWeight(FREQUENT));
+	}
+
+	@Test
+	public void tinyLfuKeepsPopularChunksOverNewOnes() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.tinyLfu(64));
+		for (int i = 0; i < 10; i++) {
+			cache.get(0, 0);
+			cache.get(1, 0);
+		}
+		// a new chunk pushes a popular one out, which wins its place back on its next access
+		cache.get(2, 0);
+		assertEquals(LOADED, cache.getPriority(0, 0));
+		cache.get(0, 0);
+		cache.get(1, 0);
+		assertEquals(LOADED, cache.getPriority(2, 0));
+		// the new chunk is less popular than either frequent chunk
+		cache.get(2, 0);
+		assertEquals(LOADED, cache.getPriority(2, 0));
+		assertEquals(FREQUENT, cache.getPriority(0, 0));
+		assertEquals(FREQUENT, cache.getPriority(1, 0));
+	}
+
+	@Test
+	public void tinyLfuAdmitsChunksThatBecomePopular() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.tinyLfu(64));
+		cache.get(0, 0);
+		cache.get(1, 0);
+		for (int i = 0; i < 5; i++)
+			cache.get(2, 0);
+		assertEquals(FREQUENT, cache.getPriority(2, 0));
+		assertEquals(2, cache.getWeight(FREQUENT));
+	}
+
+	@Test
+	public void policiesLeaveTicketedChunksAlone() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.segmentedLru());
+		cache.addTicket(0, 0, 0, FREQUENT);
+		for (int x = 1; x < 20; x++) {
+			cache.get(x, 0);
+			cache.get(x, 0);
+		}
+		assertEquals(FREQUENT, cache.getPriority(0, 0));
+	}
+}
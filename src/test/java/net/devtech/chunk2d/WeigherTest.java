@@ -0,0 +1,100 @@
+package net.devtech.chunk2d;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+
+import static net.devtech.chunk2d.PrioritisedFile2DChunkCache.Priority.*;
+import static org.junit.Assert.*;
+
+public class WeigherTest {
+	// chunks on x = 0 are 10 times heavier than the rest
+	private static final Weigher<Chunk> WEIGHER = chunk -> chunk.getX() == 0 ? 10 : 1;
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void tiersAreCappedByWeight() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.segmentedLru());
+		for (int y = 0; y < 20; y++)
+			cache.get(y % 4, y);
+		assertTrue(cache.getWeight(FREQUENT) <= 12);
+		for (int y = 0; y < 20; y++)
+			cache.unload(y % 4, y);
+		assertTrue(cache.getWeight(UNLOADED_CACHED) <= 24);
+		assertEquals(0, cache.getWeight(FREQUENT));
+		assertEquals(0, cache.getWeight(LOADED));
+	}
+
+	@Test
+	public void weightsFollowTheirChunks() throws IOException {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(TierPolicy.segmentedLru());
+		cache.get(0, 0);
+		assertEquals(10, cache.getWeight(FREQUENT));
+		for (int x = 1; x < 4; x++)
+			cache.get(x, 0);
+		// the heavy chunk is the least recently used one that makes room for the third light chunk
+		assertEquals(3, cache.getWeight(FREQUENT));
+		assertEquals(10, cache.getWeight(LOADED));
+		cache.unload(0, 0);
+		assertEquals(0, cache.getWeight(LOADED));
+		assertEquals(10, cache.getWeight(UNLOADED_CACHED));
+		cache.save(0, 0, true);
+		assertEquals(0, cache.getWeight(UNLOADED_CACHED));
+	}
+
+	@Test
+	public void scanningTrimStaysWithinTheWeight() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(null);
+		for (int i = 0; i < 5; i++)
+			for (int x = 0; x < 8; x++) {
+				cache.get(x, 0);
+				assertTrue(cache.getWeight(FREQUENT) <= 12);
+			}
+	}
+
+	@Test
+	public void heavyChunksDemoteTheLeastAccessed() {
+		PrioritisedFile2DChunkCache<Chunk> cache = cache(null);
+		for (int i = 0; i < 4; i++)
+			for (int y = 0; y < 10; y++)
+				cache.get(1, y);
+		cache.get(2, 0);
+		cache.get(2, 1);
+		// the heavy chunk pushes the tier over by 10, the rarely accessed chunks are demoted before the popular ones
+		cache.get(0, 0);
+		assertTrue(cache.getWeight(FREQUENT) <= 12);
+		for (int y = 0; y < 10; y++)
+			assertEquals(FREQUENT, cache.getPriority(1, y));
+		assertEquals(LOADED, cache.getPriority(2, 0));
+		assertEquals(LOADED, cache.getPriority(2, 1));
+	}
+
+	@Test
+	public void theDefaultWeighsEveryChunkOnce() {
+		assertEquals(1, Weigher.<Chunk> singleton().weigh(new Chunk(0, 0)));
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 8);
+		for (int x = 0; x < 3; x++)
+			cache.get(x, 0);
+		assertEquals(3, cache.getWeight(FREQUENT));
+	}
+
+	private PrioritisedFile2DChunkCache<Chunk> cache(TierPolicy policy) {
+		PrioritisedFile2DChunkCache<Chunk> cache = new PrioritisedFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 12, 24, WEIGHER);
+		if (policy != null) cache.setTierPolicy(policy);
+		return cache;
+	}
+}
@@ -0,0 +1,92 @@
+package net.devtech.data;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.chunk2d.PrioritisedRegionFile2DChunkCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferSerializerTest {
+	// writes the value as many times as the chunk's x says, so large chunks outgrow the thread buffer
+	private static final BufferSerializer<Chunk> SERIALIZER = (chunk, buffer) -> {
+		buffer.putInt(chunk.getX());
+		for (int i = 0; i < chunk.getX(); i++)
+			buffer.putInt(chunk.getValue());
+	};
+	private static final BufferDeserializer<Chunk, Point> DESERIALIZER = (buffer, args) -> {
+		Chunk chunk = new Chunk(args.x, args.y);
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++)
+			chunk.setValue(buffer.getInt());
+		assertFalse(buffer.hasRemaining());
+		return chunk;
+	};
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void adaptersRoundTrip() throws IOException {
+		Serializer<Chunk, ?> serializer = SERIALIZER.asSerializer();
+		Deserializer<Chunk, ?, Point> deserializer = DESERIALIZER.asDeserializer();
+		for (int x : new int[] {0, 1, 10, 5000, 3}) {
+			Chunk chunk = new Chunk(x, 0);
+			byte[] bytes = serializer.serialize(chunk);
+			assertEquals(4 + 4 * x, bytes.length);
+			assertEquals(chunk.getValue(), deserializer.read(bytes, new Point(x, 0)).getValue());
+
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			serializer.serialize(chunk, stream);
+			assertArrayEquals(bytes, stream.toByteArray());
+			assertEquals(chunk.getValue(), deserializer.deserialize(new ByteArrayInputStream(bytes), new Point(x, 0)).getValue());
+		}
+	}
+
+	@Test
+	public void streamSerializersAreAdapted() throws IOException {
+		Chunk chunk = new Chunk(4, 5);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+		BufferSerializer.of(TestChunks.SERIALIZER).write(chunk, buffer);
+		buffer.flip();
+		assertEquals(4, buffer.remaining());
+		assertEquals(chunk.getValue(), BufferDeserializer.of(TestChunks.DESERIALIZER).read(buffer, new Point(4, 5)).getValue());
+	}
+
+	@Test
+	public void adaptersAreNotWrappedAgain() {
+		Serializer<Chunk, ?> serializer = SERIALIZER.asSerializer();
+		assertSame(serializer, BufferSerializer.of(serializer));
+		Deserializer<Chunk, ?, Point> deserializer = DESERIALIZER.asDeserializer();
+		assertSame(deserializer, BufferDeserializer.of(deserializer));
+	}
+
+	@Test
+	public void cachesUseTheBufferPath() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> cache = new PrioritisedRegionFile2DChunkCache<>(folder, Chunk::new, DESERIALIZER.asDeserializer(), SERIALIZER.asSerializer(), 4, 16, 8);
+		for (int x = 0; x < 3000; x += 300)
+			cache.get(x, 1);
+		cache.saveAll(true);
+		PrioritisedRegionFile2DChunkCache<Chunk> reopened = new PrioritisedRegionFile2DChunkCache<>(folder, (x, y) -> {
+			throw new AssertionError("chunk " + x + ", " + y + " was not stored");
+		}, DESERIALIZER.asDeserializer(), SERIALIZER.asSerializer(), 4, 16, 8);
+		for (int x = 0; x < 3000; x += 300)
+			assertEquals(new Chunk(x, 1).getValue(), reopened.get(x, 1).getValue());
+	}
+}
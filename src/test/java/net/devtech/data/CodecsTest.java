@@ -0,0 +1,123 @@
+package net.devtech.data;
+
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class CodecsTest {
+	private static final Codec[] CODECS = {Codecs.NONE, Codecs.DEFLATE, Codecs.GZIP, Codecs.deflate(Deflater.BEST_SPEED)};
+
+	@Test
+	public void codecsRoundTrip() throws IOException {
+		Random random = new Random(1);
+		for (Codec codec : CODECS)
+			// the pooled deflaters and inflaters are reused between streams
+			for (int size : new int[] {0, 1, 100, 10000, 100000, 3}) {
+				byte[] data = new byte[size];
+				for (int i = 0; i < size; i++)
+					data[i] = (byte) (random.nextInt(8) + i / 64);
+				assertArrayEquals(codec + " " + size, data, decompress(codec, compress(codec, data)));
+			}
+	}
+
+	@Test
+	public void streamsBeyondThePoolSizeWork() throws IOException {
+		// more streams are open at once than a pool keeps, the surplus is dropped when they are closed
+		int streams = Runtime.getRuntime().availableProcessors() * 4 + 1;
+		ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[streams];
+		OutputStream[] compressing = new OutputStream[streams];
+		for (int i = 0; i < streams; i++)
+			compressing[i] = Codecs.DEFLATE.compress(outputs[i] = new ByteArrayOutputStream());
+		for (int i = 0; i < streams; i++) {
+			compressing[i].write(new byte[] {(byte) i, 1, 2, 3});
+			compressing[i].close();
+		}
+		InputStream[] decompressing = new InputStream[streams];
+		for (int i = 0; i < streams; i++)
+			decompressing[i] = Codecs.DEFLATE.decompress(new ByteArrayInputStream(outputs[i].toByteArray()));
+		for (int i = 0; i < streams; i++) {
+			byte[] read = new byte[4];
+			assertEquals(4, decompressing[i].read(read));
+			assertArrayEquals(new byte[] {(byte) i, 1, 2, 3}, read);
+			decompressing[i].close();
+		}
+		assertArrayEquals(new byte[5000], decompress(Codecs.DEFLATE, compress(Codecs.DEFLATE, new byte[5000])));
+	}
+
+	@Test
+	public void deflateCompresses() throws IOException {
+		byte[] data = new byte[10000];
+		assertTrue(compress(Codecs.DEFLATE, data).length < data.length / 10);
+	}
+
+	@Test
+	public void codecsAreFoundByTheirId() throws IOException {
+		assertSame(Codecs.NONE, Codecs.get(Codecs.NONE.id()));
+		assertSame(Codecs.GZIP, Codecs.get(Codecs.GZIP.id()));
+		// every deflate level shares the id
+		assertEquals(Codecs.DEFLATE.id(), Codecs.deflate(9).id());
+		assertNotNull(Codecs.get(Codecs.DEFLATE.id()));
+		// chunks written before codec ids were stored start with the gzip magic
+		assertSame(Codecs.GZIP, Codecs.get(Codecs.LEGACY_GZIP));
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownIdsAreRejected() throws IOException {
+		Codecs.get(200);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theLegacyIdCannotBeRegistered() {
+		Codecs.register(codec(Codecs.LEGACY_GZIP));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void usedIdsCannotBeRegistered() {
+		Codecs.register(codec(Codecs.GZIP.id()));
+	}
+
+	private static byte[] compress(Codec codec, byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = codec.compress(bytes)) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] decompress(Codec codec, byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = codec.decompress(new ByteArrayInputStream(data))) {
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) > 0)
+				bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Codec codec(int id) {
+		return new Codec() {
+			@Override
+			public int id() {
+				return id;
+			}
+
+			@Override
+			public OutputStream compress(OutputStream output) {
+				return output;
+			}
+
+			@Override
+			public InputStream decompress(InputStream input) {
+				return input;
+			}
+		};
+	}
+}
@@ -0,0 +1,94 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+	private static final long NEVER = 1000 * 60 * 60;
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	// the bytes of a segment holding the given records, written by a journal that is closed again
+	private byte[] segment(long... keys) throws IOException {
+		File scratch = new File(folder, "scratch");
+		Journal journal = new Journal(scratch, NEVER, entries -> {});
+		for (long key : keys)
+			journal.append(key, ByteBuffer.wrap(new byte[] {(byte) key, 2, 3}));
+		journal.commit();
+		byte[] bytes = Files.readAllBytes(new File(scratch, "journal-0.log").toPath());
+		journal.close();
+		TestChunks.delete(scratch);
+		return bytes;
+	}
+
+	private File crashed(byte[] segment, byte[] tail) throws IOException {
+		File crashed = new File(folder, "crashed");
+		crashed.mkdirs();
+		File log = new File(crashed, "journal-0.log");
+		Files.write(log.toPath(), segment);
+		Files.write(log.toPath(), tail, StandardOpenOption.APPEND);
+		return crashed;
+	}
+
+	@Test
+	public void replaysCommittedRecords() throws IOException {
+		Journal journal = new Journal(crashed(segment(1, 2), new byte[0]), NEVER, entries -> {});
+		assertEquals(2, journal.size());
+		assertArrayEquals(new byte[] {2, 2, 3}, journal.get(2));
+		journal.close();
+	}
+
+	@Test
+	public void stopsAtTornRecord() throws IOException {
+		byte[] complete = segment(1), torn = segment(2);
+		Journal journal = new Journal(crashed(complete, Arrays.copyOf(torn, torn.length - 1)), NEVER, entries -> {});
+		assertEquals(1, journal.size());
+		assertNull(journal.get(2));
+		journal.close();
+	}
+
+	@Test
+	public void stopsAtTornLengthWithoutAllocating() throws IOException {
+		// a header whose length is far larger than what is left of the file
+		ByteBuffer header = ByteBuffer.allocate(20).putLong(2).putInt(Integer.MAX_VALUE - 8).putInt(0).putInt(7);
+		Journal journal = new Journal(crashed(segment(1), header.array()), NEVER, entries -> {});
+		assertEquals(1, journal.size());
+		assertNotNull(journal.get(1));
+		journal.close();
+	}
+
+	@Test
+	public void checkpointWritesAndDeletesSegments() throws IOException {
+		Long2ObjectMap<byte[]> written = new Long2ObjectOpenHashMap<>();
+		Journal journal = new Journal(folder, NEVER, written::putAll);
+		journal.append(5, ByteBuffer.wrap(new byte[] {5}));
+		journal.commit();
+		journal.checkpoint();
+		assertArrayEquals(new byte[] {5}, written.get(5));
+		assertEquals(0, journal.size());
+		assertFalse(new File(folder, "journal-0.log").exists());
+		assertTrue(new File(folder, "journal-1.log").exists());
+		journal.close();
+	}
+}
@@ -0,0 +1,120 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class OffHeapArenaTest {
+	@Test
+	public void blobsRoundTripAcrossBlocks() throws IOException {
+		OffHeapArena arena = new OffHeapArena(1 << 16, 64, (key, data, dirty) -> fail());
+		for (int length : new int[] {0, 1, 64, 65, 1000})
+			assertTrue(arena.put(length, ByteBuffer.wrap(blob(length)), false));
+		for (int length : new int[] {0, 1, 64, 65, 1000})
+			assertArrayEquals(bytes(arena.remove(length)), blob(length));
+		assertEquals(0, arena.size());
+		assertEquals(0, arena.getUsedBytes());
+		assertEquals(0, arena.getAllocatedBytes());
+	}
+
+	@Test
+	public void replacedBlobsFreeTheirBlocks() throws IOException {
+		OffHeapArena arena = new OffHeapArena(1024, 64, (key, data, dirty) -> fail());
+		arena.put(1, ByteBuffer.wrap(blob(1000)), false);
+		arena.put(1, ByteBuffer.wrap(blob(10)), true);
+		assertEquals(64, arena.getAllocatedBytes());
+		assertEquals(10, arena.getUsedBytes());
+		assertTrue(arena.isDirty(1));
+		assertTrue(arena.discard(1));
+		assertFalse(arena.contains(1));
+		assertEquals(0, arena.getFillLevel(), 0);
+	}
+
+	@Test
+	public void theOldestBlobsAreEvicted() throws IOException {
+		LongList evicted = new LongArrayList();
+		OffHeapArena arena = new OffHeapArena(256, 64, (key, data, dirty) -> {
+			assertEquals(100, data.remaining());
+			assertEquals(key == 1, dirty);
+			evicted.add(key);
+		});
+		for (long key = 1; key <= 4; key++)
+			arena.put(key, ByteBuffer.wrap(blob(100)), key == 1);
+		assertEquals(LongArrayList.wrap(new long[] {1, 2}), evicted);
+		assertEquals(2, arena.size());
+		assertEquals(1, arena.getFillLevel(), 0);
+		// a blob larger than the budget is not stored and evicts nothing
+		assertFalse(arena.put(5, ByteBuffer.wrap(blob(300)), false));
+		assertEquals(2, evicted.size());
+	}
+
+	@Test
+	public void failedEvictionsKeepTheBlob() throws IOException {
+		boolean[] failing = {true};
+		LongList evicted = new LongArrayList();
+		OffHeapArena arena = new OffHeapArena(256, 64, (key, data, dirty) -> {
+			if (failing[0]) throw new IOException("disk full");
+			evicted.add(key);
+		});
+		arena.put(1, ByteBuffer.wrap(blob(100)), true);
+		arena.put(2, ByteBuffer.wrap(blob(100)), true);
+		try {
+			arena.put(3, ByteBuffer.wrap(blob(100)), true);
+			fail();
+		} catch (IOException expected) {
+		}
+		// nothing was released or stored and the failed blob is still the next one evicted
+		assertEquals(2, arena.size());
+		assertTrue(arena.isDirty(1));
+		assertFalse(arena.contains(3));
+		assertEquals(200, arena.getUsedBytes());
+		assertEquals(256, arena.getAllocatedBytes());
+
+		// a failed replacement keeps the old blob
+		try {
+			arena.put(2, ByteBuffer.wrap(blob(200)), true);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertArrayEquals(blob(100), bytes(arena.remove(2)));
+		arena.put(2, ByteBuffer.wrap(blob(100)), true);
+
+		failing[0] = false;
+		arena.put(3, ByteBuffer.wrap(blob(100)), true);
+		assertEquals(LongArrayList.wrap(new long[] {1}), evicted);
+		assertArrayEquals(blob(100), bytes(arena.remove(2)));
+		assertArrayEquals(blob(100), bytes(arena.remove(3)));
+	}
+
+	@Test
+	public void dirtyBlobsAreWrittenOnce() throws IOException {
+		LongList written = new LongArrayList();
+		OffHeapArena arena = new OffHeapArena(1024, 64, (key, data, dirty) -> fail());
+		arena.put(1, ByteBuffer.wrap(blob(10)), true);
+		arena.put(2, ByteBuffer.wrap(blob(10)), false);
+		arena.copyDirty((key, data, dirty) -> written.add(key));
+		assertTrue(arena.isDirty(1));
+		arena.writeDirty((key, data, dirty) -> written.add(key));
+		assertFalse(arena.isDirty(1));
+		arena.writeDirty((key, data, dirty) -> written.add(key));
+		assertEquals(LongArrayList.wrap(new long[] {1, 1}), written);
+		assertEquals(2, arena.size());
+	}
+
+	private static byte[] blob(int length) {
+		byte[] blob = new byte[length];
+		for (int i = 0; i < length; i++)
+			blob[i] = (byte) (i * 31 + length);
+		return blob;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,88 @@
+package net.devtech.data;
+
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RegionCompactorTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void compactionKeepsOnlyLiveBlobs() throws IOException {
+		File file = new File(folder, "0" + RegionCompactor.SUFFIX);
+		try (RegionFile region = new RegionFile(file, 16, StorageBackend.STREAM)) {
+			for (int slot = 0; slot < 16; slot++)
+				region.write(slot, ByteBuffer.wrap(blob(3000, slot)));
+			// the grown blobs move to the end and leave their old sectors behind
+			for (int slot = 0; slot < 16; slot += 2)
+				region.write(slot, ByteBuffer.wrap(blob(9000, slot)));
+			region.remove(1);
+		}
+		long before = file.length();
+		StorageStats stats = RegionCompactor.compact(file, 16, StorageBackend.STREAM);
+		assertEquals(15, stats.getChunks());
+		assertTrue(stats.getDeadBytes() > 0);
+		assertTrue(file.length() < before);
+		assertFalse(new File(file.getPath() + ".compact").exists());
+
+		StorageStats after = RegionCompactor.stats(file, 16, StorageBackend.STREAM);
+		assertEquals(stats.getLiveBytes(), after.getLiveBytes());
+		assertTrue(after.getDeadRatio() < stats.getDeadRatio());
+		try (RegionFile region = new RegionFile(file, 16, StorageBackend.STREAM)) {
+			assertNull(region.read(1));
+			for (int slot = 0; slot < 16; slot += 2)
+				assertArrayEquals(blob(9000, slot), bytes(region.read(slot)));
+			for (int slot = 3; slot < 16; slot += 2)
+				assertArrayEquals(blob(3000, slot), bytes(region.read(slot)));
+		}
+	}
+
+	@Test
+	public void rewritingLeavesTheFileAlone() throws IOException {
+		File file = new File(folder, "0" + RegionCompactor.SUFFIX);
+		try (RegionFile region = new RegionFile(file, 4, StorageBackend.CHANNEL)) {
+			region.write(0, ByteBuffer.wrap(blob(5000, 0)));
+			region.write(1, ByteBuffer.wrap(blob(100, 1)));
+			region.write(0, ByteBuffer.wrap(blob(10000, 0)));
+		}
+		long length = file.length();
+		File copy = RegionCompactor.rewrite(file, 4, StorageBackend.CHANNEL);
+		assertEquals(length, file.length());
+		assertTrue(copy.length() < length);
+		RegionCompactor.replace(copy, file);
+		assertFalse(copy.exists());
+		try (RegionFile region = new RegionFile(file, 4, StorageBackend.CHANNEL)) {
+			assertArrayEquals(blob(10000, 0), bytes(region.read(0)));
+			assertArrayEquals(blob(100, 1), bytes(region.read(1)));
+		}
+	}
+
+	private static byte[] blob(int length, int seed) {
+		byte[] blob = new byte[length];
+		for (int i = 0; i < length; i++)
+			blob[i] = (byte) (i * 31 + seed);
+		return blob;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
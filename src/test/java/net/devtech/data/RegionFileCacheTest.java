@@ -0,0 +1,110 @@
+package net.devtech.data;
+
+import net.devtech.Chunk;
+import net.devtech.TestChunks;
+import net.devtech.chunk2d.PrioritisedRegionFile2DChunkCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RegionFileCacheTest {
+	private File folder;
+	private RegionFileCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+		cache = new RegionFileCache(2, region -> new File(folder, region + RegionCompactor.SUFFIX), 16, StorageBackend.STREAM);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		cache.close();
+		TestChunks.delete(folder);
+	}
+
+	@Test
+	public void filesStayOpenBetweenAcquires() throws IOException {
+		RegionFileCache.Handle first;
+		try (RegionFileCache.Handle handle = cache.acquire(1, true)) {
+			first = handle;
+		}
+		try (RegionFileCache.Handle handle = cache.acquire(1, true)) {
+			assertSame(first, handle);
+		}
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void theLeastRecentlyUsedFileIsClosed() throws IOException {
+		RegionFileCache.Handle first = cache.acquire(1, true);
+		first.close();
+		cache.acquire(2, true).close();
+		cache.acquire(1, true).close();
+		cache.acquire(3, true).close();
+		assertEquals(2, cache.size());
+		try (RegionFileCache.Handle handle = cache.acquire(1, true)) {
+			assertSame(first, handle);
+		}
+		// region 2 was evicted and is opened again
+		RegionFileCache.Handle second = cache.acquire(2, true);
+		second.close();
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void evictedFilesStayUsableUntilReleased() throws IOException {
+		try (RegionFileCache.Handle held = cache.acquire(1, true)) {
+			cache.acquire(2, true).close();
+			cache.acquire(3, true).close();
+			cache.invalidate(1);
+			held.file().write(0, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		}
+		try (RegionFileCache.Handle handle = cache.acquire(1, false)) {
+			ByteBuffer data = handle.file().read(0);
+			assertEquals(3, data.remaining());
+		}
+	}
+
+	@Test
+	public void missingFilesAreOnlyCreatedOnRequest() throws IOException {
+		assertNull(cache.acquire(5, false));
+		assertFalse(new File(folder, 5 + RegionCompactor.SUFFIX).exists());
+		cache.acquire(5, true).close();
+		assertTrue(new File(folder, 5 + RegionCompactor.SUFFIX).exists());
+	}
+
+	@Test
+	public void closedCachesKeepNothingOpen() throws IOException {
+		cache.acquire(1, true).close();
+		cache.close();
+		assertEquals(0, cache.size());
+		RegionFileCache.Handle first = cache.acquire(1, true);
+		first.close();
+		try (RegionFileCache.Handle handle = cache.acquire(1, true)) {
+			assertNotSame(first, handle);
+		}
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void cachesKeepAtMostTheLimitOpen() throws IOException {
+		PrioritisedRegionFile2DChunkCache<Chunk> chunks = new PrioritisedRegionFile2DChunkCache<>(folder, Chunk::new, TestChunks.DESERIALIZER, TestChunks.SERIALIZER, 4, 16, 8);
+		chunks.setOpenFileLimit(3);
+		for (int x = 0; x < 80; x += 8) {
+			chunks.get(x, 0);
+			chunks.markDirty(x, 0);
+			chunks.save(x, 0, false);
+			assertTrue(chunks.getOpenFiles() <= 3);
+		}
+		chunks.saveAll(true);
+		assertEquals(0, chunks.getOpenFiles());
+		for (int x = 0; x < 80; x += 8)
+			assertTrue(chunks.isStored(x, 0));
+	}
+}
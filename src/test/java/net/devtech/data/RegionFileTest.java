@@ -0,0 +1,88 @@
+package net.devtech.data;
+
+import net.devtech.TestChunks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RegionFileTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = TestChunks.folder();
+	}
+
+	@After
+	public void tearDown() {
+		TestChunks.delete(folder);
+	}
+
+	private static byte[] blob(int length, int seed) {
+		byte[] blob = new byte[length];
+		for (int i = 0; i < length; i++)
+			blob[i] = (byte) (i * 31 + seed);
+		return blob;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void slotsSurviveReopening() throws IOException {
+		for (StorageBackend backend : StorageBackend.values()) {
+			File file = new File(folder, backend + ".region");
+			try (RegionFile region = new RegionFile(file, 16, backend)) {
+				region.write(0, ByteBuffer.wrap(blob(10, 1)));
+				region.write(5, ByteBuffer.wrap(blob(2000, 2)));
+				assertTrue(region.has(5));
+				assertFalse(region.has(1));
+				assertNull(region.read(1));
+			}
+			try (RegionFile region = new RegionFile(file, 16, backend)) {
+				assertArrayEquals(backend.toString(), blob(10, 1), bytes(region.read(0)));
+				assertArrayEquals(backend.toString(), blob(2000, 2), bytes(region.read(5)));
+				assertEquals(2, region.stats().getChunks());
+			}
+		}
+	}
+
+	@Test
+	public void rewrittenSlotsKeepTheirNeighbors() throws IOException {
+		try (RegionFile region = new RegionFile(new File(folder, "grow.region"), 4, StorageBackend.STREAM)) {
+			region.write(0, ByteBuffer.wrap(blob(100, 1)));
+			region.write(1, ByteBuffer.wrap(blob(100, 2)));
+			// outgrows its sector and moves behind slot 1
+			region.write(0, ByteBuffer.wrap(blob(3000, 3)));
+			assertArrayEquals(blob(3000, 3), bytes(region.read(0)));
+			assertArrayEquals(blob(100, 2), bytes(region.read(1)));
+			// fits into the sectors it owns
+			region.write(0, ByteBuffer.wrap(blob(600, 4)));
+			assertArrayEquals(blob(600, 4), bytes(region.read(0)));
+			assertEquals(700, region.liveBytes());
+			assertTrue(region.reclaimableBytes() > 0);
+		}
+	}
+
+	@Test
+	public void removedSlotsStayEmpty() throws IOException {
+		File file = new File(folder, "remove.region");
+		try (RegionFile region = new RegionFile(file, 4, StorageBackend.STREAM)) {
+			region.write(2, ByteBuffer.wrap(blob(50, 1)));
+			region.remove(2);
+			assertFalse(region.has(2));
+		}
+		try (RegionFile region = new RegionFile(file, 4, StorageBackend.STREAM)) {
+			assertNull(region.read(2));
+			assertEquals(0, region.liveBytes());
+		}
+	}
+}
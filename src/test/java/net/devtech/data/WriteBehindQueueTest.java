@@ -0,0 +1,100 @@
+package net.devtech.data;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+	@Test
+	public void writesQueuedSnapshots() throws IOException {
+		Long2ObjectMap<byte[]> written = new Long2ObjectOpenHashMap<>();
+		WriteBehindQueue queue = new WriteBehindQueue(4, 10, k -> k, (group, batch) -> {
+			synchronized (written) {
+				written.putAll(batch);
+			}
+		});
+		for (long key = 0; key < 20; key++)
+			queue.put(key, new byte[] {(byte) key});
+		queue.flush();
+		assertEquals(0, queue.size());
+		synchronized (written) {
+			assertEquals(20, written.size());
+			assertArrayEquals(new byte[] {7}, written.get(7));
+		}
+		queue.close();
+	}
+
+	@Test
+	public void failedSnapshotsStayQueuedUntilWritten() throws IOException {
+		Long2ObjectMap<byte[]> written = new Long2ObjectOpenHashMap<>();
+		boolean[] broken = {true};
+		WriteBehindQueue queue = new WriteBehindQueue(4, 10, k -> k, (group, batch) -> {
+			synchronized (written) {
+				if (broken[0]) throw new IOException("disk full");
+				written.putAll(batch);
+			}
+		});
+		queue.put(1, new byte[] {1});
+		try {
+			queue.flush();
+			fail("the failure was not reported");
+		} catch (IOException expected) {
+		}
+		// the only copy of the chunk is still readable
+		assertArrayEquals(new byte[] {1}, queue.get(1));
+
+		synchronized (written) {
+			broken[0] = false;
+		}
+		queue.flush();
+		assertNull(queue.get(1));
+		synchronized (written) {
+			assertArrayEquals(new byte[] {1}, written.get(1));
+		}
+		queue.close();
+	}
+
+	@Test
+	public void theBatchBeingWrittenCountsAgainstTheCapacity() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1), release = new CountDownLatch(1);
+		WriteBehindQueue queue = new WriteBehindQueue(2, 10, k -> k, (group, batch) -> {
+			writing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		});
+		queue.put(1, new byte[] {1});
+		writing.await();
+		queue.put(2, new byte[] {2});
+		Thread third = new Thread(() -> queue.put(3, new byte[] {3}));
+		third.start();
+		third.join(100);
+		// one snapshot is being written and one is pending, so the third has to wait
+		assertTrue(third.isAlive());
+		assertEquals(2, queue.size());
+		release.countDown();
+		third.join();
+		queue.close();
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void closeKeepsUnwritableSnapshots() {
+		WriteBehindQueue queue = new WriteBehindQueue(4, 10, k -> k, (group, batch) -> {
+			throw new IOException("disk full");
+		});
+		queue.put(1, new byte[] {1});
+		try {
+			queue.close();
+			fail("the failure was not reported");
+		} catch (IOException expected) {
+		}
+		assertArrayEquals(new byte[] {1}, queue.get(1));
+	}
+}
@@ -0,0 +1,49 @@
+package net.devtech.util;
+
+import org.junit.Test;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ExistenceIndexTest {
+	@Test
+	public void regionsAreLoadedOnce() throws IOException {
+		int[] loads = {0};
+		ExistenceIndex index = new ExistenceIndex(8, (region, bits) -> {
+			loads[0]++;
+			// the chunk at offset 1, 2 of every region is stored
+			bits[0] |= 1L << (8 + 2);
+		});
+		assertTrue(index.contains(1, 2));
+		assertFalse(index.contains(1, 3));
+		assertEquals(1, loads[0]);
+		assertTrue(index.contains(-7, -6));
+		assertEquals(2, loads[0]);
+	}
+
+	@Test
+	public void addedChunksSurviveTheLoad() throws IOException {
+		ExistenceIndex index = new ExistenceIndex(8, (region, bits) -> {});
+		index.add(-1, -1);
+		assertTrue(index.contains(-1, -1));
+		assertFalse(index.contains(-1, -2));
+		index.add(-1, -2);
+		assertTrue(index.contains(-1, -2));
+	}
+
+	@Test
+	public void failedLoadsAreRetried() throws IOException {
+		boolean[] broken = {true};
+		ExistenceIndex index = new ExistenceIndex(8, (region, bits) -> {
+			if (broken[0]) throw new IOException("disk gone");
+			bits[0] |= 1;
+		});
+		try {
+			index.contains(0, 0);
+			fail("the failure was not thrown");
+		} catch (IOException expected) {
+		}
+		broken[0] = false;
+		assertTrue(index.contains(0, 0));
+	}
+}
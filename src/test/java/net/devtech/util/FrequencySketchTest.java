@@ -0,0 +1,35 @@
+package net.devtech.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrequencySketchTest {
+	@Test
+	public void countsAccesses() {
+		FrequencySketch sketch = new FrequencySketch(64);
+		for (int i = 0; i < 5; i++)
+			sketch.increment(42);
+		assertTrue(sketch.frequency(42) >= 5);
+		assertTrue(sketch.frequency(42) > sketch.frequency(43));
+	}
+
+	@Test
+	public void countersSaturate() {
+		FrequencySketch sketch = new FrequencySketch(64);
+		for (int i = 0; i < 100; i++)
+			sketch.increment(7);
+		assertEquals(15, sketch.frequency(7));
+	}
+
+	@Test
+	public void popularityFades() {
+		FrequencySketch sketch = new FrequencySketch(16);
+		for (int i = 0; i < 15; i++)
+			sketch.increment(1);
+		// enough other accesses to halve the counters
+		for (long key = 100; key < 300; key++)
+			sketch.increment(key);
+		assertTrue(sketch.frequency(1) < 15);
+	}
+}
@@ -0,0 +1,40 @@
+package net.devtech.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+	@Test
+	public void bucketsArePowersOfTwo() {
+		assertEquals(0, LatencyHistogram.bucket(-5));
+		assertEquals(0, LatencyHistogram.bucket(1));
+		assertEquals(1, LatencyHistogram.bucket(3));
+		assertEquals(10, LatencyHistogram.bucket(1024));
+		assertEquals(62, LatencyHistogram.bucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void recordsCountsAndTotals() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(100);
+		histogram.record(120);
+		histogram.record(-1);
+		assertEquals(2, histogram.counts()[LatencyHistogram.bucket(100)]);
+		assertEquals(220, histogram.total());
+		histogram.reset();
+		assertEquals(0, histogram.total());
+		assertEquals(0, histogram.counts()[LatencyHistogram.bucket(100)]);
+	}
+
+	@Test
+	public void percentilesUseTheBucketBounds() {
+		long[] counts = new long[64];
+		counts[LatencyHistogram.bucket(100)] = 99;
+		counts[LatencyHistogram.bucket(1000000)] = 1;
+		assertEquals(127, LatencyHistogram.percentile(counts, .5));
+		assertEquals(127, LatencyHistogram.percentile(counts, .99));
+		assertEquals((1 << 20) - 1, LatencyHistogram.percentile(counts, 1));
+		assertEquals(0, LatencyHistogram.percentile(new long[64], .5));
+	}
+}
@@ -0,0 +1,69 @@
+package net.devtech.util;
+
+import net.devtech.chunk2d.Located2D;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class Region2DTest {
+	@Test
+	public void slotsTrackTheirPopulation() {
+		Region2D<String> region = new Region2D<>(9);
+		assertTrue(region.empty());
+		region.put(0, 0, "a");
+		region.put(8, 8, "b");
+		region.put(8, 8, "c");
+		assertEquals(2, region.population());
+		assertEquals("c", region.get(8, 8));
+		assertTrue(region.has(0, 0));
+		assertFalse(region.has(0, 1));
+		assertNull(region.get(0, 1));
+
+		assertEquals("a", region.remove(0, 0));
+		assertNull(region.remove(0, 0));
+		region.put(8, 8, null);
+		assertTrue(region.empty());
+	}
+
+	@Test
+	public void populateFillsOnlyEmptySlots() {
+		Region2D<String> region = new Region2D<>(9);
+		region.put(3, 4, "kept");
+		region.populate((x, y) -> x + "," + y);
+		assertTrue(region.filled());
+		assertEquals("kept", region.get(3, 4));
+		assertEquals("8,7", region.get(8, 7));
+		region.clear();
+		assertTrue(region.empty());
+		assertFalse(region.has(8, 7));
+	}
+
+	@Test
+	public void forEachOccupiedVisitsEveryOccupiedSlotOnce() {
+		// 81 slots span two words of the bitset
+		Region2D<String> region = new Region2D<>(9);
+		List<String> expected = new ArrayList<>();
+		for (int x = 0; x < 9; x++)
+			for (int y = (x * 5) % 3; y < 9; y += 3) {
+				region.put(x, y, x + "," + y);
+				expected.add(x + "," + y);
+			}
+		List<String> visited = new ArrayList<>();
+		region.forEachOccupied((x, y) -> visited.add(region.get(x, y)));
+		assertEquals(expected, visited);
+	}
+
+	@Test
+	public void negativeCoordinatesMapIntoTheirRegion() {
+		assertEquals(-1, Region2D.regionX(-1, 32));
+		assertEquals(31, Region2D.offsetX(-1, 32));
+		assertEquals(-2, Region2D.regionY(-33, 32));
+		assertEquals(31, Region2D.offsetY(-33, 32));
+		assertEquals(0, Region2D.regionX(31, 32));
+		long key = Region2D.regionKey(-1, 40, 32);
+		assertEquals(-1, Located2D.keyX(key));
+		assertEquals(1, Located2D.keyY(key));
+	}
+}
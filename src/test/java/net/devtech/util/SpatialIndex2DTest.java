@@ -0,0 +1,62 @@
+package net.devtech.util;
+
+import org.junit.Test;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SpatialIndex2DTest {
+	@Test
+	public void tracksPositions() {
+		SpatialIndex2D index = new SpatialIndex2D();
+		assertTrue(index.add(-1, -1));
+		assertFalse(index.add(-1, -1));
+		assertTrue(index.add(16, 0));
+		assertEquals(2, index.size());
+		assertTrue(index.contains(-1, -1));
+		assertFalse(index.contains(-1, 0));
+		assertTrue(index.remove(-1, -1));
+		assertFalse(index.remove(-1, -1));
+		assertEquals(1, index.size());
+		index.clear();
+		assertFalse(index.contains(16, 0));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void rectQueriesMatchABruteForceScan() {
+		Random random = new Random(3);
+		SpatialIndex2D index = new SpatialIndex2D();
+		Set<Long> positions = new HashSet<>();
+		for (int i = 0; i < 2000; i++) {
+			int x = random.nextInt(200) - 100, y = random.nextInt(200) - 100;
+			index.add(x, y);
+			positions.add(pack(x, y));
+		}
+		for (int query = 0; query < 100; query++) {
+			int minX = random.nextInt(220) - 110, minY = random.nextInt(220) - 110;
+			int maxX = minX + random.nextInt(60), maxY = minY + random.nextInt(60);
+			Set<Long> expected = new HashSet<>();
+			for (long position : positions) {
+				int x = (int) (position >> 32), y = (int) position;
+				if (x >= minX && x <= maxX && y >= minY && y <= maxY) expected.add(position);
+			}
+			Set<Long> found = new HashSet<>();
+			index.forEachInRect(minX, minY, maxX, maxY, (x, y) -> assertTrue(found.add(pack(x, y))));
+			assertEquals(expected, found);
+		}
+	}
+
+	@Test
+	public void emptyRectsFindNothing() {
+		SpatialIndex2D index = new SpatialIndex2D();
+		index.add(0, 0);
+		index.forEachInRect(1, 0, 0, 0, (x, y) -> fail());
+	}
+
+	private static long pack(int x, int y) {
+		return (long) x << 32 | y & 0xffffffffL;
+	}
+}